@@ -28,6 +28,11 @@
 // Modified 2014 by Moritz Neikes:
 // 	* moved the constant sigma array from xsalsa20 to this class for convenience 
 
+// Further modifications for DCnet:
+// 	* added a counter mode keystream that works on int-array state (stream_setup, stream_xor)
+// 	* added a seekable variant of stream_xor that takes nonce and block counter as arguments
+// 	* added stream_xor_lanes, which computes the keystreams of several keys in interleaved lanes
+
 package com.neilalexander.jnacl.crypto;
 
 public class salsa20
@@ -265,4 +270,293 @@ public class salsa20
 		
 		return 0;
 	}
+
+	public final static int STATE_WORDS = 16;
+	public final static int BLOCK_BYTES = 64;
+
+	/**
+	 * Prepares the input of the salsa20 core for a given key and nonce.
+	 * The block counter of the state starts at 0 and is advanced by {@code stream_xor}.
+	 * @param  state   Output, an array of {@code STATE_WORDS} ints
+	 * @param  n       Nonce (8 byte)
+	 * @param  noffset Offset of the nonce in {@code n}
+	 * @param  k       Key (32 byte)
+	 */
+	public static void stream_setup(int[] state, byte[] n, int noffset, byte[] k)
+	{
+		state[0] = load_littleendian(sigma, 0);
+		state[1] = load_littleendian(k, 0);
+		state[2] = load_littleendian(k, 4);
+		state[3] = load_littleendian(k, 8);
+		state[4] = load_littleendian(k, 12);
+		state[5] = load_littleendian(sigma, 4);
+		state[6] = load_littleendian(n, noffset);
+		state[7] = load_littleendian(n, noffset + 4);
+		state[8] = 0;
+		state[9] = 0;
+		state[10] = load_littleendian(sigma, 8);
+		state[11] = load_littleendian(k, 16);
+		state[12] = load_littleendian(k, 20);
+		state[13] = load_littleendian(k, 24);
+		state[14] = load_littleendian(k, 28);
+		state[15] = load_littleendian(sigma, 12);
+	}
+
+	/**
+	 * XORs keystream into {@code c}, starting at the current block counter of {@code state}.
+	 * Every started block of 64 bytes advances the block counter, so if {@code clen}
+	 * is not a multiple of 64, the rest of the last block is discarded.
+	 * This method does not allocate any memory.
+	 * @param  c       The accumulator that the keystream is XORed into
+	 * @param  coffset Offset in {@code c}
+	 * @param  clen    Number of bytes to XOR
+	 * @param  state   A state that was prepared by {@code stream_setup}
+	 */
+	public static void stream_xor(byte[] c, int coffset, int clen, int[] state)
+	{
+		while (clen > 0)
+		{
+			int len = clen < BLOCK_BYTES ? clen : BLOCK_BYTES;
+			core_xor(c, coffset, len, state, state[6], state[7], state[8], state[9]);
+
+			if (++state[8] == 0)
+				++state[9];
+
+			clen -= len;
+			coffset += len;
+		}
+	}
+
+	/**
+	 * XORs keystream into {@code c}, starting at an arbitrary position of an arbitrary stream.
+	 * Unlike {@code stream_xor(byte[], int, int, int[])}, this does not use or change the
+	 * nonce and block counter of {@code state}, so one state can be shared by several threads.
+	 * This method does not allocate any memory.
+	 * @param  c       The accumulator that the keystream is XORed into
+	 * @param  coffset Offset in {@code c}
+	 * @param  clen    Number of bytes to XOR
+	 * @param  state   A state that was prepared by {@code stream_setup}; only key and constants are used
+	 * @param  n0      The lower word of the nonce
+	 * @param  n1      The upper word of the nonce
+	 * @param  counter The block counter of the first block
+	 */
+	public static void stream_xor(byte[] c, int coffset, int clen, int[] state, int n0, int n1, long counter)
+	{
+		while (clen > 0)
+		{
+			int len = clen < BLOCK_BYTES ? clen : BLOCK_BYTES;
+			core_xor(c, coffset, len, state, n0, n1, (int) counter, (int) (counter >>> 32));
+
+			counter++;
+			clen -= len;
+			coffset += len;
+		}
+	}
+
+	/**
+	 * Computes one block of the salsa20 core from the key of {@code state} and the given
+	 * nonce and block counter, and XORs its first {@code len} bytes into {@code c}.
+	 */
+	private static void core_xor(byte[] c, int coffset, int len, int[] state, int n0, int n1, int c0, int c1)
+	{
+		int x0 = state[0], x1 = state[1], x2 = state[2], x3 = state[3];
+		int x4 = state[4], x5 = state[5], x6 = n0, x7 = n1;
+		int x8 = c0, x9 = c1, x10 = state[10], x11 = state[11];
+		int x12 = state[12], x13 = state[13], x14 = state[14], x15 = state[15];
+
+		for (int i = ROUNDS; i > 0; i -= 2)
+		{
+			x4 ^= Integer.rotateLeft(x0 + x12, 7);
+			x8 ^= Integer.rotateLeft(x4 + x0, 9);
+			x12 ^= Integer.rotateLeft(x8 + x4, 13);
+			x0 ^= Integer.rotateLeft(x12 + x8, 18);
+			x9 ^= Integer.rotateLeft(x5 + x1, 7);
+			x13 ^= Integer.rotateLeft(x9 + x5, 9);
+			x1 ^= Integer.rotateLeft(x13 + x9, 13);
+			x5 ^= Integer.rotateLeft(x1 + x13, 18);
+			x14 ^= Integer.rotateLeft(x10 + x6, 7);
+			x2 ^= Integer.rotateLeft(x14 + x10, 9);
+			x6 ^= Integer.rotateLeft(x2 + x14, 13);
+			x10 ^= Integer.rotateLeft(x6 + x2, 18);
+			x3 ^= Integer.rotateLeft(x15 + x11, 7);
+			x7 ^= Integer.rotateLeft(x3 + x15, 9);
+			x11 ^= Integer.rotateLeft(x7 + x3, 13);
+			x15 ^= Integer.rotateLeft(x11 + x7, 18);
+			x1 ^= Integer.rotateLeft(x0 + x3, 7);
+			x2 ^= Integer.rotateLeft(x1 + x0, 9);
+			x3 ^= Integer.rotateLeft(x2 + x1, 13);
+			x0 ^= Integer.rotateLeft(x3 + x2, 18);
+			x6 ^= Integer.rotateLeft(x5 + x4, 7);
+			x7 ^= Integer.rotateLeft(x6 + x5, 9);
+			x4 ^= Integer.rotateLeft(x7 + x6, 13);
+			x5 ^= Integer.rotateLeft(x4 + x7, 18);
+			x11 ^= Integer.rotateLeft(x10 + x9, 7);
+			x8 ^= Integer.rotateLeft(x11 + x10, 9);
+			x9 ^= Integer.rotateLeft(x8 + x11, 13);
+			x10 ^= Integer.rotateLeft(x9 + x8, 18);
+			x12 ^= Integer.rotateLeft(x15 + x14, 7);
+			x13 ^= Integer.rotateLeft(x12 + x15, 9);
+			x14 ^= Integer.rotateLeft(x13 + x12, 13);
+			x15 ^= Integer.rotateLeft(x14 + x13, 18);
+		}
+
+		if (len == BLOCK_BYTES)
+		{
+			xor_littleendian(c, coffset, x0 + state[0]);
+			xor_littleendian(c, coffset + 4, x1 + state[1]);
+			xor_littleendian(c, coffset + 8, x2 + state[2]);
+			xor_littleendian(c, coffset + 12, x3 + state[3]);
+			xor_littleendian(c, coffset + 16, x4 + state[4]);
+			xor_littleendian(c, coffset + 20, x5 + state[5]);
+			xor_littleendian(c, coffset + 24, x6 + n0);
+			xor_littleendian(c, coffset + 28, x7 + n1);
+			xor_littleendian(c, coffset + 32, x8 + c0);
+			xor_littleendian(c, coffset + 36, x9 + c1);
+			xor_littleendian(c, coffset + 40, x10 + state[10]);
+			xor_littleendian(c, coffset + 44, x11 + state[11]);
+			xor_littleendian(c, coffset + 48, x12 + state[12]);
+			xor_littleendian(c, coffset + 52, x13 + state[13]);
+			xor_littleendian(c, coffset + 56, x14 + state[14]);
+			xor_littleendian(c, coffset + 60, x15 + state[15]);
+			return;
+		}
+
+		// A partial block at the end of a stream
+		int end = coffset + len;
+		coffset = xor_littleendian(c, coffset, end, x0 + state[0]);
+		coffset = xor_littleendian(c, coffset, end, x1 + state[1]);
+		coffset = xor_littleendian(c, coffset, end, x2 + state[2]);
+		coffset = xor_littleendian(c, coffset, end, x3 + state[3]);
+		coffset = xor_littleendian(c, coffset, end, x4 + state[4]);
+		coffset = xor_littleendian(c, coffset, end, x5 + state[5]);
+		coffset = xor_littleendian(c, coffset, end, x6 + n0);
+		coffset = xor_littleendian(c, coffset, end, x7 + n1);
+		coffset = xor_littleendian(c, coffset, end, x8 + c0);
+		coffset = xor_littleendian(c, coffset, end, x9 + c1);
+		coffset = xor_littleendian(c, coffset, end, x10 + state[10]);
+		coffset = xor_littleendian(c, coffset, end, x11 + state[11]);
+		coffset = xor_littleendian(c, coffset, end, x12 + state[12]);
+		coffset = xor_littleendian(c, coffset, end, x13 + state[13]);
+		coffset = xor_littleendian(c, coffset, end, x14 + state[14]);
+		xor_littleendian(c, coffset, end, x15 + state[15]);
+	}
+
+	/**
+	 * The number of keys that {@code stream_xor_lanes} advances together.
+	 */
+	public final static int LANES = 4;
+
+	/**
+	 * XORs the keystreams of up to {@code LANES} keys into the same accumulator {@code c}.
+	 * The salsa20 cores of all keys are computed together, with the words of the
+	 * states interleaved so that word {@code w} of lane {@code l} is at index
+	 * {@code w * LANES + l}. The lanes are independent of each other, so the
+	 * operations of one lane can be overlapped with the operations of the others,
+	 * and each step of the core is a loop over the lanes that the JIT can vectorize.
+	 * The result is the same as calling the seekable {@code stream_xor} once per key.
+	 * @param  c       The accumulator that the keystreams are XORed into
+	 * @param  coffset Offset in {@code c}
+	 * @param  clen    Number of bytes to XOR
+	 * @param  states  States that were prepared by {@code stream_setup}; only key and constants are used
+	 * @param  n0      The lower words of the nonces, at the same indices as {@code states}
+	 * @param  first   The index of the first key in {@code states} and {@code n0}
+	 * @param  count   The number of keys, at most {@code LANES}
+	 * @param  n1      The upper word of the nonce, which is the same for all keys
+	 * @param  counter The block counter of the first block
+	 */
+	public static void stream_xor_lanes(byte[] c, int coffset, int clen, int[][] states, int[] n0, int first, int count, int n1, long counter)
+	{
+		int[] j = new int[STATE_WORDS * LANES];
+		int[] x = new int[STATE_WORDS * LANES];
+		for (int l = 0; l < LANES; ++l)
+		{
+			// Unused lanes repeat the first key; their output is discarded.
+			int k = l < count ? first + l : first;
+			int[] state = states[k];
+			for (int w = 0; w < STATE_WORDS; ++w)
+				j[w * LANES + l] = state[w];
+			j[6 * LANES + l] = n0[k];
+			j[7 * LANES + l] = n1;
+		}
+
+		while (clen > 0)
+		{
+			for (int l = 0; l < LANES; ++l)
+			{
+				j[8 * LANES + l] = (int) counter;
+				j[9 * LANES + l] = (int) (counter >>> 32);
+			}
+			System.arraycopy(j, 0, x, 0, x.length);
+
+			for (int i = ROUNDS; i > 0; i -= 2)
+			{
+				quarter_lanes(x, 0, 4, 8, 12);
+				quarter_lanes(x, 5, 9, 13, 1);
+				quarter_lanes(x, 10, 14, 2, 6);
+				quarter_lanes(x, 15, 3, 7, 11);
+				quarter_lanes(x, 0, 1, 2, 3);
+				quarter_lanes(x, 5, 6, 7, 4);
+				quarter_lanes(x, 10, 11, 8, 9);
+				quarter_lanes(x, 15, 12, 13, 14);
+			}
+
+			int len = clen < BLOCK_BYTES ? clen : BLOCK_BYTES;
+			int end = coffset + len;
+			for (int w = 0; w < STATE_WORDS; ++w)
+			{
+				// All keystreams go into the same accumulator, so the lanes are combined first.
+				int u = 0;
+				for (int l = 0; l < count; ++l)
+					u ^= x[w * LANES + l] + j[w * LANES + l];
+				if (len == BLOCK_BYTES)
+					xor_littleendian(c, coffset + 4 * w, u);
+				else
+					xor_littleendian(c, coffset + 4 * w, end, u);
+			}
+
+			counter++;
+			clen -= len;
+			coffset += len;
+		}
+	}
+
+	/**
+	 * Applies the salsa20 quarter round to words {@code a}, {@code b}, {@code c} and {@code d} of all lanes.
+	 */
+	private static void quarter_lanes(int[] x, int a, int b, int c, int d)
+	{
+		a *= LANES;
+		b *= LANES;
+		c *= LANES;
+		d *= LANES;
+		for (int l = 0; l < LANES; ++l)
+		{
+			x[b + l] ^= Integer.rotateLeft(x[a + l] + x[d + l], 7);
+			x[c + l] ^= Integer.rotateLeft(x[b + l] + x[a + l], 9);
+			x[d + l] ^= Integer.rotateLeft(x[c + l] + x[b + l], 13);
+			x[a + l] ^= Integer.rotateLeft(x[d + l] + x[c + l], 18);
+		}
+	}
+
+	static void xor_littleendian(byte[] x, int offset, int u)
+	{
+		x[offset] ^= (byte) u; u >>>= 8;
+		x[offset + 1] ^= (byte) u; u >>>= 8;
+		x[offset + 2] ^= (byte) u; u >>>= 8;
+		x[offset + 3] ^= (byte) u;
+	}
+
+	/**
+	 * Like {@code xor_littleendian}, but does not touch any bytes at or beyond {@code end}.
+	 * @return The offset of the next word
+	 */
+	static int xor_littleendian(byte[] x, int offset, int end, int u)
+	{
+		for (int i = offset; i < end && i < offset + 4; ++i)
+		{
+			x[i] ^= (byte) u;
+			u >>>= 8;
+		}
+		return offset + 4;
+	}
 }
@@ -3,6 +3,7 @@ package component;
 import dc.DCConfig;
 import cli.CLC;
 import dc.cli.MultiStationInterface;
+import dc.testing.KeystreamBenchmark;
 
 public class MainInterface extends CLC {
 	private MultiStationInterface msi;
@@ -10,6 +11,9 @@ public class MainInterface extends CLC {
 	public MainInterface() {
 		System.out.println("DCnet command line interface, v" + DCConfig.VERSION);
 		System.out.println("2014, Moritz Neikes, m.neikes@student.ru.nl");
+		if(DCConfig.BENCHMARK_KEYSTREAMS) {
+			KeystreamBenchmark.report(System.out, 100);
+		}
 		msi = new MultiStationInterface();
 		Action forwardAction = new CommandAction(msi);
 
@@ -0,0 +1,20 @@
+package dc;
+
+/**
+ * Takes the chunks of rounds from a ConnectionBundle as soon as all active stations
+ * contributed to them. This is used by servers that forward their rounds to the
+ * server above them cut-through, rather than once the whole round is complete.
+ */
+public interface ChunkForwarder {
+	/**
+	 * Returns whether the rounds that are opened from now on are forwarded in chunks.
+	 * Rounds that are not forwarded in chunks are handed over as whole packages once they are complete.
+	 */
+	public boolean isForwarding();
+
+	/**
+	 * Forwards a run of chunks of a round that are complete. This may be called by several threads at once.
+	 * @param chunk The chunk, in which the inputs of all active stations are combined
+	 */
+	public void forward(DCChunk chunk);
+}
@@ -2,42 +2,77 @@ package dc;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import cli.Debugger;
 import dc.DCPackage;
 import net.Connection;
+import net.MulticastGroup;
 import net.Network;
 import net.PackageListener;
 import net.NetStatPackage;
+import util.XorUtil;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.InputMismatchException;
-import java.util.LinkedList;
 
 public class ConnectionBundle {
+	// The interval in milliseconds in which the watchdog checks the round deadline and the heartbeats
+	private static final long WATCHDOG_INTERVAL = 250;
+
 	private final ArrayList<ConnectionHandler> chl;
+	// A copy of chl that is replaced whenever a connection is added or removed,
+	// so that broadcasts do not have to lock the bundle.
+	private volatile ConnectionHandler[] recipients;
+	// The connections of the recipients, for the multicast group
+	private volatile Connection[] recipientConnections;
+
+	// Sends round results to stations that joined it, or null
+	private MulticastGroup group;
+	// Forwards the chunks of rounds as soon as they are complete, or null
+	private volatile ChunkForwarder forwarder;
 	private int connections;
 	private int activeConnections;
 
-	private int currentRound;
+	// The oldest round that is in progress. Inputs are accepted for this round and the
+	// rounds that follow it in the window.
+	private volatile int currentRound;
+
+	// The size of the packages in the network, which is announced to every new connection
+	private volatile int packageSize;
+	// The number of rounds that may be in progress at once, which is announced to every new connection
+	private volatile int window;
 
 	/**
 	 * This HashMap contains all connections that are identified by an alias.
 	 */
 	private final HashMap<String, ConnectionHandler> identifiedConnections;
 	
-	private DCPackage pendingPackage;
-	private int remaining;	
+	// The rounds in progress, indexed by the number of the round. Rounds outside of the window are null.
+	private final AtomicReferenceArray<Round> rounds;
+
+	// The slots of all connections. Every connection has a slot of its own in the bitmaps of contributors.
+	private final BitSet slots;
 
 	private boolean isClosed = false;
 
-	private final LinkedList<DCPackage> inputBuffer;
+	// Completed rounds and status packages wait here for the station. They are added by
+	// the threads of connections, the pulser and the watchdog, so the queues are concurrent.
+	// The semaphores count the elements, so that the station can wait for them.
+	private final ConcurrentLinkedQueue<DCPackage> inputBuffer;
 	private final Semaphore inputAvailable;
 
-	private final LinkedList<NetStatPackage> netStatBuffer;
+	private final ConcurrentLinkedQueue<NetStatPackage> netStatBuffer;
 	private final Semaphore statusAvailable;
 		
 
@@ -49,16 +84,18 @@ public class ConnectionBundle {
 	
 	public ConnectionBundle() {
 		chl = new ArrayList<ConnectionHandler>();
+		recipients = new ConnectionHandler[0];
+		recipientConnections = new Connection[0];
 		
 		/**
 		 * Initially one party has access to the fields.
 		 */
 		accessSemaphore = new Semaphore(1);
 
-		inputBuffer = new LinkedList<DCPackage>();
+		inputBuffer = new ConcurrentLinkedQueue<DCPackage>();
 		inputAvailable = new Semaphore(0);
 
-		netStatBuffer = new LinkedList<NetStatPackage>();
+		netStatBuffer = new ConcurrentLinkedQueue<NetStatPackage>();
 		statusAvailable = new Semaphore(0);
 		
 		connections = 0;
@@ -66,23 +103,64 @@ public class ConnectionBundle {
 		identifiedConnections = new HashMap<String, ConnectionHandler>();
 
 		currentRound = 0;
+		packageSize = DCConfig.PACKAGE_SIZE;
+		window = DCConfig.ROUND_WINDOW;
+
+		rounds = new AtomicReferenceArray<Round>(DCPackage.getNumberRange());
+		slots = new BitSet();
+		resetRound();
+		DCConfig.threadingMethod.newThread(new Watchdog(), "ConnectionBundle Watchdog").start();
+	}
+
+	public int getPackageSize() {
+		return packageSize;
+	}
+
+	public int getRoundWindow() {
+		return window;
 	}
 	
 	public void addConnection(Connection c) {
 		Debugger.println("network", "[ConnectionBundle] New connection to " + c.toString());
 		
 		accessSemaphore.acquireUninterruptibly();
-			ConnectionHandler ch = new ConnectionHandler(c);
+			int slot = slots.nextClearBit(0);
+			slots.set(slot);
+			ConnectionHandler ch = new ConnectionHandler(c, slot);
 			c.setListener(ch);
 			chl.add(ch);
+			updateRecipients();
 			connections ++;
 		accessSemaphore.release();
+		if(group != null) {
+			try {
+				c.setMulticastGroup(group);
+			} catch(IOException e) {
+				Debugger.println(1, e.getMessage());
+			}
+		}
+		// The new station has to know the package size before any package arrives.
+		try {
+			c.send(new NetStatPackage.PackageSize(packageSize));
+			c.send(new NetStatPackage.RoundWindow(window));
+		} catch(IOException e) {
+			Debugger.println(1, e.getMessage());
+		}
 	}
 	
 	public void removeConnection(ConnectionHandler ch) {
 		accessSemaphore.acquireUninterruptibly();
+			if(!chl.remove(ch)) {
+				// This connection was already removed, e.g. after it missed its heartbeats.
+				accessSemaphore.release();
+				return;
+			}
 			connections--;
-			chl.remove(ch);
+			slots.clear(ch.slot);
+			updateRecipients();
+			if(group != null) {
+				group.leave(ch.c);
+			}
 			if(ch.isActive) {
 				// Communicate this to the server
 				NetStatPackage nsp = new NetStatPackage.Leaving(ch.alias);
@@ -92,32 +170,89 @@ public class ConnectionBundle {
 		accessSemaphore.release();
 	}
 
+	/**
+	 * Sends round results to the stations of this bundle through a multicast group,
+	 * once they joined it. This has to be set before any connection is added.
+	 */
+	public void setMulticastGroup(MulticastGroup group) {
+		this.group = group;
+	}
+
+	/**
+	 * Hands the chunks of rounds to a forwarder as soon as all active stations contributed
+	 * to them, for as long as the forwarder wants them. Rounds that were forwarded in chunks
+	 * are not handed over as whole packages.
+	 */
+	public void setChunkForwarder(ChunkForwarder forwarder) {
+		this.forwarder = forwarder;
+	}
+
+	/**
+	 * Replaces the copies of the list of connections. The caller has to hold accessSemaphore.
+	 */
+	private void updateRecipients() {
+		recipients = chl.toArray(new ConnectionHandler[chl.size()]);
+		Connection[] cs = new Connection[recipients.length];
+		for(int i = 0; i < cs.length; i++) {
+			cs[i] = recipients[i].c;
+		}
+		recipientConnections = cs;
+	}
+
 	public void handle(NetStatPackage message) {
 		if(message instanceof NetStatPackage.Joining) {
 			String alias = ((NetStatPackage.Joining) message).getStation();
 			Debugger.println("network", "[ConnectionBundle] Station " + alias + " joined the network.");
-			if(identifiedConnections.containsKey(alias)) {
-				ConnectionHandler ch = identifiedConnections.get(alias);
-				ch.setStatus(true);
-				activeConnections++;
-			}
+			accessSemaphore.acquireUninterruptibly();
+				if(identifiedConnections.containsKey(alias)) {
+					ConnectionHandler ch = identifiedConnections.get(alias);
+					ch.setStatus(true);
+					activeConnections++;
+				}
+			accessSemaphore.release();
 		} else if(message instanceof NetStatPackage.Leaving) {
 			String alias = ((NetStatPackage.Leaving) message).getStation();
 			Debugger.println("network", "[ConnectionBundle] Station " + alias + " left the network.");
-			if(identifiedConnections.containsKey(alias)) {
-				ConnectionHandler ch = identifiedConnections.get(alias);
-				ch.setStatus(false);
-				activeConnections--;
-				// everyone will resend their messages.
+			accessSemaphore.acquireUninterruptibly();
+				if(identifiedConnections.containsKey(alias)) {
+					ConnectionHandler ch = identifiedConnections.get(alias);
+					ch.setStatus(false);
+					activeConnections--;
+					// everyone will resend their messages.
+					resetRound();
+				}
+			accessSemaphore.release();
+		} else if(message instanceof NetStatPackage.PackageSize) {
+			accessSemaphore.acquireUninterruptibly();
+				packageSize = ((NetStatPackage.PackageSize) message).getSize();
+				Debugger.println("network", "[ConnectionBundle] Packages now have " + packageSize + " bytes.");
+				// Inputs of the old size can not be combined with those of the new size.
 				resetRound();
-			}
-		} 
+			accessSemaphore.release();
+		} else if(message instanceof NetStatPackage.RoundWindow) {
+			accessSemaphore.acquireUninterruptibly();
+				window = ((NetStatPackage.RoundWindow) message).getWindow();
+				Debugger.println("network", "[ConnectionBundle] Up to " + window + " rounds are now in progress at once.");
+				// The stations start over with the new window.
+				resetRound();
+			accessSemaphore.release();
+		}
 		// We don't handle snapshot messages. 
 		
 	}
 	
+	/**
+	 * Sends a package to all connections. The frame of a package is encoded only
+	 * once, and shared by all connections. Connections do not wait for their
+	 * output to be written, so a slow connection does not hold up the others.
+	 * Stations that joined the multicast group receive the package from the group.
+	 */
 	public void broadcast(DCPackage message) {
-		for(ConnectionHandler ch: chl) {
+		if(group != null) {
+			group.broadcast(message, recipientConnections);
+			return;
+		}
+		for(ConnectionHandler ch: recipients) {
 			try{
 				ch.c.send(message);
 				
@@ -128,7 +263,7 @@ public class ConnectionBundle {
 	}
 
 	public void broadcast(NetStatPackage message) {
-		for(ConnectionHandler ch: chl) {
+		for(ConnectionHandler ch: recipients) {
 			try {
 				ch.c.send(message);
 			} catch(IOException e) {
@@ -137,17 +272,52 @@ public class ConnectionBundle {
 		}
 	}
 
-	public void pulse() {
-		DCPackage pulsePackage = new DCPackage(currentRound, new byte[DCPackage.PAYLOAD_SIZE]);
-		currentRound = (currentRound+1) % pulsePackage.getNumberRange();
-		resetRound();
-		broadcast(pulsePackage);
+	/**
+	 * Prints how many frames wait to be written on each connection, how many waited
+	 * at most, and how many were dropped because the station did not keep up.
+	 */
+	public void printQueues(PrintStream out) {
+		ConnectionHandler[] handlers = recipients;
+		if(handlers.length == 0) {
+			out.println("[ConnectionBundle] There are no connections.");
+		}
+		for(ConnectionHandler ch: handlers) {
+			String name = ch.alias != null ? ch.alias : ch.c.toString();
+			out.println("[ConnectionBundle] " + name + ": " + ch.c.getQueuedFrames() + " queued, "
+				+ ch.c.getPeakQueuedFrames() + " at most, " + ch.c.getDroppedFrames() + " dropped");
+		}
+	}
+
+	/**
+	 * Sends empty round results to start the conversation. One is sent for every round
+	 * of the window, so that the stations fill the whole window in response.
+	 * @return The numbers of the rounds whose results were sent, in order
+	 */
+	public int[] pulse() {
+		DCPackage[] pulsePackages = new DCPackage[window];
+		accessSemaphore.acquireUninterruptibly();
+			for(int i = 0; i < pulsePackages.length; i++) {
+				pulsePackages[i] = new DCPackage(currentRound, new byte[packageSize - DCPackage.HEADER_SIZE], packageSize);
+				currentRound = (currentRound+1) % DCPackage.getNumberRange();
+			}
+			resetRound();
+		accessSemaphore.release();
+		int[] numbers = new int[pulsePackages.length];
+		for(int i = 0; i < pulsePackages.length; i++) {
+			numbers[i] = pulsePackages[i].getNumber();
+			broadcast(pulsePackages[i]);
+			pulsePackages[i].release();
+		}
+		return numbers;
 	}
 
 	public void close() throws IOException {
-		for(ConnectionHandler ch: chl) {
+		for(ConnectionHandler ch: recipients) {
 			ch.close();
 		}
+		if(group != null) {
+			group.close();
+		}
 		isClosed = true;
 	}
 
@@ -163,54 +333,438 @@ public class ConnectionBundle {
 	
 	public DCPackage receiveDCPackage() {
 		inputAvailable.acquireUninterruptibly();
-		return inputBuffer.pop();
+		return inputBuffer.poll();
 	}
 
 	public NetStatPackage receiveStatusPackage() {
 		statusAvailable.acquireUninterruptibly();
-		return netStatBuffer.pop(); 
+		return netStatBuffer.poll();
 	}
 
 	/**
-	 * Adds a package to the input of the current round.
+	 * Adds a package to the input of its round, if that round is in progress.
+	 * Inputs are combined without holding accessSemaphore; only the input that
+	 * completes a round takes it, to hand the round over.
+	 * Rounds are handed over in order: a round that is complete waits until all
+	 * rounds before it are complete, too.
+	 * @param from  The connection on which the input arrived
 	 * @param input The input to be added
 	 */
-	private void addBundleInput( DCPackage input) {
-		if(input.getPayload().length != DCPackage.PAYLOAD_SIZE) {
-			throw new InputMismatchException("The provided input has length " + input.getPayload().length + " but should be " + DCPackage.PAYLOAD_SIZE);
-		} else {
-			int round = input.getNumber();
-			if(round != currentRound) {
-				// we refuse this package.
-				Debugger.println("protocol", "[ConnectionBundle] Refusing package because of wrong round number. Is " + round + " but should be " + currentRound);
-				return;
+	private void addBundleInput(ConnectionHandler from, DCPackage input) {
+		int number = input.getNumber();
+		Round round = rounds.get(number);
+		if(round == null) {
+			// we refuse this package.
+			int first = currentRound;
+			Debugger.println("protocol", "[ConnectionBundle] Refusing package because of wrong round number. Is " + number + " but should be between " + first + " and " + ((first + window - 1) % DCPackage.getNumberRange()));
+			input.release();
+			return;
+		}
+		long[] stripe = round.stripe(from.slot);
+		if(input.getSize() != round.size || stripe.length < XorUtil.words(input.getPayloadSize())) {
+			Debugger.println("protocol", "[ConnectionBundle] Refusing package because of wrong size. Is " + input.getSize() + " but should be " + round.size);
+			input.release();
+			return;
+		}
+		// The input is checked before the slot is claimed, since the round waits for every claimed input to be counted.
+		if(!round.claimAll(from.slot)) {
+			Debugger.println("protocol", "[ConnectionBundle] Refusing package because station " + from.alias + " already contributed to round " + number);
+			input.release();
+			return;
+		}
+		try {
+			input.addTo(stripe);
+		} catch(InputMismatchException e) {
+			// The slot is claimed, so the input is counted anyway. Otherwise the round would never complete.
+			Debugger.println("protocol", "[ConnectionBundle] An error occurred while trying to combine a new package with the existing package.");
+		} finally {
+			input.release();
+		}
+		int left = countChunks(round, 0, round.chunks);
+		Debugger.println("protocol", "[ConnectionBundle] Remaining messages of round " + number + ": " + left);
+	}
+
+	/**
+	 * Adds a chunk to the input of its round, if that round is in progress.
+	 * Chunks are sent by servers below this one, see {@code addBundleInput}.
+	 * @param from  The connection on which the chunk arrived
+	 * @param chunk The chunk to be added
+	 */
+	private void addBundleChunk(ConnectionHandler from, DCChunk chunk) {
+		int number = chunk.getNumber();
+		Round round = rounds.get(number);
+		if(round == null) {
+			int first = currentRound;
+			Debugger.println("protocol", "[ConnectionBundle] Refusing chunk because of wrong round number. Is " + number + " but should be between " + first + " and " + ((first + window - 1) % DCPackage.getNumberRange()));
+			return;
+		}
+		int index = chunk.getIndex();
+		int count = chunk.getChunkCount();
+		int payloadSize = round.size - DCPackage.HEADER_SIZE;
+		if(!DCChunk.fits(index, count, payloadSize) || chunk.getLength() != DCChunk.getLength(index, count, payloadSize)) {
+			Debugger.println("protocol", "[ConnectionBundle] Refusing chunk " + index + " of " + chunk.getLength() + " bytes since it does not fit into a package of " + round.size + " bytes.");
+			return;
+		}
+		if(!round.claim(from.slot, index, count)) {
+			Debugger.println("protocol", "[ConnectionBundle] Refusing chunk because station " + from.alias + " already contributed to chunk " + index + " of round " + number);
+			return;
+		}
+		XorUtil.xorAtomic(round.stripe(from.slot), chunk.getOffset(), chunk.getData(), 0, chunk.getLength());
+		int left = countChunks(round, index, count);
+		Debugger.println("protocol", "[ConnectionBundle] Remaining messages of chunks " + index + " to " + (index + count - 1) + " of round " + number + ": " + left);
+	}
+
+	/**
+	 * Counts an input of a run of chunks. The chunks that are complete are forwarded right away
+	 * if their round is forwarded in chunks, and the round is complete once all of its chunks are.
+	 * Consecutive chunks that are complete at once are forwarded together.
+	 * @param first The index of the first chunk of the run
+	 * @param count The number of chunks in the run
+	 * @return The number of inputs that the last chunk of the run still waits for
+	 */
+	private int countChunks(Round round, int first, int count) {
+		int left = 0;
+		int completed = 0;
+		// The first chunk of the run of complete chunks that was not forwarded yet, or -1
+		int start = -1;
+		for(int i = first; i < first + count; i++) {
+			left = round.countDown(i);
+			if(left == 0) {
+				completed++;
+				if(start == -1) {
+					start = i;
+				}
+			} else if(start != -1) {
+				forwardChunks(round, start, i - start);
+				start = -1;
+			}
+		}
+		if(start != -1) {
+			forwardChunks(round, start, first + count - start);
+		}
+		if(completed > 0 && round.remaining.addAndGet(-completed) == 0) {
+			completeRound(round);
+		}
+		return left;
+	}
+
+	/**
+	 * Hands complete chunks to the forwarder of their round, if it has one.
+	 */
+	private void forwardChunks(Round round, int first, int count) {
+		// The round may have been discarded while its last input was combined.
+		if(round.forwarder != null && rounds.get(round.number) == round) {
+			round.forwarder.forward(round.getChunk(first, count));
+		}
+	}
+
+	/**
+	 * Marks a round as complete, and hands over all complete rounds at the start of the window.
+	 * @param round The round whose last input arrived
+	 */
+	private void completeRound(Round round) {
+		accessSemaphore.acquireUninterruptibly();
+			// The round may have been discarded while its last input was combined.
+			if(rounds.get(round.number) == round) {
+				round.isComplete = true;
+			}
+			Round first = rounds.get(currentRound);
+			while(first != null && first.isComplete) {
+				Debugger.println("protocol", "[ConnectionBundle] Round " + currentRound + " is completed.");
+				rounds.set(currentRound, null);
+				// The window moves on by one round. The round that enters the window has to be
+				// open before the result is handed over, since inputs for it may follow right away.
+				openRound((currentRound + window) % DCPackage.getNumberRange());
+				currentRound = (currentRound + 1) % DCPackage.getNumberRange();
+				if(first.forwarder == null) {
+					// The completed package is handed over to the reader of inputBuffer,
+					// which may release it as soon as it is available.
+					inputBuffer.add(first.reduce());
+					inputAvailable.release();
+				}
+				first = rounds.get(currentRound);
+			}
+		accessSemaphore.release();
+	}
+
+	/**
+	 * Moves the window of rounds in progress to start at the given round.
+	 * This is used by servers that are not at the top of the hierarchy, since they learn the
+	 * number of the next round from the server above them. Inputs of rounds that are still
+	 * in the window are kept. If this server is ahead of the given round, nothing changes.
+	 * @param round The number of the round
+	 */
+	public void startRound(int round) {
+		accessSemaphore.acquireUninterruptibly();
+			int ahead = distance(currentRound, round);
+			if(ahead < window) {
+				for(int i = 0; i < ahead; i++) {
+					rounds.set((currentRound + i) % DCPackage.getNumberRange(), null);
+					openRound((currentRound + window + i) % DCPackage.getNumberRange());
+				}
+				currentRound = round;
+			} else if(distance(round, currentRound) > window) {
+				currentRound = round;
+				resetRound();
 			}
-			if(pendingPackage == null) {
-				pendingPackage = input;
+		accessSemaphore.release();
+	}
+
+	/**
+	 * Discards the inputs of all rounds in progress. The stations will send them again.
+	 */
+	private void resetRound() {
+		for(int i = 0; i < DCPackage.getNumberRange(); i++) {
+			if(distance(currentRound, i) < window) {
+				openRound(i);
 			} else {
+				rounds.set(i, null);
+			}
+		}
+	}
+
+	/**
+	 * Discards the inputs that were collected for a round, and waits for the inputs of all active stations.
+	 */
+	private void openRound(int round) {
+		ChunkForwarder f = forwarder;
+		if(f != null && !f.isForwarding()) {
+			f = null;
+		}
+		rounds.set(round, new Round(round, packageSize, activeConnections, slots.length(), f));
+	}
+
+	/**
+	 * Returns the number of rounds from round {@code from} to round {@code to}, in modulo the range of round numbers.
+	 */
+	private static int distance(int from, int to) {
+		int range = DCPackage.getNumberRange();
+		return ((to - from) % range + range) % range;
+	}
+
+	/**
+	 * Declares the active stations that did not contribute to all chunks of the current round as leaving,
+	 * if the first input of the round arrived more than {@code DCConfig.ROUND_DEADLINE} ago.
+	 * Once the Leaving packages are applied, the round starts over without these stations.
+	 */
+	private void checkDeadline() {
+		if(DCConfig.ROUND_DEADLINE <= 0) return;
+		accessSemaphore.acquireUninterruptibly();
+			Round current = rounds.get(currentRound);
+			long first = current != null ? current.firstContribution.get() : 0;
+			if(first != 0 && current.remaining.get() > 0
+				&& System.currentTimeMillis() - first > DCConfig.ROUND_DEADLINE) {
+				for(ConnectionHandler ch: chl) {
+					if(ch.isActive && !ch.declaredLeaving && !current.contributed(ch.slot)) {
+						Debugger.println("network", "[ConnectionBundle] Station " + ch.alias + " missed the deadline of round " + currentRound + " and is declared as leaving.");
+						ch.declaredLeaving = true;
+						netStatBuffer.add(new NetStatPackage.Leaving(ch.alias));
+						statusAvailable.release();
+					}
+				}
+			}
+		accessSemaphore.release();
+	}
+
+	/**
+	 * Gives up all connections on which nothing arrived for {@code DCConfig.HEARTBEAT_TIMEOUT},
+	 * not even a heartbeat. Their stations leave the network.
+	 */
+	private void checkHeartbeats() {
+		if(DCConfig.HEARTBEAT_TIMEOUT <= 0) return;
+		long now = System.currentTimeMillis();
+		for(ConnectionHandler ch: recipients) {
+			long silence = now - ch.c.getLastReceived();
+			if(silence > DCConfig.HEARTBEAT_TIMEOUT) {
+				Debugger.println("network", "[ConnectionBundle] Nothing arrived from " + (ch.alias != null ? ch.alias : ch.c.toString()) + " for " + silence + " ms. Closing the connection.");
 				try {
-					pendingPackage.combine(input);
-				} catch(InputMismatchException e) {
-					Debugger.println("protocol", "[ConnectionBundle] An error occurred while trying to combine a new package with the existing package.");
-					return;
+					ch.c.close();
+				} catch(IOException e) {
+					Debugger.println(1, e.getMessage());
 				}
+				removeConnection(ch);
 			}
-			remaining--;
-			Debugger.println("protocol", "[ConnectionBundle] Remaining messages: " + remaining);
-			if(remaining == 0) {
-				Debugger.println("protocol", "[ConnectionBundle] Round " + currentRound + " is completed.");
-				inputBuffer.add(pendingPackage);
-				inputAvailable.release();
-				currentRound = (pendingPackage.getNumber()+1) % pendingPackage.getNumberRange();
+		}
+	}
 
-				resetRound();
+	/**
+	 * The inputs of a round in progress. Connections XOR their inputs into one of several
+	 * partial sums, chosen by their slot, so that inputs that arrive at once on different
+	 * connections are combined in parallel and without a lock.
+	 *
+	 * The payload of a round is made up of chunks, see {@code DCChunk}. Stations contribute
+	 * whole packages, which cover all chunks at once, and servers below this one contribute
+	 * chunk by chunk. A chunk is complete once all active stations contributed to it, and the
+	 * round is complete once all of its chunks are. The partial sums of a chunk are merged
+	 * as soon as it is complete if the round is forwarded in chunks, and the partial sums
+	 * of the whole round are merged once it is complete otherwise.
+	 */
+	private static class Round {
+		public final int number;
+		public final int size;
+		// The number of chunks of the payload
+		public final int chunks;
+		// The number of chunks that are not complete yet
+		public final AtomicInteger remaining;
+		// The number of inputs that each chunk still waits for
+		private final AtomicIntegerArray chunkRemaining;
+		// The time at which the first input of this round arrived, or 0
+		public final AtomicLong firstContribution;
+		// The partial sums of the inputs, in words of eight bytes. They are created when they are first needed.
+		private final AtomicReferenceArray<long[]> stripes;
+		// The slots of the connections that contributed to each chunk, 64 slots per word.
+		// Connections that were added after this round was opened can not contribute to it.
+		private final int slotWords;
+		private final AtomicLongArray contributors;
+		// Takes the chunks of this round as soon as they are complete, or null if the round is handed over as a whole
+		public final ChunkForwarder forwarder;
+		// Whether all inputs of this round were combined. This is guarded by accessSemaphore.
+		public boolean isComplete = false;
+
+		public Round(int number, int size, int inputs, int capacity, ChunkForwarder forwarder) {
+			this.number = number;
+			this.size = size;
+			this.chunks = DCChunk.getCount(size - DCPackage.HEADER_SIZE);
+			this.remaining = new AtomicInteger(chunks);
+			this.chunkRemaining = new AtomicIntegerArray(chunks);
+			for(int i = 0; i < chunks; i++) {
+				chunkRemaining.set(i, inputs);
+			}
+			this.firstContribution = new AtomicLong(0);
+			this.stripes = new AtomicReferenceArray<long[]>(DCConfig.AGGREGATION_STRIPES);
+			this.slotWords = (capacity + 63) >>> 6;
+			this.contributors = new AtomicLongArray(chunks * slotWords);
+			this.forwarder = forwarder;
+		}
+
+		/**
+		 * Records that the connection with the given slot contributes to a chunk of this round.
+		 * @return false if that connection already contributed to the chunk, or can not contribute to this round.
+		 */
+		public boolean claim(int slot, int chunk) {
+			int word = slot >>> 6;
+			if(word >= slotWords) return false;
+			int i = chunk * slotWords + word;
+			long bit = 1L << slot;
+			long old;
+			do {
+				old = contributors.get(i);
+				if((old & bit) != 0) return false;
+			} while(!contributors.compareAndSet(i, old, old | bit));
+			firstContribution.compareAndSet(0, System.currentTimeMillis());
+			return true;
+		}
+
+		/**
+		 * Records that the connection with the given slot contributes to a run of chunks of this round.
+		 * Only the thread that reads from a connection claims its slot, so nothing changes in between.
+		 * @return false if that connection already contributed to any of the chunks, or can not contribute to this round.
+		 */
+		public boolean claim(int slot, int first, int count) {
+			if((slot >>> 6) >= slotWords) return false;
+			for(int i = first; i < first + count; i++) {
+				if(contributed(slot, i)) return false;
+			}
+			for(int i = first; i < first + count; i++) {
+				claim(slot, i);
 			}
+			return true;
+		}
+
+		/**
+		 * Records that the connection with the given slot contributes to all chunks of this round.
+		 * @see #claim(int, int, int)
+		 */
+		public boolean claimAll(int slot) {
+			return claim(slot, 0, chunks);
+		}
+
+		/**
+		 * Returns whether the connection with the given slot contributed to a chunk of this round.
+		 */
+		public boolean contributed(int slot, int chunk) {
+			int word = slot >>> 6;
+			return word < slotWords && (contributors.get(chunk * slotWords + word) & (1L << slot)) != 0;
+		}
+
+		/**
+		 * Returns whether the connection with the given slot contributed to all chunks of this round.
+		 */
+		public boolean contributed(int slot) {
+			for(int i = 0; i < chunks; i++) {
+				if(!contributed(slot, i)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Counts an input of a chunk.
+		 * @return The number of inputs that the chunk still waits for
+		 */
+		public int countDown(int chunk) {
+			return chunkRemaining.decrementAndGet(chunk);
+		}
+
+		/**
+		 * Returns the partial sum into which the connection with the given slot XORs its input.
+		 */
+		public long[] stripe(int slot) {
+			int i = slot % stripes.length();
+			long[] stripe = stripes.get(i);
+			if(stripe == null) {
+				stripes.compareAndSet(i, null, new long[XorUtil.words(size - DCPackage.HEADER_SIZE)]);
+				stripe = stripes.get(i);
+			}
+			return stripe;
+		}
+
+		/**
+		 * Merges the partial sums of a run of chunks.
+		 * This must only be called once all inputs of these chunks were combined.
+		 */
+		public DCChunk getChunk(int first, int count) {
+			byte[] data = new byte[DCChunk.getLength(first, count, size - DCPackage.HEADER_SIZE)];
+			for(int i = 0; i < stripes.length(); i++) {
+				long[] stripe = stripes.get(i);
+				if(stripe != null) {
+					XorUtil.xor(data, 0, stripe, first * DCConfig.CHUNK_SIZE, data.length);
+				}
+			}
+			return new DCChunk(number, first, data);
+		}
+
+		/**
+		 * Merges the partial sums into the result of this round.
+		 * This must only be called once all inputs were combined.
+		 */
+		public DCPackage reduce() {
+			DCPackage result = new DCPackage(number, new byte[0], size);
+			for(int i = 0; i < stripes.length(); i++) {
+				long[] stripe = stripes.get(i);
+				if(stripe != null) {
+					result.combine(stripe);
+				}
+			}
+			return result;
 		}
 	}
 
-	private void resetRound() {
-		pendingPackage = null;
-		remaining = activeConnections;	
+	/**
+	 * Enforces the round deadline and the heartbeats of the stations.
+	 */
+	private class Watchdog implements Runnable {
+		@Override
+		public void run() {
+			while(!isClosed) {
+				try {
+					Thread.sleep(WATCHDOG_INTERVAL);
+				} catch(InterruptedException e) {
+					continue;
+				}
+				checkDeadline();
+				checkHeartbeats();
+			}
+		}
 	}
 
 	/**
@@ -230,12 +784,17 @@ public class ConnectionBundle {
 
 	private class ConnectionHandler implements PackageListener {
 		public final Connection c;
+		// The index of this connection in the bitmap of contributors
+		public final int slot;
 
 		public String alias = null;
 		public boolean isActive = false;
+		// Whether this station missed a round deadline, and a Leaving was issued for it
+		public boolean declaredLeaving = false;
 
-		public ConnectionHandler(Connection c) {
+		public ConnectionHandler(Connection c, int slot) {
 			this.c = c;
+			this.slot = slot;
 		}
 
 		public void close() throws IOException {
@@ -246,6 +805,7 @@ public class ConnectionBundle {
 		public void setStatus(boolean isActive) {
 			Debugger.println("network", "[ConnectionBundle] Station " + alias + " is now " + (isActive?"active.":"inactive."));
 			this.isActive = isActive;
+			declaredLeaving = false;
 		}
 
 		@Override
@@ -253,19 +813,34 @@ public class ConnectionBundle {
 			// Refuse message if this connection isn't active.
 			if(!isActive) {
 				Debugger.println("protocol", "[ConnectionBundle] Refusing package since station is not in active state");
+				message.release();
 				return;
 			}
-			accessSemaphore.acquireUninterruptibly();
-			addBundleInput(message);
-			accessSemaphore.release();
+			addBundleInput(this, message);
+		}
+
+		@Override
+		public void addInput(DCChunk chunk) {
+			if(!isActive) {
+				Debugger.println("protocol", "[ConnectionBundle] Refusing chunk since station is not in active state");
+				return;
+			}
+			addBundleChunk(this, chunk);
 		}
 
 		@Override
 		public void addInput(NetStatPackage message) {
+			if(message instanceof NetStatPackage.PackageSize || message instanceof NetStatPackage.RoundWindow || message instanceof NetStatPackage.Epoch) {
+				// Only the server above us decides on the package size, the window and the epoch.
+				Debugger.println("protocol", "[ConnectionBundle] Ignoring a package size, window or epoch that was announced by a station.");
+				return;
+			}
 			if(!isActive && message instanceof NetStatPackage.Joining) {
 				// We now know which alias belongs to this connection.
 				alias = ((NetStatPackage.Joining) message).getStation();
-				identifiedConnections.put(alias, this);
+				accessSemaphore.acquireUninterruptibly();
+					identifiedConnections.put(alias, this);
+				accessSemaphore.release();
 				Debugger.println("network", "[ConnectionHandler] One connection was identified as being " + alias);
 			}
 			netStatBuffer.add(message);
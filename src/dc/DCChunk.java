@@ -0,0 +1,162 @@
+package dc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.InputMismatchException;
+
+import util.XorUtil;
+
+/**
+ * A part of the payload of a round. Servers forward the chunks of a round to the
+ * server above them as soon as all of their stations contributed to a chunk, rather
+ * than waiting for the whole package. That way the inputs of a round flow through
+ * the hierarchy of servers without waiting for whole packages at every level.
+ *
+ * The payload of a package is divided into chunks of {@code DCConfig.CHUNK_SIZE} bytes.
+ * Only the last chunk may be shorter. Chunks that are complete at the same time are
+ * sent together, so a DCChunk holds a run of one or more consecutive chunks.
+ * It consists of the header of its round, the index of its first chunk and the number
+ * of chunks in two bytes each, and the bytes of the chunks. The length of a DCChunk
+ * follows from these and the size of the packages in the network.
+ */
+public class DCChunk {
+	// The number of bytes in front of the content of a chunk
+	public static final int HEADER_SIZE = DCPackage.HEADER_SIZE + 4;
+
+	private final int number;
+	private final int index;
+	private final byte[] data;
+
+	/**
+	 * Creates a run of chunks of a round.
+	 * @param  number                 The number of the round that this chunk belongs to
+	 * @param  index                  The index of the first chunk in the payload
+	 * @param  data                   The content of the chunks. It is not copied.
+	 * @throws InputMismatchException If the round number or the index are out of bounds
+	 */
+	public DCChunk(int number, int index, byte[] data) throws InputMismatchException {
+		if(number < 0 || number >= DCPackage.getNumberRange()) {
+			throw new InputMismatchException("The round number " + number + " is out of bounds");
+		} else if(index < 0 || index > 0xFFFF) {
+			throw new InputMismatchException("The chunk index " + index + " is out of bounds");
+		}
+		this.number = number;
+		this.index = index;
+		this.data = data;
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the number of chunks that this run covers.
+	 */
+	public int getChunkCount() {
+		return (data.length + DCConfig.CHUNK_SIZE - 1) / DCConfig.CHUNK_SIZE;
+	}
+
+	/**
+	 * Returns the index of the first byte of this chunk in the payload of its package.
+	 */
+	public int getOffset() {
+		return index * DCConfig.CHUNK_SIZE;
+	}
+
+	/**
+	 * Returns the content of this chunk. The array is not copied.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getLength() {
+		return data.length;
+	}
+
+	/**
+	 * Combines this chunk with the part of a whole payload that it covers.
+	 * @param  payload The payload of a package, e.g. the key mix of a server
+	 * @return         This chunk. That allows for chaining this method.
+	 */
+	public DCChunk combine(byte[] payload) {
+		XorUtil.xor(data, 0, payload, getOffset(), data.length);
+		return this;
+	}
+
+	/**
+	 * Creates and returns a byte array that holds this chunk, including its header.
+	 */
+	public byte[] toByteArray() {
+		byte[] chunk = new byte[HEADER_SIZE + data.length];
+		chunk[0] = (byte) number;
+		chunk[1] = (byte) (index >> 8);
+		chunk[2] = (byte) index;
+		chunk[3] = (byte) (getChunkCount() >> 8);
+		chunk[4] = (byte) getChunkCount();
+		System.arraycopy(data, 0, chunk, HEADER_SIZE, data.length);
+		return chunk;
+	}
+
+	/**
+	 * Returns the number of chunks that make up a payload of the given size.
+	 */
+	public static int getCount(int payloadSize) {
+		return (payloadSize + DCConfig.CHUNK_SIZE - 1) / DCConfig.CHUNK_SIZE;
+	}
+
+	/**
+	 * Returns the length of a run of chunks of a payload of the given size.
+	 * @param index The index of the first chunk
+	 * @param count The number of chunks
+	 */
+	public static int getLength(int index, int count, int payloadSize) {
+		return Math.min(count * DCConfig.CHUNK_SIZE, payloadSize - index * DCConfig.CHUNK_SIZE);
+	}
+
+	/**
+	 * Returns whether a run of chunks lies within a payload of the given size.
+	 */
+	public static boolean fits(int index, int count, int payloadSize) {
+		return count > 0 && index + count <= getCount(payloadSize);
+	}
+
+	/**
+	 * Reads a chunk of a package of the given size from a stream.
+	 * @param  is          The stream
+	 * @param  size        The size of the packages, including their header
+	 * @throws IOException If the stream ends before the chunk is complete, or the chunk is out of bounds
+	 */
+	public static DCChunk getChunk(InputStream is, int size) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		readFully(is, header, HEADER_SIZE);
+		int index = ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+		int count = ((header[3] & 0xFF) << 8) | (header[4] & 0xFF);
+		int payloadSize = size - DCPackage.HEADER_SIZE;
+		if(!fits(index, count, payloadSize)) {
+			throw new IOException("The chunks " + index + " to " + (index + count - 1) + " exceed a package of " + size + " bytes.");
+		}
+		byte[] data = new byte[getLength(index, count, payloadSize)];
+		readFully(is, data, data.length);
+		try {
+			return new DCChunk(header[0], index, data);
+		} catch(InputMismatchException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static void readFully(InputStream is, byte[] b, int length) throws IOException {
+		int read = 0;
+		while(read < length) {
+			int n = is.read(b, read, length - read);
+			if(n < 0) {
+				throw new IOException("The stream ended in the middle of a chunk.");
+			}
+			read += n;
+		}
+	}
+}
@@ -1,8 +1,20 @@
 package dc;
 
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+import dc.keystream.AesCtrProvider;
+import dc.keystream.ChaCha20Provider;
+import dc.keystream.KeystreamProvider;
+import dc.keystream.Salsa20Provider;
 import dc.scheduling.FootprintScheduler;
 import dc.scheduling.PrimitiveScheduler;
 import dc.scheduling.Scheduler;
+import net.Connection;
+import net.NetworkConnection;
+import net.NioConnection;
+import net.PackageListener;
+import util.ThreadUtil;
 
 public class DCConfig {
 	
@@ -13,12 +25,127 @@ public class DCConfig {
 	// of a minimum size of 3.
 	public static final int MIN_NUM_KEYS = 2;
 
+	// The size of packages, including their header, unless the root of a network announces a different size.
 	public static final int PACKAGE_SIZE = 1024;
 
+	// The bounds of the package size that a network can announce. The lower bound leaves room for a schedule.
+	public static final int MIN_PACKAGE_SIZE = 256;
+	public static final int MAX_PACKAGE_SIZE = 1 << 20;
+
 	public static final int ALIAS_LENGTH = 8;
 
+	// The number of buffers of released packages that are kept for reuse.
+	public static final int PACKAGE_POOL_SIZE = 256;
+
+	// Whether packages are backed by direct buffers rather than by arrays.
+	// Direct buffers save a copy when packages are written to channels, but
+	// cost one when they are written to streams.
+	public static final boolean DIRECT_PACKAGE_BUFFERS = false;
+
+	// The number of rounds of keystream that a KeyHandler generates ahead of time for each key.
+	// A value of 0 disables precomputation, in which case keystream is generated when it is needed.
+	public static final int PRECOMPUTED_ROUNDS = 4;
+
+	// The largest round, in bytes, whose keystream a KeyHandler generates ahead of time.
+	public static final int MAX_PRECOMPUTED_BYTES = 16 * 1024;
+
+	// The number of keys in the cut set from which on the key mix of a round is computed in parallel.
+	public static final int PARALLEL_MIX_THRESHOLD = 64;
+
+	// The number of background threads that are shared by all KeyHandlers to precompute keystream.
+	public static final int PRECOMPUTE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
 	public static final SchedulingMethod schedulingMethod = SchedulingMethod.FOOTPRINT;
 
+	// The keystream provider that is used for new keys, unless a station chooses a different one.
+	// Stations that share a key have to use the same provider for that key.
+	public static final KeystreamMethod keystreamMethod = KeystreamMethod.SALSA20;
+
+	// Whether the throughput of all keystream providers is measured and reported on startup.
+	public static final boolean BENCHMARK_KEYSTREAMS = false;
+
+	// The transport that is used for connections over the network.
+	public static final TransportMethod transportMethod = TransportMethod.NIO;
+
+	// The number of threads that serve all non-blocking network connections of this process.
+	public static final int NIO_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	// Whether stations ask their server to send round results in a compact encoding,
+	// which saves most of the bandwidth in rounds in which little or nothing was sent.
+	public static final boolean COMPACT_FRAMES = true;
+
+	// The multicast group and port on which servers that accept network connections send
+	// round results to their stations, e.g. 239.255.42.99:4224, or null to send round
+	// results over the connections only. Set with -Ddcnet.multicast=<group>:<port>.
+	public static final String MULTICAST_ADDRESS = System.getProperty("dcnet.multicast");
+
+	// Whether stations receive round results from the multicast group of their server, if it offers one.
+	public static final boolean MULTICAST_RECEIVE = true;
+
+	// The time to live of multicast datagrams. A value of 1 keeps them in the local network.
+	public static final int MULTICAST_TTL = 1;
+
+	// The largest datagram that is sent to a multicast group. Larger round results are sent over the connections.
+	public static final int MULTICAST_MAX_DATAGRAM = 8192;
+
+	// The number of round results that a server keeps to repair the losses of its stations.
+	public static final int MULTICAST_HISTORY = 256;
+
+	// The time in milliseconds after which a station asks for missing round results again,
+	// or asks whether it missed any if nothing arrived.
+	public static final int MULTICAST_REPAIR_TIMEOUT = 500;
+
+	// The time in milliseconds after which a station that did not send anything else sends a heartbeat to its server.
+	// A value of 0 disables heartbeats.
+	public static final int HEARTBEAT_INTERVAL = 1000;
+
+	// The time in milliseconds after which a server gives up a connection on which nothing arrived,
+	// not even a heartbeat. A value of 0 disables this check.
+	public static final int HEARTBEAT_TIMEOUT = 10000;
+
+	// The time in milliseconds that a server waits for the remaining stations once the first one
+	// contributed to a round. After that, stations that did not contribute are declared as leaving,
+	// and the round is restarted without them. Each server of a hierarchy applies it to its own
+	// stations. A value of 0 waits forever. Set with -Ddcnet.deadline=<milliseconds>.
+	public static final int ROUND_DEADLINE = Integer.getInteger("dcnet.deadline", 5000);
+
+	// The largest window of rounds. Rounds in progress must be told apart by their number, so this is half the range of round numbers.
+	public static final int MAX_ROUND_WINDOW = 8;
+
+	// The number of rounds that may be in progress at once. Stations send their output for up to
+	// this many rounds ahead of the most recent round result, so that a round does not have to wait
+	// for the round trip of the previous one. A value of 1 waits for the result of every round.
+	// The server at the top of the hierarchy announces its window to the whole network.
+	// Set with -Ddcnet.window=<rounds>.
+	public static final int ROUND_WINDOW = Math.max(1, Math.min(Integer.getInteger("dcnet.window", 1), MAX_ROUND_WINDOW));
+
+	// The number of partial sums into which a server combines the inputs of a round. Connections
+	// XOR into the partial sum of their slot without a lock, so that inputs are combined in parallel.
+	// Set with -Ddcnet.stripes=<sums>.
+	public static final int AGGREGATION_STRIPES = Math.max(1, Integer.getInteger("dcnet.stripes", Runtime.getRuntime().availableProcessors()));
+
+	// The size of the chunks into which the payload of a package is divided, so that servers can forward
+	// each chunk to the server above them as soon as all of their stations contributed to it.
+	// All stations of a network have to agree on this. It is a multiple of 8.
+	public static final int CHUNK_SIZE = 256;
+
+	// Whether servers that are connected to another server forward their rounds in chunks.
+	// Otherwise they forward whole packages once a round is complete.
+	// Set with -Ddcnet.cutthrough=false.
+	public static final boolean CUT_THROUGH = Boolean.parseBoolean(System.getProperty("dcnet.cutthrough", "true"));
+
+	// The number of frames that may wait to be written on a single connection.
+	public static final int SEND_QUEUE_LIMIT = 64;
+
+	// What a connection does if its peer does not keep up and its send queue is full.
+	// By default a stalled peer is dropped, so that it cannot hold up the rest of the network.
+	// It can be chosen on startup with -Ddcnet.slowconsumer=block, drop or coalesce.
+	public static final SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.forName(System.getProperty("dcnet.slowconsumer"), SlowConsumerPolicy.DROP);
+
+	// The kind of threads that run the loops of stations and of blocking connections.
+	// It can be chosen on startup with -Ddcnet.threads=virtual or -Ddcnet.threads=platform.
+	public static final ThreadingMethod threadingMethod = ThreadingMethod.forName(System.getProperty("dcnet.threads"), ThreadingMethod.PLATFORM);
+
 	public enum SchedulingMethod {
 		PRIMITIVE(){
 			@Override
@@ -36,5 +163,139 @@ public class DCConfig {
 		public abstract Scheduler getScheduler();
 
 	}
-	
-}
\ No newline at end of file
+
+	public enum KeystreamMethod {
+		SALSA20(){
+			@Override
+			public KeystreamProvider getProvider() {
+				return new Salsa20Provider();
+			}
+		},
+		CHACHA20(){
+			@Override
+			public KeystreamProvider getProvider() {
+				return new ChaCha20Provider();
+			}
+		},
+		AES_CTR(){
+			@Override
+			public KeystreamProvider getProvider() {
+				return new AesCtrProvider();
+			}
+		};
+
+		public abstract KeystreamProvider getProvider();
+
+		/**
+		 * Finds the method whose provider has the given name.
+		 * @param  name The name of the provider, as returned by {@code KeystreamProvider.getName}
+		 * @return      The matching method, or null if there is none.
+		 */
+		public static KeystreamMethod forName(String name) {
+			for(KeystreamMethod m: values()) {
+				if(m.getProvider().getName().equalsIgnoreCase(name)) {
+					return m;
+				}
+			}
+			return null;
+		}
+	}
+
+	public enum TransportMethod {
+		// One thread per connection that blocks on reads
+		BLOCKING(){
+			@Override
+			public Connection getConnection(SocketChannel channel, PackageListener listener) throws IOException {
+				return new NetworkConnection(channel.socket(), listener);
+			}
+		},
+		// Non-blocking connections that are served by a few shared threads
+		NIO(){
+			@Override
+			public Connection getConnection(SocketChannel channel, PackageListener listener) throws IOException {
+				return new NioConnection(channel, listener);
+			}
+		};
+
+		/**
+		 * Creates a connection on top of a connected channel.
+		 * @param  channel  A connected channel in blocking mode
+		 * @param  listener The listener for incoming packages, or null
+		 */
+		public abstract Connection getConnection(SocketChannel channel, PackageListener listener) throws IOException;
+	}
+
+	public enum SlowConsumerPolicy {
+		// The sender waits until there is space in the queue. One slow peer slows down everyone.
+		BLOCK,
+		// The connection is closed, and the station on the other side leaves the network.
+		DROP,
+		// Packages that were not sent yet are replaced by the most recent one.
+		// Status packages are always kept.
+		COALESCE;
+
+		/**
+		 * Finds the policy with the given name, ignoring case.
+		 * @param  name     The name of the policy, or null
+		 * @param  fallback The policy that is returned if there is no policy with that name
+		 */
+		public static SlowConsumerPolicy forName(String name, SlowConsumerPolicy fallback) {
+			for(SlowConsumerPolicy p: values()) {
+				if(p.name().equalsIgnoreCase(name)) {
+					return p;
+				}
+			}
+			return fallback;
+		}
+	}
+
+	public enum ThreadingMethod {
+		// One platform thread per loop
+		PLATFORM(){
+			@Override
+			public Thread newThread(Runnable r, String name) {
+				return new Thread(r, name);
+			}
+		},
+		// One virtual thread per loop. Falls back to platform threads
+		// if the JRE does not provide virtual threads.
+		VIRTUAL(){
+			@Override
+			public Thread newThread(Runnable r, String name) {
+				Thread t = ThreadUtil.newVirtualThread(r, name);
+				if(t == null) {
+					if(!warned) {
+						warned = true;
+						System.err.println("[DCConfig] Virtual threads are not available on this JRE. Using platform threads instead.");
+					}
+					t = PLATFORM.newThread(r, name);
+				}
+				return t;
+			}
+		};
+
+		private static boolean warned = false;
+
+		/**
+		 * Creates a thread that is not started yet.
+		 * @param  r    The loop that the thread runs
+		 * @param  name The name of the thread
+		 */
+		public abstract Thread newThread(Runnable r, String name);
+
+		/**
+		 * Finds the method with the given name, ignoring case.
+		 * @param  name     The name of the method, or null
+		 * @param  fallback The method that is returned if there is no method with that name
+		 */
+		public static ThreadingMethod forName(String name, ThreadingMethod fallback) {
+			for(ThreadingMethod m: values()) {
+				if(m.name().equalsIgnoreCase(name)) {
+					return m;
+				}
+			}
+			return fallback;
+		}
+	}
+
+}
@@ -1,64 +1,188 @@
 package dc;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.InputMismatchException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class DCPackage {
-	private byte[] header;
-	private byte[] payload;
+import util.XorUtil;
 
-	// The size of the whole package, in bytes
+/**
+ * A DCPackage is a view over a single buffer that holds the header and the payload of the package.
+ * The buffers are pooled: a package that is not needed anymore should be released with
+ * {@code release}, so that its buffer can be used for another package. Code that keeps a package
+ * beyond the call in which it received it has to {@code retain} it first.
+ *
+ * Every buffer reserves {@code PREFIX_SIZE} bytes in front of the package, so that transports can
+ * send a package together with a type byte in one piece, without copying it.
+ *
+ * The size of a package is a parameter of the network it is sent in. Packages of the same size
+ * share a pool, and the size of a package is the size of its buffer, without the prefix.
+ */
+public class DCPackage {
+	// The size of the whole package, in bytes, in networks that do not announce a size of their own
 	public static final int PACKAGE_SIZE = DCConfig.PACKAGE_SIZE;
 	// The number of bytes that make up the header of the package
 	public static final int HEADER_SIZE = 1;
 	// The number of bits used to represent the round number
 	public static final int NUMBER_SIZE = 4;
-	// The size of the payload, in bytes
+	// The size of the payload of a package of PACKAGE_SIZE, in bytes
 	// The payload also includes the scheduling block
 	public static final int PAYLOAD_SIZE = PACKAGE_SIZE - HEADER_SIZE;
+	// The number of bytes in front of the package that are reserved for transports
+	public static final int PREFIX_SIZE = 1;
+
+	private static final int PAYLOAD_OFFSET = PREFIX_SIZE + HEADER_SIZE;
+
+	// The number of bytes that describe one run in the compact encoding
+	private static final int RUN_SIZE = 4;
+	// The longest run of zeros or of literal bytes in the compact encoding
+	private static final int MAX_RUN = 0xFFFF;
+	// Shorter runs of zeros are not worth a run of their own in the compact encoding
+	private static final int MIN_ZERO_RUN = RUN_SIZE + 1;
+
+	// Buffers of released packages, by package size
+	private static final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>> pools = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	// Used to read packages into direct buffers and to encode packages. Grows with the largest package.
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>();
 
-	private final int round;
+	private ByteBuffer buffer;
+	private final AtomicInteger references;
+
+	// The compact encoding of this package, once it was computed. Guarded by this package.
+	private byte[] compact;
+	private boolean isEncoded = false;
+
+	private DCPackage(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.references = new AtomicInteger(1);
+	}
 
 	/**
-	 * Creates a new DCPackage for a specific round
+	 * Creates a new DCPackage of {@code PACKAGE_SIZE} for a specific round
 	 * @param  number                 The number of the round that this package belongs to
-	 * @param  payload                The payload of this package
+	 * @param  payload                The payload of this package. A shorter payload is padded with zeros.
 	 * @throws InputMismatchException If the payload size does not match the expected size
 	 */
 	public DCPackage(int number, byte[] payload) throws InputMismatchException {
-		if(payload.length > PAYLOAD_SIZE) {
+		this(number, payload, PACKAGE_SIZE);
+	}
+
+	/**
+	 * Creates a new DCPackage for a specific round
+	 * @param  number                 The number of the round that this package belongs to
+	 * @param  payload                The payload of this package. A shorter payload is padded with zeros.
+	 * @param  size                   The size of the package, as announced in the network
+	 * @throws InputMismatchException If the payload size does not match the expected size
+	 */
+	public DCPackage(int number, byte[] payload, int size) throws InputMismatchException {
+		this(acquireBuffer(size));
+		if(payload.length > size - HEADER_SIZE) {
 			System.err.println("[DCPackage] Severe: Rejecting input " + String.valueOf(payload) + " since it is too much for a single message.");
-			throw new InputMismatchException("Payload size exceeds bounds: Payload size is " + payload.length + " and must at most be " + PAYLOAD_SIZE);
+			throw new InputMismatchException("Payload size exceeds bounds: Payload size is " + payload.length + " and must at most be " + (size - HEADER_SIZE));
 		} else if(number >= (1 << NUMBER_SIZE)) {
 			throw new InputMismatchException("The round number exceeds the bounds of this package format.");
 		} else {
-			this.round = number;
-			this.payload = payload;
-			this.header = makeHeader(number);
+			buffer.put(PREFIX_SIZE, makeHeader(number));
+			ByteBuffer b = buffer.duplicate();
+			b.position(PAYLOAD_OFFSET);
+			b.put(payload);
+			while(b.hasRemaining()) {
+				b.put((byte) 0);
+			}
 		}
 	}
-	
+
 	/**
-	 * Creates a DCPackage from a raw byte array
+	 * Creates a DCPackage from a raw byte array. The size of the package is the length of the array.
 	 * @param  raw                    The byte array that contains the package
 	 * @return                        The package that was constructed from the byte array
-	 * @throws InputMismatchException in case that the payload size does not match the expected size.
+	 * @throws InputMismatchException in case that the round number is out of bounds.
 	 */
 	public static DCPackage getPackage(byte[] raw) throws InputMismatchException{
-		if(raw.length != PACKAGE_SIZE) {
-			throw new InputMismatchException("The size of the raw byte input is " + raw.length+" and does not match the expected package size " + PACKAGE_SIZE);
-		} else {
-			byte number = raw[0];
-			if(number < 0 || number > getNumberRange()) {
-				throw new InputMismatchException("The round number " + number + " is out of bounds");
-			}
-			byte[] payload = new byte[PAYLOAD_SIZE];
-			int payloadOffset = HEADER_SIZE;
-			for(int i = 0; i < PAYLOAD_SIZE; i++) {
-				payload[i] = raw[i+payloadOffset];
+		return getPackage(ByteBuffer.wrap(raw), raw.length);
+	}
+
+	/**
+	 * Creates a DCPackage from the next {@code PACKAGE_SIZE} bytes of a buffer.
+	 * The position of {@code raw} is advanced past the package.
+	 */
+	public static DCPackage getPackage(ByteBuffer raw) throws InputMismatchException {
+		return getPackage(raw, PACKAGE_SIZE);
+	}
+
+	/**
+	 * Creates a DCPackage from the next {@code size} bytes of a buffer.
+	 * The position of {@code raw} is advanced past the package.
+	 * @param  raw                    The buffer that contains the package
+	 * @param  size                   The size of the package
+	 * @return                        The package that was constructed from the buffer
+	 * @throws InputMismatchException in case that the round number is out of bounds.
+	 */
+	public static DCPackage getPackage(ByteBuffer raw, int size) throws InputMismatchException {
+		if(raw.remaining() < size) {
+			throw new InputMismatchException("Only " + raw.remaining() + " bytes are left, but a package has " + size);
+		}
+		DCPackage p = new DCPackage(acquireBuffer(size));
+		ByteBuffer source = raw.duplicate();
+		source.limit(source.position() + size);
+		ByteBuffer b = p.buffer.duplicate();
+		b.position(PREFIX_SIZE);
+		b.put(source);
+		raw.position(raw.position() + size);
+		return p.checkNumber();
+	}
+
+	/**
+	 * Reads a DCPackage of {@code PACKAGE_SIZE} from a stream.
+	 */
+	public static DCPackage getPackage(InputStream is) throws IOException, InputMismatchException {
+		return getPackage(is, PACKAGE_SIZE);
+	}
+
+	/**
+	 * Reads a DCPackage from a stream. If the package is backed by an array,
+	 * the package is read into it directly, in as few reads as the stream allows.
+	 * @param  is                     The stream
+	 * @param  size                   The size of the package
+	 * @return                        The package that was read
+	 * @throws IOException            If the stream ends before the package is complete
+	 * @throws InputMismatchException in case that the round number is out of bounds.
+	 */
+	public static DCPackage getPackage(InputStream is, int size) throws IOException, InputMismatchException {
+		DCPackage p = new DCPackage(acquireBuffer(size));
+		try {
+			if(p.buffer.hasArray()) {
+				readFully(is, p.buffer.array(), p.buffer.arrayOffset() + PREFIX_SIZE, size);
+			} else {
+				byte[] b = scratch(size);
+				readFully(is, b, 0, size);
+				ByteBuffer target = p.buffer.duplicate();
+				target.position(PREFIX_SIZE);
+				target.put(b, 0, size);
 			}
-			return new DCPackage(number, payload);
+		} catch(IOException e) {
+			p.release();
+			throw e;
 		}
+		return p.checkNumber();
+	}
+
+	private DCPackage checkNumber() throws InputMismatchException {
+		byte number = getNumber();
+		if(number < 0 || number >= getNumberRange()) {
+			release();
+			throw new InputMismatchException("The round number " + number + " is out of bounds");
+		}
+		return this;
 	}
 
 	/**
@@ -71,24 +195,71 @@ public class DCPackage {
 	public DCPackage combine(DCPackage p) throws InputMismatchException {
 		if(this.getNumber() != p.getNumber()) {
 			throw new InputMismatchException("Cannot merge packages: The packages belong to two different rounds");
+		} else if(getSize() != p.getSize()) {
+			throw new InputMismatchException("Cannot merge packages: The packages have different sizes: This: " + getSize() + " Foreign: " + p.getSize());
 		} else {
-			return combine(p.payload);
+			XorUtil.xor(buffer, PAYLOAD_OFFSET, p.buffer, PAYLOAD_OFFSET, getPayloadSize());
+			discardEncoding();
+			return this;
 		}
 	}
 
 	public DCPackage combine(byte[] p) throws InputMismatchException {
-		if(this.payload.length != p.length) {
-			throw new InputMismatchException("The size of the two packages is not equal: This: " + this.payload.length + " Foreign: " + p.length);
+		if(getPayloadSize() != p.length) {
+			throw new InputMismatchException("The size of the two packages is not equal: This: " + getPayloadSize() + " Foreign: " + p.length);
 		} else {
-			for(int i = 0; i < PAYLOAD_SIZE; i++) {
-				payload[i] ^= p[i];
-			}
+			XorUtil.xor(buffer, PAYLOAD_OFFSET, p, 0, p.length);
+			discardEncoding();
 			return this;
 		}
 	}
 
+	/**
+	 * Combines this package with an accumulator of words, as filled by {@code addTo}.
+	 * @param  accumulator The words that are XORed into the payload of this package
+	 * @return   This package. That allows for chaining this method.
+	 * @throws InputMismatchException in case the accumulator is too short for the payload.
+	 */
+	public DCPackage combine(long[] accumulator) throws InputMismatchException {
+		if(accumulator.length < XorUtil.words(getPayloadSize())) {
+			throw new InputMismatchException("The accumulator is too short: This: " + getPayloadSize() + " bytes. Foreign: " + accumulator.length + " words");
+		} else {
+			XorUtil.xor(buffer, PAYLOAD_OFFSET, accumulator, getPayloadSize());
+			discardEncoding();
+			return this;
+		}
+	}
+
+	/**
+	 * XORs the payload of this package into an accumulator of words. Every word is
+	 * combined atomically, so several packages may be added to the same accumulator at once.
+	 * This package does not change.
+	 * @param  accumulator An array of at least {@code XorUtil.words(getPayloadSize())} words
+	 * @throws InputMismatchException in case the accumulator is too short for the payload.
+	 */
+	public void addTo(long[] accumulator) throws InputMismatchException {
+		if(accumulator.length < XorUtil.words(getPayloadSize())) {
+			throw new InputMismatchException("The accumulator is too short: This: " + getPayloadSize() + " bytes. Foreign: " + accumulator.length + " words");
+		}
+		XorUtil.xorAtomic(accumulator, buffer, PAYLOAD_OFFSET, getPayloadSize());
+	}
+
 	public byte getNumber() {
-		return header[0];
+		return buffer.get(PREFIX_SIZE);
+	}
+
+	/**
+	 * Returns the size of this package, including its header.
+	 */
+	public int getSize() {
+		return buffer.capacity() - PREFIX_SIZE;
+	}
+
+	/**
+	 * Returns the size of the payload of this package, including the schedule.
+	 */
+	public int getPayloadSize() {
+		return buffer.capacity() - PAYLOAD_OFFSET;
 	}
 
 	/**
@@ -98,8 +269,27 @@ public class DCPackage {
 		return 1 << NUMBER_SIZE;
 	}
 
-	public byte[] getPayload() {
-		return payload;
+	/**
+	 * Returns a read-only view of the payload of this package.
+	 */
+	public ByteBuffer getPayload() {
+		return slice(PAYLOAD_OFFSET, getPayloadSize());
+	}
+
+	/**
+	 * Returns a read-only view of the schedule in this package.
+	 * @param bytes The size of the schedule in bytes
+	 */
+	public ByteBuffer getScheduleSlice(int bytes) {
+		return slice(PAYLOAD_OFFSET, bytes);
+	}
+
+	/**
+	 * Returns a read-only view of the message in this package.
+	 * @param  offset The bytes of offset at which the message starts. This depends on the used scheduling algorithm.
+	 */
+	public ByteBuffer getMessageSlice(int offset) {
+		return slice(PAYLOAD_OFFSET + offset, getPayloadSize() - offset);
 	}
 
 	/**
@@ -109,9 +299,7 @@ public class DCPackage {
 	 */
 	public byte[] getSchedule(int bytes) {
 		byte[] schedule = new byte[bytes];
-		for(int i= 0; i < bytes; i++) {
-			schedule[i] = payload[i];
-		}
+		getScheduleSlice(bytes).get(schedule);
 		return schedule;
 	}
 
@@ -121,51 +309,331 @@ public class DCPackage {
 	 * @return  A byte array containing the message of this package (including padding)
 	 */
 	public byte[] getMessage(int offset) {
-		int l = PAYLOAD_SIZE - offset;
-		byte[] message = new byte[l];
-		for(int i = 0; i < l; i++) {
-			message[i] = payload[i + offset];
-		}
+		byte[] message = new byte[getPayloadSize() - offset];
+		getMessageSlice(offset).get(message);
 		return message;
 	}
-	
+
+	/**
+	 * Returns a view of this package that is preceded by {@code PREFIX_SIZE} bytes of {@code prefix},
+	 * as it is sent on the wire. The view shares the content of this package, so the package must
+	 * not be released before the view was used.
+	 */
+	public ByteBuffer getFrame(byte prefix) {
+		buffer.put(0, prefix);
+		ByteBuffer frame = buffer.duplicate();
+		frame.clear();
+		return frame;
+	}
+
+	/**
+	 * Writes this package to a stream, preceded by {@code PREFIX_SIZE} bytes of {@code prefix}, with a single write.
+	 */
+	public void writeTo(OutputStream os, byte prefix) throws IOException {
+		buffer.put(0, prefix);
+		if(buffer.hasArray()) {
+			os.write(buffer.array(), buffer.arrayOffset(), buffer.capacity());
+		} else {
+			byte[] b = scratch(buffer.capacity());
+			ByteBuffer frame = buffer.duplicate();
+			frame.clear();
+			frame.get(b, 0, buffer.capacity());
+			os.write(b, 0, buffer.capacity());
+		}
+	}
+
 	/**
 	 * Creates and returns a byte array that holds the information of the entire package, including the header
 	 */
 	public byte[] toByteArray() {
-		byte[] p = new byte[PACKAGE_SIZE];
+		byte[] p = new byte[getSize()];
+		slice(PREFIX_SIZE, getSize()).get(p);
+		return p;
+	}
 
-		for(int i = 0; i < HEADER_SIZE; i++) {
-			p[i] = header[i];
+	/**
+	 * Returns the compact encoding of this package, preceded by {@code PREFIX_SIZE} bytes of
+	 * {@code prefix}, or null if this package is not worth encoding. The encoding is
+	 * computed once and shared by all callers until the package is changed.
+	 *
+	 * The compact encoding consists of the header of the package, followed by runs that
+	 * cover the payload. Each run is made up of two unsigned shorts: the number of zeros,
+	 * and the number of bytes that follow them literally, and then the literal bytes.
+	 * A round without any message is a single run of zeros, unless the payload is longer than a run.
+	 * The size of the package is not part of the encoding; it is known to both ends of a connection.
+	 */
+	public synchronized ByteBuffer getCompactFrame(byte prefix) {
+		if(!isEncoded) {
+			compact = encode();
+			isEncoded = true;
 		}
+		if(compact == null) {
+			return null;
+		}
+		compact[0] = prefix;
+		return ByteBuffer.wrap(compact);
+	}
 
-		int payloadOffset = HEADER_SIZE;
-		for(int i = 0; i < PAYLOAD_SIZE; i++) {
-			p[i + payloadOffset] = payload[i];
+	private synchronized void discardEncoding() {
+		compact = null;
+		isEncoded = false;
+	}
+
+	/**
+	 * @return The compact encoding of this package, or null if it is longer than half the size of this package.
+	 */
+	private byte[] encode() {
+		int payloadSize = getPayloadSize();
+		int limit = PREFIX_SIZE + HEADER_SIZE + getSize() / 2;
+		byte[] out = scratch(limit);
+		int n = PREFIX_SIZE;
+		out[n++] = getNumber();
+		int i = 0;
+		while(i < payloadSize) {
+			int zeros = 0;
+			while(i < payloadSize && zeros < MAX_RUN && buffer.get(PAYLOAD_OFFSET + i) == 0) {
+				zeros++;
+				i++;
+			}
+			int start = i;
+			while(i < payloadSize && i - start < MAX_RUN && !isZeroRun(i)) {
+				i++;
+			}
+			int literal = i - start;
+			if(n + RUN_SIZE + literal > limit) {
+				return null;
+			}
+			out[n++] = (byte) (zeros >> 8);
+			out[n++] = (byte) zeros;
+			out[n++] = (byte) (literal >> 8);
+			out[n++] = (byte) literal;
+			for(int k = 0; k < literal; k++) {
+				out[n++] = buffer.get(PAYLOAD_OFFSET + start + k);
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Checks whether a run of at least {@code MIN_ZERO_RUN} zeros starts at the given index of the payload.
+	 */
+	private boolean isZeroRun(int index) {
+		if(index + MIN_ZERO_RUN > getPayloadSize()) {
+			return false;
+		}
+		for(int i = index; i < index + MIN_ZERO_RUN; i++) {
+			if(buffer.get(PAYLOAD_OFFSET + i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the length of the compactly encoded package that starts at {@code offset} of {@code raw},
+	 * or -1 if the buffer does not hold enough of the package to tell.
+	 * @param  size                   The size of the package
+	 * @throws InputMismatchException If the runs of the package exceed the payload
+	 */
+	public static int getCompactLength(ByteBuffer raw, int offset, int size) throws InputMismatchException {
+		int payloadSize = size - HEADER_SIZE;
+		int i = offset + HEADER_SIZE;
+		int covered = 0;
+		while(covered < payloadSize) {
+			if(i + RUN_SIZE > raw.limit()) {
+				return -1;
+			}
+			int zeros = ((raw.get(i) & 0xFF) << 8) | (raw.get(i + 1) & 0xFF);
+			int literal = ((raw.get(i + 2) & 0xFF) << 8) | (raw.get(i + 3) & 0xFF);
+			covered += zeros + literal;
+			if(zeros + literal == 0 || covered > payloadSize) {
+				throw new InputMismatchException("The runs of a compact package are empty or exceed its payload.");
+			}
+			i += RUN_SIZE + literal;
+		}
+		return i - offset;
+	}
+
+	/**
+	 * Decodes a compactly encoded package of {@code PACKAGE_SIZE} from a buffer.
+	 */
+	public static DCPackage getCompactPackage(ByteBuffer raw) throws InputMismatchException {
+		return getCompactPackage(raw, PACKAGE_SIZE);
+	}
+
+	/**
+	 * Decodes a compactly encoded package from a buffer. The position of {@code raw} is advanced past the package.
+	 * @param  size                   The size of the package
+	 * @throws InputMismatchException If the package is malformed or incomplete
+	 */
+	public static DCPackage getCompactPackage(ByteBuffer raw, int size) throws InputMismatchException {
+		int length = getCompactLength(raw, raw.position(), size);
+		if(length < 0) {
+			throw new InputMismatchException("The compact package is incomplete.");
+		}
+		DCPackage p = new DCPackage(acquireBuffer(size));
+		p.buffer.put(PREFIX_SIZE, raw.get());
+		int i = PAYLOAD_OFFSET;
+		while(i < p.buffer.capacity()) {
+			int zeros = ((raw.get() & 0xFF) << 8) | (raw.get() & 0xFF);
+			int literal = ((raw.get() & 0xFF) << 8) | (raw.get() & 0xFF);
+			for(int k = 0; k < zeros; k++) {
+				p.buffer.put(i++, (byte) 0);
+			}
+			for(int k = 0; k < literal; k++) {
+				p.buffer.put(i++, raw.get());
+			}
+		}
+		return p.checkNumber();
+	}
+
+	/**
+	 * Reads a compactly encoded package of {@code PACKAGE_SIZE} from a stream.
+	 */
+	public static DCPackage getCompactPackage(InputStream is) throws IOException, InputMismatchException {
+		return getCompactPackage(is, PACKAGE_SIZE);
+	}
+
+	/**
+	 * Reads a compactly encoded package from a stream.
+	 * @param  size                   The size of the package
+	 * @throws IOException            If the stream ends before the package is complete
+	 * @throws InputMismatchException If the package is malformed
+	 */
+	public static DCPackage getCompactPackage(InputStream is, int size) throws IOException, InputMismatchException {
+		DCPackage p = new DCPackage(acquireBuffer(size));
+		int end = p.buffer.capacity();
+		try {
+			byte[] run = new byte[RUN_SIZE];
+			readFully(is, run, 0, HEADER_SIZE);
+			p.buffer.put(PREFIX_SIZE, run[0]);
+			int i = PAYLOAD_OFFSET;
+			while(i < end) {
+				readFully(is, run, 0, RUN_SIZE);
+				int zeros = ((run[0] & 0xFF) << 8) | (run[1] & 0xFF);
+				int literal = ((run[2] & 0xFF) << 8) | (run[3] & 0xFF);
+				if(zeros + literal == 0 || i + zeros + literal > end) {
+					throw new InputMismatchException("The runs of a compact package are empty or exceed its payload.");
+				}
+				for(int k = 0; k < zeros; k++) {
+					p.buffer.put(i++, (byte) 0);
+				}
+				if(p.buffer.hasArray()) {
+					readFully(is, p.buffer.array(), p.buffer.arrayOffset() + i, literal);
+				} else {
+					byte[] b = scratch(literal);
+					readFully(is, b, 0, literal);
+					ByteBuffer target = p.buffer.duplicate();
+					target.position(i);
+					target.put(b, 0, literal);
+				}
+				i += literal;
+			}
+		} catch(IOException e) {
+			p.release();
+			throw e;
+		} catch(InputMismatchException e) {
+			p.release();
+			throw e;
+		}
+		return p.checkNumber();
+	}
+
+	private static void readFully(InputStream is, byte[] b, int offset, int length) throws IOException {
+		int n = 0;
+		while(n < length) {
+			int r = is.read(b, offset + n, length - n);
+			if(r < 0) {
+				throw new EOFException("The connection was closed by the remote host.");
+			}
+			n += r;
+		}
+	}
+
+	/**
+	 * Keeps this package from being recycled until {@code release} is called once more.
+	 * @return This package
+	 */
+	public DCPackage retain() {
+		references.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Gives up one reference to this package. When the last reference is released, the buffer
+	 * of this package is recycled and the package must not be used anymore.
+	 */
+	public void release() {
+		int r = references.decrementAndGet();
+		if(r == 0) {
+			ByteBuffer b = buffer;
+			buffer = null;
+			if(pooled.incrementAndGet() <= DCConfig.PACKAGE_POOL_SIZE) {
+				pool(b.capacity() - PREFIX_SIZE).add(b);
+			} else {
+				pooled.decrementAndGet();
+			}
+		} else if(r < 0) {
+			throw new IllegalStateException("This package was released more often than it was retained.");
 		}
-		return p;
 	}
 
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append("Round " + round + ":\n");
-		sb.append("Payload: (" + PAYLOAD_SIZE + " bytes)\n");
-		sb.append(Arrays.toString(payload));
+		sb.append("Round " + getNumber() + ":\n");
+		sb.append("Payload: (" + getPayloadSize() + " bytes)\n");
+		sb.append(Arrays.toString(getMessage(0)));
 		return sb.toString();
 	}
 
-	private byte[] makeHeader(int number) {
-		byte[] header = new byte[HEADER_SIZE];
+	private ByteBuffer slice(int offset, int length) {
+		ByteBuffer b = buffer.asReadOnlyBuffer();
+		b.limit(offset + length);
+		b.position(offset);
+		return b.slice();
+	}
+
+	private static ByteBuffer acquireBuffer(int size) {
+		if(size <= HEADER_SIZE || size > DCConfig.MAX_PACKAGE_SIZE) {
+			throw new InputMismatchException("A package of " + size + " bytes is not supported.");
+		}
+		ByteBuffer b = pool(size).poll();
+		if(b != null) {
+			pooled.decrementAndGet();
+			return b;
+		} else if(DCConfig.DIRECT_PACKAGE_BUFFERS) {
+			return ByteBuffer.allocateDirect(PREFIX_SIZE + size);
+		} else {
+			return ByteBuffer.allocate(PREFIX_SIZE + size);
+		}
+	}
+
+	private static ConcurrentLinkedQueue<ByteBuffer> pool(int size) {
+		ConcurrentLinkedQueue<ByteBuffer> pool = pools.get(size);
+		if(pool == null) {
+			pools.putIfAbsent(size, new ConcurrentLinkedQueue<ByteBuffer>());
+			pool = pools.get(size);
+		}
+		return pool;
+	}
+
+	/**
+	 * Returns a scratch array of this thread that holds at least {@code length} bytes.
+	 */
+	private static byte[] scratch(int length) {
+		byte[] b = scratch.get();
+		if(b == null || b.length < length) {
+			b = new byte[Math.max(length, PREFIX_SIZE + PACKAGE_SIZE)];
+			scratch.set(b);
+		}
+		return b;
+	}
+
+	private byte makeHeader(int number) {
 		if(number >= (1 << (8* HEADER_SIZE))) {
 			throw new InputMismatchException("The round number " + number + " exceeds the bound of " + (1 << (8*HEADER_SIZE)));
 		}
-		int i = 0;
-		do {
-			header[i] = (byte) (number % 256);
-			number >>= 8;
-			i++;
-		} while(number != 0);
-		return header;
-	}
-	
+		return (byte) number;
+	}
+
 }
@@ -49,6 +49,14 @@ public abstract class DCStation implements PackageListener{
 		}	
 	}
 
+	protected void broadcast(DCChunk output) {
+		try {
+			c.send(output);
+		} catch(IOException e) {
+			connectionLost(e.getMessage());
+		}
+	}
+
 	protected void broadcast(NetStatPackage output) {
 		try {
 			c.send(output);
@@ -91,6 +99,14 @@ public abstract class DCStation implements PackageListener{
 			net.clear();
 		}
 		this.c = c;
+		if(DCConfig.COMPACT_FRAMES || DCConfig.MULTICAST_RECEIVE) {
+			try {
+				c.announceCapabilities();
+			} catch(IOException e) {
+				Debugger.println("network", "[DCStation " + alias + "] Unable to announce capabilities: " + e.getMessage());
+			}
+		}
+		c.startHeartbeat();
 		connectionSemaphore.release();
 
 	}
@@ -107,6 +123,15 @@ public abstract class DCStation implements PackageListener{
 		return kh;
 	}
 
+	/**
+	 * Chunks are only forwarded up the hierarchy, to the ConnectionBundle of a server.
+	 * The server above a station sends whole packages, so chunks from it are ignored.
+	 */
+	@Override
+	public void addInput(DCChunk chunk) {
+		Debugger.println("protocol", "[DCStation " + alias + "] Ignoring a chunk of round " + chunk.getNumber() + " that arrived from above.");
+	}
+
 	@Override
 	public void connectionLost(String message) {
 		c = null;
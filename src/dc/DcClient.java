@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 import dc.DCPackage;
 import dc.scheduling.Scheduler;
@@ -25,9 +26,15 @@ public class DcClient extends DCStation{
 	 */
 	private final Semaphore inputAvailable;
 
+	// Makes sure that only one output is computed at a time
+	private final ReentrantLock outputLock;
+
 	private final LinkedList<byte[]> inputBuffer;
 	private Scheduler scheduler;
-	// The index of the next round to be sent
+	// The index of the most recent round result
+	private int lastResult;
+	// The index of the next round to be sent, or -1 if this client has not sent anything yet.
+	// The rounds after lastResult up to nextRound are in progress.
 	private int nextRound;
 	// The index of the next round that is scheduled for us to send something
 	private int nextScheduledRound;
@@ -48,6 +55,7 @@ public class DcClient extends DCStation{
 		super(alias);
 		
 		inputAvailable = new Semaphore(0);
+		outputLock = new ReentrantLock();
 		inputBuffer = new LinkedList<byte[]>();
 
 		scheduler = DCConfig.schedulingMethod.getScheduler();
@@ -55,6 +63,7 @@ public class DcClient extends DCStation{
 		mb = new MessageBuffer(DCPackage.PAYLOAD_SIZE - scheduler.getScheduleSize());
 		// We initially don't know the current round of the network
 		// therefore this is initialized to a sentinel value
+		lastResult = -1;
 		nextRound = -1;
 		// -1 is the sentinel value for 'no round is scheduled for us'
 		nextScheduledRound = -1;
@@ -117,12 +126,13 @@ public class DcClient extends DCStation{
 			System.out.println("Failed to revert 1-0 padding: " + e.getMessage());
 		} 
 		int number = message.getNumber();
+		net.addResult(number);
 		if(inputPayload != null) {
 			// We compare 'message' rather than 'inputPayload' since
 			// the pending message includes padding.
 			if(mb.hasPendingMessage() && number == lastScheduledRound) {
 				lastScheduledRound = -1;
-				if(!mb.compareMessage(message.getMessage(scheduler.getScheduleSize()))) {
+				if(!mb.compareMessage(message.getMessageSlice(scheduler.getScheduleSize()))) {
 					// TODO: report collision to statistics tracker.
 					Debugger.println("collision", "[DcClient "+alias+"] Collision detected");
 				} else {
@@ -137,13 +147,86 @@ public class DcClient extends DCStation{
 			if(nextScheduledRound == -1) {
 				// we only want to fetch the next round after we used
 				// the last round to send a message.
-				nextScheduledRound = scheduler.getNextRound();
+				nextScheduledRound = nextUnsentSlot(number);
 			}
 			Debugger.println("scheduling", "[DcClient "+alias+"] successfully scheduled slot: " + nextScheduledRound);	
 		}
-		nextRound = ++number % message.getNumberRange();
+		lastResult = number;
+		message.release();
 		if(isActive) {
-			sendOutput();
+			sendAhead(number);
+		}
+	}
+
+	/**
+	 * Sends the output of all rounds up to the end of the window that follows
+	 * a round result. Usually that is the one round that just entered the window.
+	 * @param result The number of the round whose result arrived
+	 */
+	private void sendAhead(int result) {
+		int window = net.getRoundWindow();
+		int ahead = firstUnsent(result);
+		nextRound = (result + ahead) % DCPackage.getNumberRange();
+		for(; ahead <= window; ahead++) {
+			sendOutput(nextRound);
+			nextRound = (nextRound + 1) % DCPackage.getNumberRange();
+		}
+	}
+
+	/**
+	 * Returns how many rounds after {@code result} the first round is that this client did not send yet.
+	 * If nothing is in progress, e.g. because this client just became active, it joins at
+	 * the end of the window, since the rounds before that are already in progress without it.
+	 * @return A number from 1 to the window, or the window + 1 if all rounds of the window were sent.
+	 */
+	private int firstUnsent(int result) {
+		int window = net.getRoundWindow();
+		if(nextRound < 0) {
+			return window;
+		}
+		int range = DCPackage.getNumberRange();
+		int ahead = (nextRound - result + range) % range;
+		if(ahead == 0 || ahead > window + 1) {
+			// We lost track of the rounds
+			return window;
+		}
+		return ahead;
+	}
+
+	/**
+	 * Takes the next slot from the scheduler that this client has not sent in yet.
+	 * Slots of rounds that were already sent, because they are in progress, are skipped.
+	 * A slot is the number of a round in the upcoming rounds, which is why a slot with
+	 * the number of the result itself refers to the round that is a whole range ahead.
+	 * @return The slot, or -1 if there is none.
+	 */
+	private int nextUnsentSlot(int result) {
+		int range = DCPackage.getNumberRange();
+		int unsent = firstUnsent(result);
+		for(int i = 0; i <= net.getRoundWindow(); i++) {
+			int slot = scheduler.getNextRound();
+			if(slot == -1) {
+				return -1;
+			}
+			int ahead = (slot - result + range) % range;
+			if(ahead == 0) {
+				ahead = range;
+			}
+			if(ahead >= unsent) {
+				return slot;
+			}
+			Debugger.println("scheduling", "[DcClient "+alias+"] skipping slot " + slot + " since that round is already in progress");
+		}
+		return -1;
+	}
+
+	/**
+	 * Sends the output of all rounds that are in progress again, e.g. since another station left.
+	 */
+	private void resendOutput() {
+		if(lastResult < 0 || nextRound < 0) return;
+		for(int round = (lastResult + 1) % DCPackage.getNumberRange(); round != nextRound; round = (round + 1) % DCPackage.getNumberRange()) {
+			sendOutput(round);
 		}
 	}
 
@@ -162,9 +245,27 @@ public class DcClient extends DCStation{
 				if(foreignAlias.equals(alias)) {
 					Debugger.println("network", "[DcClient " + alias + "] State changed to active");
 					isActive = true;
+					// We start sending with the next round result.
+					nextRound = -1;
 				} 
 			}
 			//won't resend
+		} else if (nsp instanceof NetStatPackage.PackageSize) {
+			synchronized(net) {
+				nsp.apply(net);
+				Debugger.println("network", "[DcClient " + alias + "] Packages now have " + net.getPackageSize() + " bytes");
+				mb.setPayloadSize(net.getPackageSize() - DCPackage.HEADER_SIZE - scheduler.getScheduleSize());
+			}
+		} else if (nsp instanceof NetStatPackage.Epoch) {
+			synchronized(net) {
+				nsp.apply(net);
+				Debugger.println("network", "[DcClient " + alias + "] The rounds are in epoch " + net.getEpoch());
+			}
+		} else if (nsp instanceof NetStatPackage.RoundWindow) {
+			synchronized(net) {
+				nsp.apply(net);
+				Debugger.println("network", "[DcClient " + alias + "] Up to " + net.getRoundWindow() + " rounds are in progress at once");
+			}
 		} else {
 			synchronized(net) {
 				nsp.apply(net);
@@ -173,16 +274,24 @@ public class DcClient extends DCStation{
 				if(foreignAlias.equals(alias)) {
 					Debugger.println("network", "[DcClient " + alias + "] State changed to inactive");
 					isActive = false;
-				} else {
-					sendOutput();
+					nextRound = -1;
+					return;
 				}
 			}
+			// The rounds in progress start over without the station that left.
+			if(isActive) {
+				resendOutput();
+			}
 		}
 	}
 
 	
 
-	private void sendOutput() {
+	/**
+	 * Sends the output of a round.
+	 * @param round The number of the round
+	 */
+	private void sendOutput(int round) {
 		// try{
 		// 	Thread.sleep(WAIT_TIME);
 		// } catch (InterruptedException e) {
@@ -190,35 +299,45 @@ public class DcClient extends DCStation{
 		// }
 		if(isClosed()) return;
 		byte[] output;
-		synchronized(kh) { 
-			synchronized(net) {
-				byte[] message;
-				/**
-				 *  Make sure that there are enough connections. This prevents stations
-				 *  from broadcasting messages once the number of connections drops below
-				 *  the minimum. If too little connections are available then the station
-				 *  will only send empty messages
-				 */
-				// System.out.println(alias + ": Are we allowed to send? " + (kh.approved(net.getStations())? " Yes":"No"));
-				if(kh.approved(net.getStations()) && nextScheduledRound == nextRound) {
-					Debugger.println("messages", "[DcClient " + alias + "] Sending in round " + nextRound + "...");
-					message = mb.getMessage();
-					// remember that we used up this scheduled round.
-					assert lastScheduledRound == -1;
-					lastScheduledRound = nextScheduledRound;
-					// flag that we used up this round
-					nextScheduledRound = -1;
-				} else {
-					message = new byte[DCPackage.PAYLOAD_SIZE - scheduler.getScheduleSize()];
-				}
-				Debugger.println(2, "[DcClient "+alias+"] Sending message " + Arrays.toString(message));
-				output = kh.getOutput(scheduler.getSchedule(), message, net.getStations());
-				Debugger.println(2, "[DcClient "+alias+"] Sending output " + Arrays.toString(output));
-				
-			} 
+		int packageSize = net.getPackageSize();
+		// The KeyHandler takes a snapshot of the network itself, so only the
+		// computation of the output has to be exclusive. This is a lock rather
+		// than a monitor, since computing the key mix may block.
+		outputLock.lock();
+		try {
+			byte[] message;
+			/**
+			 *  Make sure that there are enough connections. This prevents stations
+			 *  from broadcasting messages once the number of connections drops below
+			 *  the minimum. If too little connections are available then the station
+			 *  will only send empty messages
+			 */
+			// System.out.println(alias + ": Are we allowed to send? " + (kh.approved(net)? " Yes":"No"));
+			if(nextScheduledRound == round && lastScheduledRound != -1) {
+				// The message of an earlier slot is still in progress, and it may have to be sent again.
+				Debugger.println("scheduling", "[DcClient " + alias + "] Giving up slot " + round + " since an earlier message is still in progress");
+				nextScheduledRound = -1;
+			}
+			if(kh.approved(net) && nextScheduledRound == round) {
+				Debugger.println("messages", "[DcClient " + alias + "] Sending in round " + round + "...");
+				message = mb.getMessage();
+				// remember that we used up this scheduled round.
+				assert lastScheduledRound == -1;
+				lastScheduledRound = nextScheduledRound;
+				// flag that we used up this round
+				nextScheduledRound = -1;
+			} else {
+				message = new byte[packageSize - DCPackage.HEADER_SIZE - scheduler.getScheduleSize()];
+			}
+			Debugger.println(2, "[DcClient "+alias+"] Sending message " + Arrays.toString(message));
+			output = kh.getOutput(round, scheduler.getSchedule(round), message, net);
+			Debugger.println(2, "[DcClient "+alias+"] Sending output " + Arrays.toString(output));
+		} finally {
+			outputLock.unlock();
 		}
-		DCPackage pckg = new DCPackage(nextRound, output);
+		DCPackage pckg = new DCPackage(round, output, packageSize);
 		broadcast(pckg);
+		pckg.release();
 	}
 	
 }
\ No newline at end of file
@@ -3,13 +3,19 @@ package dc;
 import cli.Debugger;
 
 import net.Connection;
-import net.NetworkConnection;
+import net.MulticastGroup;
+import net.NioConnection;
 import net.NetStatPackage;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.lang.IllegalStateException;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import util.UnixSocketUtil;
 
 public class DcServer extends DCStation {
 	private ConnectionBundle cb;
@@ -23,7 +29,27 @@ public class DcServer extends DCStation {
 	 */
 	public DcServer(String alias, int port) {
 		this(alias);
-		(new Thread(new NetworkListener(port))).start();
+		if(DCConfig.MULTICAST_ADDRESS != null) {
+			try {
+				MulticastGroup group = new MulticastGroup(DCConfig.MULTICAST_ADDRESS);
+				cb.setMulticastGroup(group);
+				System.out.println("[DcServer " + alias + "] Sending round results to " + group);
+			} catch(IOException e) {
+				System.err.println("[DcServer " + alias + "] Unable to open the multicast group, sending round results over the connections only: " + e.getMessage());
+			}
+		}
+		DCConfig.threadingMethod.newThread(new NetworkListener(port), "DcServer " + alias + " NetworkListener").start();
+	}
+
+	/**
+	 * Starts a DcServer that accepts connections from stations on the same host
+	 * through a Unix domain socket. These connections skip the TCP stack entirely.
+	 * @param  alias The alias that identifies this server
+	 * @param  path  The path of the socket file
+	 */
+	public DcServer(String alias, String path) {
+		this(alias);
+		DCConfig.threadingMethod.newThread(new NetworkListener(path), "DcServer " + alias + " NetworkListener").start();
 	}
 
 	/**
@@ -34,19 +60,67 @@ public class DcServer extends DCStation {
 	public DcServer(String alias) {
 		super(alias);
 		cb = new ConnectionBundle();
+		cb.setChunkForwarder(new Forwarder());
 		needsPulse = true;
-		(new Thread(new InputReader())).start();
-		(new Thread(new NetStatInputListener())).start();
-		(new Thread(new Pulser())).start();
+		DCConfig.threadingMethod.newThread(new InputReader(), "DcServer " + alias + " InputReader").start();
+		DCConfig.threadingMethod.newThread(new NetStatInputListener(), "DcServer " + alias + " NetStatInputListener").start();
+		DCConfig.threadingMethod.newThread(new Pulser(), "DcServer " + alias + " Pulser").start();
 	}
 
 	public ConnectionBundle getCB() {
 		return cb;
 	}
 
+	/**
+	 * Adds a connection to a station below this server. The station learns the epoch of
+	 * the rounds first, so that its keystreams line up with those of the other stations.
+	 */
+	public void addConnection(Connection c) {
+		NetStatPackage epoch;
+		synchronized(net) {
+			epoch = new NetStatPackage.Epoch(net.getEpoch(), net.getLastResult());
+		}
+		try {
+			c.send(epoch);
+		} catch(IOException e) {
+			Debugger.println(1, e.getMessage());
+		}
+		cb.addConnection(c);
+	}
+
+	/**
+	 * Changes the size of the packages in the network and announces it to all connected stations.
+	 * Only the server at the top of the hierarchy decides on the package size, and only while
+	 * no station takes part in the rounds, since the rounds in progress would be lost otherwise.
+	 * @param  size                     The size of a package, including its header
+	 * @throws IllegalStateException    If this server is connected to another server, or stations are active
+	 * @throws IllegalArgumentException If the size is out of the bounds given by DCConfig
+	 */
+	public void setPackageSize(int size) throws IllegalStateException, IllegalArgumentException {
+		if(c != null) {
+			throw new IllegalStateException("The package size is decided by the server at the top of the hierarchy.");
+		}
+		if(!net.getStations().isEmpty()) {
+			throw new IllegalStateException("The package size can only be changed while no station is active.");
+		}
+		NetStatPackage nsp = new NetStatPackage.PackageSize(size);
+		nsp.apply(net);
+		cb.handle(nsp);
+		cb.broadcast(nsp);
+	}
+
+	public int getPackageSize() {
+		return net.getPackageSize();
+	}
+
 	@Override
 	public void addInput(DCPackage message) {
+		// The result of a round was sent down from the server above us, so our
+		// stations will contribute to the following round next.
+		net.addResult(message.getNumber());
+		cb.startRound((message.getNumber() + 1) % DCPackage.getNumberRange());
 		cb.broadcast(message);
+		message.release();
 	}
 
 	@Override
@@ -74,13 +148,22 @@ public class DcServer extends DCStation {
 		public void run() {
 			while(!isClosed) {
 				DCPackage input = cb.receiveDCPackage();
-				input.combine(kh.getOutput(DCPackage.PAYLOAD_SIZE, net.getStations()));
+				int round = input.getNumber();
+				input.combine(kh.getOutput(round, input.getPayloadSize(), net));
+				if(c == null) {
+					// This is the result of the round. Servers below us take note of it once it arrives from above.
+					net.addResult(round);
+				}
+				// Compute our contribution to the next round in the background,
+				// while the ConnectionBundle collects the inputs of that round.
+				kh.prepareOutput((round + 1) % DCPackage.getNumberRange(), input.getPayloadSize(), net);
 				needsPulse = false;
 				if(c != null) {
 					broadcast(input);
 				} else {
 					cb.broadcast(input);
 				}
+				input.release();
 			}
 		}
 	}
@@ -107,6 +190,69 @@ public class DcServer extends DCStation {
 		}
 	}
 
+	/**
+	 * Forwards the chunks of rounds to the server above this one as soon as all stations
+	 * below this server contributed to them. The contribution of this server to a round is
+	 * taken when the first chunk of the round is forwarded, and it is kept until all chunks
+	 * of the round were forwarded. If the round starts over in between, it moves to another
+	 * epoch, and the contribution is taken again for that epoch.
+	 *
+	 * Chunks are forwarded by the threads of the connections below this server. The state
+	 * of the rounds is only locked while a chunk is combined with the contribution, and the
+	 * chunk is sent after the lock was released, so a slow connection to the server above
+	 * does not hold up the other threads.
+	 */
+	private class Forwarder implements ChunkForwarder {
+		// The contribution of this server to the rounds whose chunks are being forwarded, indexed by round
+		private final byte[][] outputs = new byte[DCPackage.getNumberRange()][];
+		// The epochs that these contributions were taken in
+		private final int[] epochs = new int[DCPackage.getNumberRange()];
+		// The chunks of these rounds that were forwarded so far
+		private final BitSet[] forwarded = new BitSet[DCPackage.getNumberRange()];
+		// Guards the state of the rounds above
+		private final ReentrantLock lock = new ReentrantLock();
+
+		@Override
+		public boolean isForwarding() {
+			return c != null && DCConfig.CUT_THROUGH;
+		}
+
+		@Override
+		public void forward(DCChunk chunk) {
+			if(c == null) return;
+			int round = chunk.getNumber();
+			int payloadSize = net.getPackageSize() - DCPackage.HEADER_SIZE;
+			if(chunk.getOffset() + chunk.getLength() > payloadSize) {
+				Debugger.println("network", "[DcServer " + alias + "] Dropping chunk " + chunk.getIndex() + " of round " + round + " since packages now have " + net.getPackageSize() + " bytes.");
+				return;
+			}
+			boolean roundForwarded;
+			lock.lock();
+			try {
+				int epoch = net.getEpoch(round);
+				if(outputs[round] == null || outputs[round].length != payloadSize || epochs[round] != epoch) {
+					outputs[round] = kh.getOutput(round, payloadSize, net);
+					epochs[round] = epoch;
+					forwarded[round] = new BitSet();
+				}
+				chunk.combine(outputs[round]);
+				forwarded[round].set(chunk.getIndex(), chunk.getIndex() + chunk.getChunkCount());
+				roundForwarded = forwarded[round].cardinality() == DCChunk.getCount(payloadSize);
+				if(roundForwarded) {
+					outputs[round] = null;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if(roundForwarded) {
+				// Compute our contribution to the next round in the background,
+				// while the ConnectionBundle collects the inputs of that round.
+				kh.prepareOutput((round + 1) % DCPackage.getNumberRange(), payloadSize, net);
+			}
+			broadcast(chunk);
+		}
+	}
+
 	/**
 	 * This class sends an empty round to all connected stations 
 	 * to start the conversation. This only needs to happen once
@@ -127,7 +273,9 @@ public class DcServer extends DCStation {
 					if(!needsPulse) return;
 					// else we let the connectionBundle send out a pulse to all 
 					// connected stations.
-					cb.pulse();
+					for(int round: cb.pulse()) {
+						net.addResult(round);
+					}
 					Debugger.println("server", "[Info] Server " + alias + " sent pulse message.");
 				} catch(InterruptedException e) {
 					continue;
@@ -138,26 +286,43 @@ public class DcServer extends DCStation {
 
 	/**
 	 * This Runnable will accept incoming network connections on the specified
-	 * path. It will be started automatically on a separate thread if the
-	 * constructor {@code DcServer(String alias, int port)} was used.
+	 * port or path. It will be started automatically on a separate thread if the
+	 * constructor {@code DcServer(String alias, int port)} or
+	 * {@code DcServer(String alias, String path)} was used.
 	 */
 	private class NetworkListener implements Runnable {
-		private ServerSocket servSock;
+		private ServerSocketChannel servSock;
 		private int port;
+		// The path of a Unix domain socket, or null for a TCP port
+		private String path;
 
 		public NetworkListener(int port) {
 			this.port = port;
 		}
 
+		public NetworkListener(String path) {
+			this.path = path;
+		}
+
 		@Override
 		public void run() {
 			try {
-				servSock = new ServerSocket(port);
-				servSock.setPerformancePreferences(0, 2, 1);
+				if(path != null) {
+					servSock = UnixSocketUtil.bind(path);
+				} else {
+					servSock = ServerSocketChannel.open();
+					servSock.socket().setPerformancePreferences(0, 2, 1);
+					servSock.bind(new InetSocketAddress(port));
+				}
 				while(!isClosed) {
-					Socket s = servSock.accept();
-					NetworkConnection ncon = new NetworkConnection(s);
-					cb.addConnection(ncon);
+					SocketChannel s = servSock.accept();
+					Connection ncon;
+					if(path != null) {
+						ncon = new NioConnection(s, null);
+					} else {
+						ncon = DCConfig.transportMethod.getConnection(s, null);
+					}
+					addConnection(ncon);
 					// ncon.send(new NetStatPackage.Snapshot(net.getStations()));
 				}
 				servSock.close();
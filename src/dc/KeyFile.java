@@ -0,0 +1,90 @@
+package dc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reads and writes binary files that contain the pairwise keys of a network.
+ *
+ * A key file starts with the magic number {@link #MAGIC} and the number of keys
+ * that it contains. Each key is stored as the aliases of the two stations that share
+ * it, followed by the {@link KeyHandler#KEY_SIZE} bytes of the key itself.
+ * A single file can therefore provision all stations of a network.
+ */
+public class KeyFile {
+	public static final int MAGIC = 0x44434b46; // "DCKF"
+
+	private KeyFile() {
+
+	}
+
+	/**
+	 * Reads the keys that a station shares with other stations from a key file.
+	 * Keys that do not involve the station are skipped.
+	 * @param  is          The stream from which the key file is read
+	 * @param  alias       The alias of the station
+	 * @return             The keys of the station, indexed by the alias of the other station
+	 * @throws IOException If the stream can not be read or is not a key file
+	 */
+	public static HashMap<String, byte[]> read(InputStream is, String alias) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		if(dis.readInt() != MAGIC) {
+			throw new IOException("The provided input is not a key file.");
+		}
+		int count = dis.readInt();
+		HashMap<String, byte[]> keys = new HashMap<String, byte[]>();
+		for(int i = 0; i < count; i++) {
+			String a1 = dis.readUTF();
+			String a2 = dis.readUTF();
+			byte[] key = new byte[KeyHandler.KEY_SIZE];
+			dis.readFully(key);
+			if(a1.equals(alias)) {
+				keys.put(a2, key);
+			} else if(a2.equals(alias)) {
+				keys.put(a1, key);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Writes a key file with a random key for each pair of stations in the roster.
+	 * @param  os          The stream to which the key file is written
+	 * @param  roster      The aliases of all stations of the network
+	 * @throws IOException If the stream can not be written to
+	 */
+	public static void write(OutputStream os, List<String> roster) throws IOException {
+		write(os, roster, new SecureRandom());
+	}
+
+	/**
+	 * Writes a key file with a random key for each pair of stations in the roster.
+	 * @param  os          The stream to which the key file is written
+	 * @param  roster      The aliases of all stations of the network
+	 * @param  random      The source of the keys
+	 * @throws IOException If the stream can not be written to
+	 */
+	public static void write(OutputStream os, List<String> roster, Random random) throws IOException {
+		DataOutputStream dos = new DataOutputStream(os);
+		int n = roster.size();
+		dos.writeInt(MAGIC);
+		dos.writeInt(n * (n - 1) / 2);
+		byte[] key = new byte[KeyHandler.KEY_SIZE];
+		for(int i = 0; i < n; i++) {
+			for(int j = i + 1; j < n; j++) {
+				random.nextBytes(key);
+				dos.writeUTF(roster.get(i));
+				dos.writeUTF(roster.get(j));
+				dos.write(key);
+			}
+		}
+		dos.flush();
+	}
+}
@@ -4,22 +4,58 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Collection;
 import java.util.ArrayList;
-
-import com.neilalexander.jnacl.crypto.salsa20;
-
-import com.neilalexander.jnacl.crypto.salsa20;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import dc.DCPackage;
+import dc.DCConfig.KeystreamMethod;
+import dc.keystream.KeystreamProvider;
+import dc.keystream.Salsa20Provider;
 import cli.Debugger;
 import util.HashUtil;
+import util.XorUtil;
 
 import net.Network;
 
 public class KeyHandler {
-	private static HashUtil hu = new HashUtil(HashUtil.SHA_256);
+	// Every thread derives keys with its own digest, so that stations can derive their keys in parallel.
+	private static final ThreadLocal<HashUtil> hu = new ThreadLocal<HashUtil>() {
+		@Override
+		protected HashUtil initialValue() {
+			return new HashUtil(HashUtil.SHA_256);
+		}
+	};
 	public static final int KEY_SIZE = 32;
 	// Nonce size must not be larger than key size.
 	public static final int NONCE_SIZE = 8;
+
+	// Key mixes are computed in chunks of this many bytes, so that the part of the
+	// accumulator that all keystreams are XORed into stays in the cache.
+	// Must be a multiple of KeystreamProvider.BLOCK_SIZE.
+	private static final int MIX_CHUNK = 16 * 1024;
+
+	/**
+	 * The threads that fill the keystream buffers of all keys in the background.
+	 * They are shared by all KeyHandlers so that the number of threads does not
+	 * grow with the number of stations in this process.
+	 */
+	private static final ExecutorService precomputer = Executors.newFixedThreadPool(DCConfig.PRECOMPUTE_THREADS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "KeyHandler-precompute");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 	
 	private HashMap<String, KeyNoncePair> keychain;
 	
@@ -27,98 +63,417 @@ public class KeyHandler {
 
 	private int numKeys;
 
+	// Counts the changes to the keychain, so that a cached cut set can be validated
+	private volatile int keychainVersion;
+
+	// The most recent cut set. It is replaced as a whole whenever it is rebuilt.
+	private volatile CutSet cutSet;
+
+	// Counts the key mixes that were computed, so that a prepared key mix can be validated
+	private final AtomicLong mixCount = new AtomicLong();
+
+	// The key mix that was prepared for an upcoming round, or null
+	private PreparedMix preparedMix;
+
+	// The number of keys from which on key mixes are computed in parallel
+	private int parallelThreshold;
+
+	// The keystream method that is used for keys that are added from now on
+	private KeystreamMethod keystreamMethod;
+
 	public KeyHandler(String alias) {
 		this.alias = alias;
 		keychain = new HashMap<String, KeyNoncePair>();
+		parallelThreshold = DCConfig.PARALLEL_MIX_THRESHOLD;
+		keystreamMethod = DCConfig.keystreamMethod;
+	}
+
+	/**
+	 * Changes the keystream method for keys that are added from now on.
+	 * Keys that are already in the keychain keep their method, since the
+	 * station on the other end of the key has to use the same method.
+	 * @param method The keystream method to be used
+	 */
+	public void setKeystreamMethod(KeystreamMethod method) {
+		this.keystreamMethod = method;
+	}
+
+	public KeystreamMethod getKeystreamMethod() {
+		return keystreamMethod;
+	}
+
+	/**
+	 * Changes the number of keys from which on key mixes are computed in parallel.
+	 * @param threshold The minimal number of keys in the cut set for parallel mixing. Use {@code Integer.MAX_VALUE} to always mix sequentially.
+	 */
+	public void setParallelThreshold(int threshold) {
+		this.parallelThreshold = threshold;
 	}
 
 	public void addKey(String foreignAlias)  {
-		String baseString = symmetricConcat(alias, foreignAlias);
-		byte[] hash = hu.digest(baseString.getBytes());
-		addKey(foreignAlias, hash);
+		addKey(foreignAlias, deriveKey(foreignAlias));
 	}
 	
 	public void addKey(String c, byte[] key) {
+		KeyNoncePair knp = createPair(c, key, keystreamMethod);
+		if(knp != null) {
+			synchronized(keychain) {
+				if(keychain.put(c, knp) == null) {
+					numKeys++;
+				}
+				keychainVersion++;
+			}
+		}
+	}
+
+	/**
+	 * Derives the keys that this station shares with each of the given stations
+	 * and adds all of them to the keychain in one step.
+	 * The keys are derived in parallel.
+	 * @param foreignAliases The aliases of the other stations. The alias of this station is ignored.
+	 */
+	public void addKeys(Collection<String> foreignAliases) {
+		final KeystreamMethod method = keystreamMethod;
+		HashMap<String, Callable<KeyNoncePair>> tasks = new HashMap<String, Callable<KeyNoncePair>>();
+		for(final String c: foreignAliases) {
+			if(alias.equals(c)) continue;
+			tasks.put(c, new Callable<KeyNoncePair>() {
+				@Override
+				public KeyNoncePair call() {
+					return createPair(c, deriveKey(c), method);
+				}
+			});
+		}
+		install(tasks);
+	}
+
+	/**
+	 * Adds the given keys to the keychain in one step.
+	 * The keystreams of the keys are set up in parallel.
+	 * @param keys The keys, indexed by the alias of the station that shares the key with this station
+	 */
+	public void addKeys(Map<String, byte[]> keys) {
+		final KeystreamMethod method = keystreamMethod;
+		HashMap<String, Callable<KeyNoncePair>> tasks = new HashMap<String, Callable<KeyNoncePair>>();
+		for(final Map.Entry<String, byte[]> e: keys.entrySet()) {
+			tasks.put(e.getKey(), new Callable<KeyNoncePair>() {
+				@Override
+				public KeyNoncePair call() {
+					return createPair(e.getKey(), e.getValue(), method);
+				}
+			});
+		}
+		install(tasks);
+	}
+
+	/**
+	 * Runs the given tasks in parallel and puts all resulting pairs into the keychain
+	 * under a single lock, so that the cut set is only rebuilt once.
+	 */
+	private void install(Map<String, Callable<KeyNoncePair>> tasks) {
+		List<String> aliases = new ArrayList<String>(tasks.keySet());
+		List<Callable<KeyNoncePair>> callables = new ArrayList<Callable<KeyNoncePair>>(aliases.size());
+		for(String c: aliases) {
+			callables.add(tasks.get(c));
+		}
+		List<Future<KeyNoncePair>> results = ForkJoinPool.commonPool().invokeAll(callables);
+
+		HashMap<String, KeyNoncePair> pairs = new HashMap<String, KeyNoncePair>();
+		for(int i = 0; i < aliases.size(); i++) {
+			try {
+				KeyNoncePair knp = results.get(i).get();
+				if(knp != null) {
+					pairs.put(aliases.get(i), knp);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				System.err.println("[KeyHandler] Severe: Failed to set up the key for station " + aliases.get(i) + ": " + e.getCause());
+			}
+		}
+
+		synchronized(keychain) {
+			keychain.putAll(pairs);
+			numKeys = keychain.size();
+			keychainVersion++;
+		}
+		Debugger.println("keys", "[KeyHandler] Added " + pairs.size() + " keys to the keychain of station " + alias + ".");
+	}
+
+	private byte[] deriveKey(String foreignAlias) {
+		String baseString = symmetricConcat(alias, foreignAlias);
+		return hu.get().digest(baseString.getBytes());
+	}
+
+	/**
+	 * Sets up the keystream of a key.
+	 * @return The new KeyNoncePair, or null if the key is invalid or the keystream is not available
+	 */
+	private KeyNoncePair createPair(String c, byte[] key, KeystreamMethod method) {
 		if(key.length != KEY_SIZE) {
 			System.err.println("[KeyHandler] Severe: The provided key has length " + key.length + " but it has to be of length " + KEY_SIZE + ".");
-		} else {
-			Debugger.println("keys", "[KeyHandler] Adding key " + Arrays.toString(key) + " for station " + c + " to keychain.");
-			synchronized(keychain) {
-				KeyNoncePair knp = new KeyNoncePair(key);
-				keychain.put(c, knp);
-				numKeys++;
-			}			
+			return null;
+		}
+		Debugger.println("keys", "[KeyHandler] Adding key " + Arrays.toString(key) + " for station " + c + " to keychain.");
+		try {
+			return new KeyNoncePair(method.getProvider().getKeystream(key));
+		} catch(IllegalStateException e) {
+			System.err.println("[KeyHandler] Severe: " + e.getMessage());
+			return null;
 		}
 	}
 	
 	public void removeKey(String c) {
 		synchronized(keychain) {
-			keychain.remove(c);
-			numKeys--;
+			if(keychain.remove(c) != null) {
+				numKeys--;
+			}
+			keychainVersion++;
 		}
 	}
 	
-	public byte[] getOutput(int length, Collection<String> members) {
-		Collection<String> cutSet = getCutSet(members);
-		return nextKeyMix(length, cutSet);		
+	/**
+	 * Returns the key mix of a round.
+	 * @param round  The number of the round
+	 * @param length The desired length of the key mix
+	 * @param net    The network whose members determine which keys are used
+	 */
+	public byte[] getOutput(int round, int length, Network net) {
+		CutSet cs = getCutSet(net);
+		long position = position(net.getEpoch(round), round);
+		byte[] keyMix = takePreparedMix(position, length, cs);
+		if(keyMix != null) {
+			mixCount.incrementAndGet();
+			for(KeyNoncePair knp: cs.pairs) {
+				knp.advance(position);
+			}
+			return keyMix;
+		}
+		return nextKeyMix(position, length, cs.pairs);
 	}
-	
-	public byte[] getOutput(byte[] scheduling, byte[] message, Collection<String> members) {
-		int length = scheduling.length + message.length;
-		Collection<String> cutSet = getCutSet(members);
-		byte[] output = new byte[length];
-		byte[] currentKeyMix = nextKeyMix(length, cutSet);
-		for(int i = 0; i < scheduling.length; i++) {
-			output[i] = (byte) (scheduling[i] ^ currentKeyMix[i]);
+
+	/**
+	 * Starts computing the key mix of an upcoming round in the background, so that
+	 * a following call to {@code getOutput(round, length, net)} only needs to wait
+	 * for the result. The prepared key mix is discarded if the network or the keychain
+	 * change, or if any other key mix is computed in the meantime.
+	 * @param round  The number of the upcoming round
+	 * @param length The length of the key mix
+	 * @param net    The network whose members determine which keys are used
+	 */
+	public void prepareOutput(int round, final int length, Network net) {
+		final CutSet cs = getCutSet(net);
+		final long position = position(net.getEpoch(round), round);
+		Future<byte[]> future = precomputer.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				byte[] keyMix = new byte[length];
+				mix(keyMix, cs.pairs, 0, cs.pairs.length, position, false);
+				return keyMix;
+			}
+		});
+		synchronized(this) {
+			preparedMix = new PreparedMix(position, length, cs, mixCount.get(), future);
 		}
-		for(int i = 0; i < message.length; i++) {
-			// TODO: recurring key. issue?
-			output[i + scheduling.length] = (byte) (message[i] ^ currentKeyMix[i % currentKeyMix.length]);
+	}
+
+	/**
+	 * Returns the prepared key mix, if it matches the given position and has not become invalid.
+	 * @return The prepared key mix or null.
+	 */
+	private byte[] takePreparedMix(long position, int length, CutSet cs) {
+		PreparedMix pm;
+		synchronized(this) {
+			pm = preparedMix;
+			preparedMix = null;
 		}
+		if(pm == null || pm.position != position || pm.length != length || pm.cutSet != cs || pm.mixCount != mixCount.get()) {
+			return null;
+		}
+		try {
+			return pm.keyMix.get();
+		} catch(InterruptedException e) {
+			return null;
+		} catch(ExecutionException e) {
+			Debugger.println(1, "[KeyHandler] Preparing a key mix failed: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the output of a station for a round, that is the schedule and the message,
+	 * combined with the key mix of that round.
+	 * @param round      The number of the round
+	 * @param scheduling The schedule to be sent
+	 * @param message    The message to be sent
+	 * @param net        The network whose members determine which keys are used
+	 */
+	public byte[] getOutput(int round, byte[] scheduling, byte[] message, Network net) {
+		int length = scheduling.length + message.length;
+		// The key mix is not used anywhere else, so the output is built in place.
+		byte[] output = nextKeyMix(position(net.getEpoch(round), round), length, getCutSet(net).pairs);
+		XorUtil.xor(output, 0, scheduling, 0, scheduling.length);
+		XorUtil.xor(output, scheduling.length, message, 0, message.length);
 		return output;
 	}
 
 	/**
-	 * Returns the next key mix, given the set of aliases that should be used.
-	 * @param length The desired length of the key
-	 * @param members The set of aliases that will determine which keys will be used.
-	 * @return  A byte array that contains the combined keys of all aliases that were found in {@code members}.
+	 * Returns the key mix of a round, given the keys that should be used.
+	 * @param position The position of the round in the keystreams, see {@code position}
+	 * @param length   The desired length of the key
+	 * @param pairs    The keys of the cut set
+	 * @return  A byte array that contains the combined keys of all {@code pairs}.
 	 */
-	private byte[] nextKeyMix(int length, Collection<String> members) {
-		byte[] keyMix = new byte[length];
-		synchronized(keychain) {
-			for(String alias: members) {
-				KeyNoncePair knp = keychain.get(alias);
-				knp.encrypt(keyMix);
-			}	
+	private byte[] nextKeyMix(long position, int length, KeyNoncePair[] pairs) {
+		byte[] keyMix;
+		mixCount.incrementAndGet();
+		if(pairs.length < parallelThreshold) {
+			keyMix = new byte[length];
+			mix(keyMix, pairs, 0, pairs.length, position, true);
+		} else {
+			keyMix = ForkJoinPool.commonPool().invoke(new KeyMixTask(pairs, 0, pairs.length, position, length));
 		}
 		Debugger.println("keys", "[KeyHandler] Station "+ alias+ " has keyMix: " + Arrays.toString(keyMix));
 		return keyMix;
 	}
 
-	public boolean approved(Collection<String> networkMembers) {
-		Collection<String> cutSet = getCutSet(networkMembers);
-		return cutSet.size() >= DCConfig.MIN_NUM_KEYS;
+	/**
+	 * XORs the keystream of a round of {@code pairs[from]} to {@code pairs[to - 1]} into {@code keyMix}.
+	 * Keystream that was generated ahead of time is used as it is. The salsa20 keystreams
+	 * of the remaining pairs are computed together in lanes, all others one by one.
+	 * Large key mixes are computed in chunks of {@code MIX_CHUNK} bytes, all keys at a time.
+	 * @param keyMix  The accumulator
+	 * @param pairs   The keys of the cut set
+	 * @param from    The index of the first pair
+	 * @param to      The index after the last pair
+	 * @param position The position of the round in the keystreams
+	 * @param advance  Whether the pairs are advanced to {@code position}
+	 */
+	private static void mix(byte[] keyMix, KeyNoncePair[] pairs, int from, int to, long position, boolean advance) {
+		int epoch = epochOf(position);
+		int round = roundOf(position);
+		Salsa20Provider.Salsa20Keystream[] lanes = null;
+		int[] epochs = null;
+		int count = 0;
+		KeystreamProvider.Keystream[] others = null;
+		int otherCount = 0;
+		for(int i = from; i < to; i++) {
+			KeyNoncePair knp = pairs[i];
+			if(knp.peekPrecomputed(keyMix, position)) {
+				continue;
+			}
+			if(knp.keystream instanceof Salsa20Provider.Salsa20Keystream) {
+				if(lanes == null) {
+					lanes = new Salsa20Provider.Salsa20Keystream[to - i];
+					epochs = new int[to - i];
+					Arrays.fill(epochs, epoch);
+				}
+				lanes[count] = (Salsa20Provider.Salsa20Keystream) knp.keystream;
+				count++;
+			} else {
+				if(others == null) {
+					others = new KeystreamProvider.Keystream[to - i];
+				}
+				others[otherCount] = knp.keystream;
+				otherCount++;
+			}
+		}
+		for(int offset = 0; offset < keyMix.length && count + otherCount > 0; offset += MIX_CHUNK) {
+			int length = Math.min(MIX_CHUNK, keyMix.length - offset);
+			if(count > 0) {
+				Salsa20Provider.xor(lanes, epochs, count, keyMix, offset, length, round, offset);
+			}
+			for(int i = 0; i < otherCount; i++) {
+				others[i].xor(keyMix, offset, length, epoch, round, offset);
+			}
+		}
+		if(advance) {
+			for(int i = from; i < to; i++) {
+				pairs[i].advance(position);
+			}
+		}
+	}
+
+	public boolean approved(Network net) {
+		return getCutSet(net).approved;
 	}
 
 	/**
-	 * Draws a subset from the passed set that contains all
-	 * entries of the passed set that are known by this 
-	 * KeyHandler.
-	 * @param  networkMembers The collection of members on this network
-	 * @return                The cut-set of {@code networkMembers} with {@code keychain.keySet()}.
+	 * Returns the cut-set of the members of {@code net} with {@code keychain.keySet()}.
+	 * The cut-set is cached and only rebuilt if the network or the keychain changed.
+	 * @param  net The network that this station is part of
+	 * @return     The cut-set of the network members with the keychain.
 	 */
-	private Collection<String> getCutSet(Collection<String> networkMembers) {
+	private CutSet getCutSet(Network net) {
+		CutSet cs = cutSet;
+		if(cs != null && cs.net == net && cs.networkVersion == net.getVersion() && cs.keychainVersion == keychainVersion) {
+			return cs;
+		}
+		// Take a snapshot of the network first, so that the network and
+		// the keychain are never locked at the same time.
+		int networkVersion;
+		Collection<String> networkMembers;
+		synchronized(net) {
+			networkVersion = net.getVersion();
+			networkMembers = net.getStations();
+		}
 		synchronized(keychain) {
-			ArrayList<String> cutSet = new ArrayList<String>();
+			ArrayList<KeyNoncePair> pairs = new ArrayList<KeyNoncePair>();
 			// networkMembers might be bigger than keychain.keySet()
 			// but lookups are faster in HashMaps than in Collections.
 			for(String s: networkMembers) {
-				if(keychain.containsKey(s)) {
-					cutSet.add(s);
+				KeyNoncePair knp = keychain.get(s);
+				if(knp != null) {
+					pairs.add(knp);
 				}
 			}
-			return cutSet;
+			cs = new CutSet(net, networkVersion, keychainVersion, pairs.toArray(new KeyNoncePair[pairs.size()]));
+			cutSet = cs;
+			return cs;
+		}
+	}
+
+	/**
+	 * A key mix that is computed ahead of time by {@code prepareOutput}, together
+	 * with the state under which it is valid.
+	 */
+	private static class PreparedMix {
+		// The position of the round in the keystreams
+		private final long position;
+		private final int length;
+		private final CutSet cutSet;
+		// The number of key mixes that were computed before this one was prepared
+		private final long mixCount;
+		private final Future<byte[]> keyMix;
+
+		public PreparedMix(long position, int length, CutSet cutSet, long mixCount, Future<byte[]> keyMix) {
+			this.position = position;
+			this.length = length;
+			this.cutSet = cutSet;
+			this.mixCount = mixCount;
+			this.keyMix = keyMix;
+		}
+	}
+
+	/**
+	 * An immutable snapshot of the keys that are shared with the current
+	 * members of a network.
+	 */
+	private static class CutSet {
+		private final Network net;
+		private final int networkVersion;
+		private final int keychainVersion;
+		private final KeyNoncePair[] pairs;
+		// Whether enough keys are shared to take part in the network
+		private final boolean approved;
+
+		public CutSet(Network net, int networkVersion, int keychainVersion, KeyNoncePair[] pairs) {
+			this.net = net;
+			this.networkVersion = networkVersion;
+			this.keychainVersion = keychainVersion;
+			this.pairs = pairs;
+			this.approved = pairs.length >= DCConfig.MIN_NUM_KEYS;
 		}
 	}
 
@@ -142,47 +497,202 @@ public class KeyHandler {
 		return s1 + s2;
 	}
 
-	private class KeyNoncePair {
-		private final byte[] key;
-		private final byte[] nonce;
+	/**
+	 * Computes the key mix of a list of keys by splitting the list in halves
+	 * until the parts are small enough to be mixed sequentially. Each part is mixed
+	 * into its own accumulator, and the accumulators are combined with XOR.
+	 */
+	private static class KeyMixTask extends RecursiveTask<byte[]> {
+		private static final long serialVersionUID = 1L;
 
-		public KeyNoncePair(byte[] key) {
-			byte[] nonce = new byte[NONCE_SIZE];
-			for(int i = 0; i < NONCE_SIZE; i++) {
-				nonce[i] = key[i];
+		// The number of keys that are mixed sequentially by a single task
+		private static final int BATCH_SIZE = 8;
+
+		private final KeyNoncePair[] pairs;
+		private final int from, to;
+		private final long position;
+		private final int length;
+
+		public KeyMixTask(KeyNoncePair[] pairs, int from, int to, long position, int length) {
+			this.pairs = pairs;
+			this.from = from;
+			this.to = to;
+			this.position = position;
+			this.length = length;
+		}
+
+		@Override
+		protected byte[] compute() {
+			if(to - from <= BATCH_SIZE) {
+				byte[] keyMix = new byte[length];
+				mix(keyMix, pairs, from, to, position, true);
+				return keyMix;
+			} else {
+				int half = (from + to) / 2;
+				KeyMixTask left = new KeyMixTask(pairs, from, half, position, length);
+				KeyMixTask right = new KeyMixTask(pairs, half, to, position, length);
+				left.fork();
+				byte[] keyMix = right.compute();
+				XorUtil.xor(keyMix, left.join());
+				return keyMix;
 			}
-			this.key = key;
-			this.nonce = nonce;
 		}
+	}
+
+	/**
+	 * Holds the keystream of one key, together with the position of the round
+	 * in which the key was used most recently.
+	 *
+	 * Keystream is addressed by epoch and round. The round is the round number of
+	 * the network, and the epoch is taken from the network as well, see
+	 * {@code Network.getEpoch}. All stations follow the epoch from the same round
+	 * results and status packages, so both stations of a key compute the same
+	 * position for a round, no matter in which rounds each of them used the key.
+	 */
+	private class KeyNoncePair implements Runnable {
+		// The keystream of the key that this pair belongs to
+		private final KeystreamProvider.Keystream keystream;
+
+		// The position of the most recent use of this key, or -1 if it was not used yet
+		private long lastPosition;
+
+		// Keystream of upcoming rounds that was generated ahead of time. Each slot
+		// holds the stream of the round at the same index in slotPositions, or is
+		// free if that position is -1. Slots are sized after the most recent round.
+		private final byte[][] slots;
+		// The number of bytes of keystream that the most recent round used
+		private int roundLength;
+		private final long[] slotPositions;
+		// Whether a refill of this pair is queued on the precomputer
+		private boolean refillScheduled;
 
-		public byte[] encrypt(byte[] input) {
-			int kl = key.length, il = input.length;
-			int iterations = il / kl;
-			if(il % kl > 0) iterations++;
-			for(int i = 0; i < iterations; i++) {
-				byte[] keystream = new byte[kl];
-				salsa20.crypto_stream(keystream, kl, nonce, 0, key);
-				int lim = (i+1) * kl;
-				// In the last iteration, the input length is our limit
-				if(lim > il) lim = il;
-				for(int n = i * kl; n < lim; n++) {
-					input[n] ^= keystream[n % kl];
+		public KeyNoncePair(KeystreamProvider.Keystream keystream) {
+			this.keystream = keystream;
+			this.lastPosition = -1;
+			this.roundLength = DCPackage.PAYLOAD_SIZE;
+			this.slots = new byte[DCConfig.PRECOMPUTED_ROUNDS][];
+			this.slotPositions = new long[DCConfig.PRECOMPUTED_ROUNDS];
+			Arrays.fill(slotPositions, -1);
+		}
+
+		/**
+		 * XORs the keystream of a round into {@code input} if it was generated ahead of time,
+		 * without advancing this pair.
+		 * @param input    The accumulator
+		 * @param position The position of the round
+		 * @return         Whether the keystream was XORed into {@code input}
+		 */
+		public synchronized boolean peekPrecomputed(byte[] input, long position) {
+			roundLength = input.length;
+			int slot = findSlot(position);
+			if(slot >= 0 && input.length <= slots[slot].length) {
+				XorUtil.xor(input, 0, slots[slot], 0, input.length);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Marks a round as used, so that keystream is generated ahead for the rounds after it.
+		 * @param position The position of the round
+		 */
+		public synchronized void advance(long position) {
+			lastPosition = position;
+			// Keystream up to this round will not be used anymore.
+			for(int i = 0; i < slotPositions.length; i++) {
+				if(slotPositions[i] <= position) {
+					slotPositions[i] = -1;
 				}
-				nextNonce();				
 			}
-			return input;
+			scheduleRefill();
 		}
 
-		private void nextNonce() {
-			for(int i = 0; i < NONCE_SIZE; i++) {
-				byte b = nonce[i];
-				if(b == Byte.MAX_VALUE) {
-					nonce[i] = Byte.MIN_VALUE;
-				} else {
-					nonce[i] = ++b;
-					return;
+		/**
+		 * Fills the slots with the keystream of the rounds that most likely follow
+		 * the most recent use of this key. This is executed by the precomputer.
+		 * The lock is released after every round so that a station that needs
+		 * keystream right now does not have to wait until all slots are full.
+		 * Rounds that are longer than {@code DCConfig.MAX_PRECOMPUTED_BYTES} are
+		 * not precomputed, since their keystream would not fit into the cache anyway.
+		 */
+		@Override
+		public void run() {
+			synchronized(this) {
+				refillScheduled = false;
+			}
+			for(int i = 0; i < slots.length; i++) {
+				synchronized(this) {
+					if(lastPosition == -1) return;
+					long position = lastPosition;
+					for(int n = 0; n <= i; n++) {
+						position = successor(position);
+					}
+					if(findSlot(position) >= 0) continue;
+					int slot = findSlot(-1);
+					if(slot < 0) return;
+					int length = blocks(roundLength) * KeystreamProvider.BLOCK_SIZE;
+					if(length > DCConfig.MAX_PRECOMPUTED_BYTES) return;
+					if(slots[slot] == null || slots[slot].length != length) {
+						slots[slot] = new byte[length];
+					} else {
+						Arrays.fill(slots[slot], (byte) 0);
+					}
+					keystream.xor(slots[slot], 0, slots[slot].length, epochOf(position), roundOf(position), 0);
+					slotPositions[slot] = position;
 				}
 			}
 		}
+
+		private synchronized void scheduleRefill() {
+			if(!refillScheduled && slots.length > 0) {
+				refillScheduled = true;
+				precomputer.execute(this);
+			}
+		}
+
+		/**
+		 * Returns the index of the slot that holds {@code position}, or -1 if there is none.
+		 */
+		private int findSlot(long position) {
+			for(int i = 0; i < slotPositions.length; i++) {
+				if(slotPositions[i] == position) return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the number of blocks of keystream that are needed to cover {@code length} bytes.
+		 */
+		private int blocks(int length) {
+			return (length + KeystreamProvider.BLOCK_SIZE - 1) / KeystreamProvider.BLOCK_SIZE;
+		}
+	}
+
+	/**
+	 * Combines epoch and round to a position that grows with every round.
+	 */
+	private static long position(int epoch, int round) {
+		return ((long) epoch << 32) | round;
+	}
+
+	private static int epochOf(long position) {
+		return (int) (position >>> 32);
+	}
+
+	private static int roundOf(long position) {
+		return (int) position;
+	}
+
+	/**
+	 * Returns the position of the round that follows the round at {@code position}
+	 * if no round starts over.
+	 */
+	private static long successor(long position) {
+		int round = roundOf(position) + 1;
+		if(round == DCPackage.getNumberRange()) {
+			return position(epochOf(position) + 1, 0);
+		} else {
+			return position(epochOf(position), round);
+		}
 	}
 }
@@ -2,6 +2,8 @@ package dc;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.LinkedList;
 
 import dc.DCPackage;
@@ -14,9 +16,9 @@ import cli.Debugger;
  */
 public class MessageBuffer extends OutputStream {
 		// The size of the payload in a package
-		private final int payloadSize;
+		private int payloadSize;
 		// The size of a message.
-		private final int messageSize;
+		private int messageSize;
 		// The message that was sent most recently but was not successfully delivered yet
 		private byte[] pendingMessage;
 		// A buffer that holds all unsent messages
@@ -81,6 +83,43 @@ public class MessageBuffer extends OutputStream {
 			writePointer = 0;
 		}
 
+		/**
+		 * Changes the size of the payload, e.g. because the network announced a different package size.
+		 * All messages that were not delivered yet are kept, in their order: a pending message
+		 * is sent again, and messages that are too long for the new size are split.
+		 * @param  payloadSize The new size of the payload in bytes
+		 */
+		public synchronized void setPayloadSize(int payloadSize) {
+			if(payloadSize == this.payloadSize) {
+				return;
+			}
+			LinkedList<byte[]> unsent = new LinkedList<byte[]>();
+			if(pendingMessage != null) {
+				unsent.add(Padding10.revert10padding(pendingMessage));
+				pendingMessage = null;
+			}
+			byte[] current = Arrays.copyOf(currentMessage, writePointer);
+			this.payloadSize = payloadSize;
+			this.messageSize = payloadSize - 1;
+			currentMessage = new byte[messageSize];
+			writePointer = 0;
+			synchronized(messageBuffer) {
+				unsent.addAll(messageBuffer);
+				messageBuffer.clear();
+				for(byte[] message: unsent) {
+					int i = 0;
+					do {
+						messageBuffer.add(Arrays.copyOfRange(message, i, Math.min(message.length, i + messageSize)));
+						i += messageSize;
+					} while(i < message.length);
+				}
+			}
+			// The message that is still being written stays open.
+			for(byte b: current) {
+				write(b);
+			}
+		}
+
 		/**
 		 * Returns the next message to be sent. This is either a pending message that was sent earlier but wasn't delivered succesfully (e.g. because of a collision), or the content of the current message, or the first message from the message buffer.
 		 * @return A byte array that holds the next message to be sent.
@@ -151,6 +190,13 @@ public class MessageBuffer extends OutputStream {
 		 * @param  message The outcome of the current round that is supposed to equal the pending message
 		 * @return         true if the given message equals the pending message, false otherwise.
 		 */
+		public boolean compareMessage(ByteBuffer message) {
+			if(pendingMessage == null) {
+				throw new IllegalStateException("There is no pending message to compare the given message with");
+			}
+			return ByteBuffer.wrap(pendingMessage).equals(message);
+		}
+
 		public boolean compareMessage(byte[] message) {
 			if(pendingMessage == null) {
 				throw new IllegalStateException("There is no pending message to compare the given message with");
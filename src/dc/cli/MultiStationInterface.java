@@ -8,27 +8,33 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import cli.ArgSet;
 import cli.CLC;
 import cli.Debugger;
 import net.Connection;
-import net.NetworkConnection;
+import net.NioConnection;
+import dc.DCConfig;
+import dc.DCConfig.KeystreamMethod;
+import dc.KeyFile;
 import dc.DCStation;
 import dc.DcServer;
 import dc.DcClient;
 import dc.testing.DummyChannel;
 import dc.testing.DummyConnection;
+import util.UnixSocketUtil;
 
 
 public class MultiStationInterface extends CLC {
 	private HashMap<String, DcServer> servers;
 	private HashMap<String, DcClient> clients;
 
-	private Action listAction, noSuchStationAction, create, createServer, createClient, connectLocal;
+	private Action listAction, noSuchStationAction, create, createServer, createClient, connectLocal, mesh, keyFile;
 
 	public MultiStationInterface() {
 		servers = new HashMap<String, DcServer>();
@@ -100,8 +106,15 @@ public class MultiStationInterface extends CLC {
 						DcServer s;
 						if(localFlag) {
 							s = new DcServer(alias);
+						} else if(isUnixArg(args)) {
+							args.pop();
+							if(!args.hasArg()) {
+								System.out.println("[MultiStationInterface] Please provide the path of the socket file.");
+								return;
+							}
+							s = new DcServer(alias, args.pop());
 						} else if(!args.hasIntArg()) {
-							System.out.println("[MultiStationInterface] Please provide a port number, or use \"-l\" or \"--local\" to start a local server.");
+							System.out.println("[MultiStationInterface] Please provide a port number, a socket file with \"-u\" or \"--unix\", or use \"-l\" or \"--local\" to start a local server.");
 							return;
 						} else {
 							int port = args.fetchInteger();
@@ -134,12 +147,66 @@ public class MultiStationInterface extends CLC {
 			}
 		};
 
+		mesh = new Action() {
+			@Override
+			public void execute(ArgSet args) {
+				ArrayList<DCStation> stations = new ArrayList<DCStation>();
+				ArrayList<String> aliases = new ArrayList<String>();
+				while(args.hasArg()) {
+					String alias = args.pop();
+					DCStation station = servers.containsKey(alias) ? servers.get(alias) : clients.get(alias);
+					if(station == null) {
+						System.out.println("[ERROR] There is no station called " + alias);
+						return;
+					}
+					stations.add(station);
+					aliases.add(alias);
+				}
+				if(stations.size() < 2) {
+					System.out.println("[ERROR] Please provide at least two stations that should share keys with each other.");
+					return;
+				}
+				long start = System.nanoTime();
+				for(DCStation station: stations) {
+					station.getKeyHandler().addKeys(aliases);
+				}
+				long duration = (System.nanoTime() - start) / 1000000;
+				System.out.println("[MultiStationInterface] Added " + stations.size() * (stations.size() - 1) + " keys in " + duration + " ms.");
+			}
+		};
+
+		keyFile = new Action() {
+			@Override
+			public void execute(ArgSet args) {
+				if(!args.hasArg()) {
+					System.out.println("[ERROR] Please provide the path of the key file, followed by the aliases of all stations of the network.");
+					return;
+				}
+				String path = args.pop();
+				ArrayList<String> roster = new ArrayList<String>();
+				while(args.hasArg()) {
+					roster.add(args.pop());
+				}
+				try {
+					OutputStream os = new FileOutputStream(new File(path));
+					KeyFile.write(os, roster);
+					os.close();
+					System.out.println("[MultiStationInterface] Wrote keys for " + roster.size() + " stations to file " + path);
+				} catch (IOException e) {
+					System.out.println("[MultiStationInterface] An error occured while writing to file " + path);
+				}
+			}
+		};
+
 		setRootAction(listAction);
 		setDefaultAction(noSuchStationAction);
 		mapCommand("list", listAction);
 		mapCommand("connect", connectLocal);
 		mapAbbreviation('c', connectLocal);
 		
+		mapCommand("mesh", mesh);
+		mapCommand("keyfile", keyFile);
+
 		mapCommand("make", create);
 		getContext("make").mapCommand("server", createServer);
 		getContext("make").mapCommand("client", createClient);
@@ -151,13 +218,17 @@ public class MultiStationInterface extends CLC {
 		Connection c1 = new DummyConnection(chA.getInputStream(), chB.getOutputStream(), station);
 		Connection c2 = new DummyConnection(chB.getInputStream(), chA.getOutputStream(), server);
 		station.setConnection(c1);
-		server.getCB().addConnection(c2);
+		server.addConnection(c2);
 	}
 	
 	private void connect(String url, int port, DCStation station) {
 		try {
-			Socket s = new Socket(url, port);
-			NetworkConnection nc = new NetworkConnection(s, station);
+			InetSocketAddress address = new InetSocketAddress(url, port);
+			if(address.isUnresolved()) {
+				throw new UnknownHostException(url);
+			}
+			SocketChannel s = SocketChannel.open(address);
+			Connection nc = DCConfig.transportMethod.getConnection(s, station);
 			station.setConnection(nc);
 		} catch (UnknownHostException e) {
 			System.out.println("Connection to host failed: The host with the address " + url + ":" + port + " was not found.");
@@ -167,6 +238,27 @@ public class MultiStationInterface extends CLC {
 		}
 	}
 
+	/**
+	 * Connects a station to a server on the same host through a Unix domain socket.
+	 * @param path The path of the socket file of the server
+	 */
+	private void connectUnix(String path, DCStation station) {
+		try {
+			SocketChannel s = UnixSocketUtil.connect(path);
+			Connection nc = new NioConnection(s, station);
+			station.setConnection(nc);
+		} catch (IOException e) {
+			System.out.println("Connection to host failed: Unable to connect to " + path + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return Whether the next argument is "-u" or "--unix", without consuming it.
+	 */
+	private static boolean isUnixArg(ArgSet args) {
+		return args.hasAbbArg() && args.peek().equals("-u") || args.hasOptionArg() && args.peek().equals("--unix");
+	}
+
 	private DCStation getStation(ArgSet args) {
 		if(!args.hasArg()) return null; 
 
@@ -297,7 +389,7 @@ public class MultiStationInterface extends CLC {
 	private class StationInterface extends CLC {
 		private final DCStation station;
 				
-		private Action close, connect, connectLocal, state;
+		private Action close, connect, connectLocal, state, queues, size;
 		
 		public StationInterface(DCStation s) {		
 			this.station = s;
@@ -322,6 +414,15 @@ public class MultiStationInterface extends CLC {
 			connect = new Action() {
 				@Override
 				public void execute(ArgSet args) {
+					if(isUnixArg(args)) {
+						args.pop();
+						if(!args.hasArg()) {
+							System.out.println("[ERROR] Please provide the path of the socket file of the server you want to connect to");
+						} else {
+							connectUnix(args.pop(), station);
+						}
+						return;
+					}
 					if(args.hasAbbArg() && args.fetchAbbr() == 'l' || args.hasOptionArg() && args.fetchOption().equals("local")) {
 						connectLocal.execute(args);
 						return;
@@ -376,9 +477,41 @@ public class MultiStationInterface extends CLC {
 				}
 			};
 			
+			queues = new Action() {
+				@Override
+				public void execute(ArgSet args) {
+					if(!(station instanceof DcServer)) {
+						System.out.println("[ERROR] Only servers keep send queues for their connections.");
+					} else {
+						((DcServer) station).getCB().printQueues(System.out);
+					}
+				}
+			};
+			
 			mapCommand("close", close);
 			mapCommand("connect", connect);
 			mapCommand("state", state);
+			size = new Action() {
+				@Override
+				public void execute(ArgSet args) {
+					if(!(station instanceof DcServer)) {
+						System.out.println("[ERROR] Only servers announce the package size.");
+					} else if(!args.hasIntArg()) {
+						System.out.println("[MultiStationInterface] Packages of server " + station.getAlias() + " have " + ((DcServer) station).getPackageSize() + " bytes.");
+					} else {
+						try {
+							((DcServer) station).setPackageSize(args.fetchInteger());
+						} catch(IllegalStateException e) {
+							System.out.println("[ERROR] " + e.getMessage());
+						} catch(IllegalArgumentException e) {
+							System.out.println("[ERROR] " + e.getMessage());
+						}
+					}
+				}
+			};
+			
+			mapCommand("queues", queues);
+			mapCommand("size", size);
 
 			mapCommand("keys", new CommandAction(new KeyHandlerInterface(station)));
 	
@@ -392,7 +525,7 @@ public class MultiStationInterface extends CLC {
 	}
 
 	private class KeyHandlerInterface extends CLC {
-		private Action addAction;
+		private Action addAction, cipherAction, loadAction;
 		private DCStation station;
 		public KeyHandlerInterface(DCStation s) {
 			this.station = s;
@@ -425,7 +558,53 @@ public class MultiStationInterface extends CLC {
 				}
 			};
 
+			cipherAction = new Action() {
+				@Override
+				public void execute(ArgSet args) {
+					if(!args.hasArg()) {
+						System.out.println("[MultiStationInterface] Station " + station.getAlias() + " uses " + station.getKeyHandler().getKeystreamMethod().getProvider().getName() + " for new keys.");
+						return;
+					}
+					String name = args.pop();
+					KeystreamMethod method = KeystreamMethod.forName(name);
+					if(method == null) {
+						StringBuilder sb = new StringBuilder();
+						for(KeystreamMethod m: KeystreamMethod.values()) {
+							sb.append(" " + m.getProvider().getName());
+						}
+						System.out.println("[ERROR] There is no keystream provider called " + name + ". Available providers:" + sb.toString());
+					} else {
+						// Both stations that share a key have to agree on the provider, just like on the key itself.
+						station.getKeyHandler().setKeystreamMethod(method);
+					}
+				}
+			};
+
+			loadAction = new Action() {
+				@Override
+				public void execute(ArgSet args) {
+					if(!args.hasArg()) {
+						System.out.println("[ERROR] Please provide the path of a key file.");
+						return;
+					}
+					String path = args.pop();
+					try {
+						InputStream is = new FileInputStream(new File(path));
+						HashMap<String, byte[]> keys = KeyFile.read(is, station.getAlias());
+						is.close();
+						station.getKeyHandler().addKeys(keys);
+						System.out.println("[MultiStationInterface] Loaded " + keys.size() + " key(s) for station " + station.getAlias() + " from file " + path);
+					} catch (FileNotFoundException e) {
+						System.out.println("[MultiStationInterface] The file at " + path + " was not found. Please provide a valid path to an existing file.");
+					} catch (IOException e) {
+						System.out.println("[MultiStationInterface] An error occured while reading from file " + path + ": " + e.getMessage());
+					}
+				}
+			};
+
 			mapCommand("add", addAction);
+			mapCommand("cipher", cipherAction);
+			mapCommand("load", loadAction);
 		}
 	}
 
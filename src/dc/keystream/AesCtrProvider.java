@@ -0,0 +1,39 @@
+package dc.keystream;
+
+import java.nio.ByteBuffer;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Produces keystream with AES in counter mode, as provided by the JCA.
+ * On CPUs with AES instructions the JVM uses them for this cipher.
+ * The initial counter block consists of the epoch, the round and the
+ * index of the first AES block of the offset.
+ */
+public class AesCtrProvider extends CipherProvider {
+	private static final int IV_SIZE = 16;
+	private static final int AES_BLOCK_SIZE = 16;
+
+	@Override
+	public String getName() {
+		return "aes-ctr";
+	}
+
+	@Override
+	protected String getTransformation() {
+		return "AES/CTR/NoPadding";
+	}
+
+	@Override
+	protected String getKeyAlgorithm() {
+		return "AES";
+	}
+
+	@Override
+	protected AlgorithmParameterSpec getParameters(byte[] key, int epoch, int round, int streamOffset) {
+		ByteBuffer iv = ByteBuffer.allocate(IV_SIZE);
+		iv.putInt(epoch).putInt(round).putLong(streamOffset / AES_BLOCK_SIZE);
+		return new IvParameterSpec(iv.array());
+	}
+}
@@ -0,0 +1,38 @@
+package dc.keystream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.spec.ChaCha20ParameterSpec;
+
+/**
+ * Produces keystream with the ChaCha20 implementation of the JDK.
+ * The nonce consists of the first four bytes of the key, the epoch and the round.
+ * The offset selects the block counter.
+ */
+public class ChaCha20Provider extends CipherProvider {
+	private static final int NONCE_SIZE = 12;
+
+	@Override
+	public String getName() {
+		return "chacha20";
+	}
+
+	@Override
+	protected String getTransformation() {
+		return "ChaCha20";
+	}
+
+	@Override
+	protected String getKeyAlgorithm() {
+		return "ChaCha20";
+	}
+
+	@Override
+	protected AlgorithmParameterSpec getParameters(byte[] key, int epoch, int round, int streamOffset) {
+		ByteBuffer nonce = ByteBuffer.allocate(NONCE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		nonce.put(key, 0, 4).putInt(epoch).putInt(round);
+		return new ChaCha20ParameterSpec(nonce.array(), streamOffset / BLOCK_SIZE);
+	}
+}
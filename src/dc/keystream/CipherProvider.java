@@ -0,0 +1,81 @@
+package dc.keystream;
+
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Base class for providers that produce keystream with a stream cipher
+ * of the Java Cryptography Architecture. The keystream is XORed into the
+ * accumulator by running the cipher over the accumulator in place.
+ */
+public abstract class CipherProvider implements KeystreamProvider {
+
+	/**
+	 * Returns the transformation that is passed to {@code Cipher.getInstance}.
+	 */
+	protected abstract String getTransformation();
+
+	/**
+	 * Returns the algorithm name of the key.
+	 */
+	protected abstract String getKeyAlgorithm();
+
+	/**
+	 * Returns the parameters that select the stream of a round and the position within that stream.
+	 * @param key          The shared key
+	 * @param epoch        The epoch of the round
+	 * @param round        The number of the round within its epoch
+	 * @param streamOffset The position within the stream, a multiple of {@code BLOCK_SIZE}
+	 */
+	protected abstract AlgorithmParameterSpec getParameters(byte[] key, int epoch, int round, int streamOffset);
+
+	@Override
+	public Keystream getKeystream(final byte[] key) {
+		final Cipher cipher;
+		final SecretKeySpec keySpec = new SecretKeySpec(key, getKeyAlgorithm());
+		try {
+			cipher = Cipher.getInstance(getTransformation());
+			// Fail early if the key does not suit the cipher
+			cipher.init(Cipher.DECRYPT_MODE, keySpec, getParameters(key, 0, 0, 0));
+		} catch(GeneralSecurityException e) {
+			throw new IllegalStateException("The keystream provider " + getName() + " is not available: " + e.getMessage());
+		}
+		return new Keystream() {
+			// The epoch and round that the cipher was initialised with most recently
+			private int lastEpoch = 0, lastRound = 0;
+			// The position in the stream of that round that the cipher continues at, or -1 if it has to be initialised
+			private long position = 0;
+
+			@Override
+			public void xor(byte[] c, int offset, int length, int epoch, int round, int streamOffset) {
+				synchronized(cipher) {
+					try {
+						// The slices of a round are usually requested one after the other,
+						// in which case the cipher simply continues where it stopped.
+						if(epoch != lastEpoch || round != lastRound || streamOffset != position) {
+							// Some ciphers, like the ChaCha20 implementation of the JDK, refuse to be
+							// initialised twice in a row with the same key and nonce. That happens
+							// when the stream of a round is computed a second time, so the cipher
+							// is moved to a different stream first.
+							if(epoch == lastEpoch && round == lastRound) {
+								cipher.init(Cipher.DECRYPT_MODE, keySpec, getParameters(key, ~epoch, round, 0));
+							}
+							cipher.init(Cipher.DECRYPT_MODE, keySpec, getParameters(key, epoch, round, streamOffset));
+							lastEpoch = epoch;
+							lastRound = round;
+						}
+						// If the update fails, the position of the cipher is unknown.
+						position = -1;
+						cipher.update(c, offset, length, c, offset);
+						position = (long) streamOffset + length;
+					} catch(GeneralSecurityException e) {
+						throw new IllegalStateException("The cipher " + getName() + " failed to produce keystream: " + e.getMessage());
+					}
+				}
+			}
+		};
+	}
+}
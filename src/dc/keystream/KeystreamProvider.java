@@ -0,0 +1,45 @@
+package dc.keystream;
+
+/**
+ * A KeystreamProvider creates the keystreams that a KeyHandler mixes into
+ * the output of a station. Two stations that share a key have to use the
+ * same provider for that key, otherwise their keystreams do not cancel out.
+ */
+public interface KeystreamProvider {
+	/**
+	 * The granularity in which keystream is addressed, in bytes.
+	 */
+	public static final int BLOCK_SIZE = 64;
+
+	/**
+	 * Returns the name that identifies this provider, e.g. on the command line.
+	 */
+	public String getName();
+
+	/**
+	 * Creates the keystream for a shared key.
+	 * @param  key The shared key
+	 * @return     The keystream of {@code key}
+	 */
+	public Keystream getKeystream(byte[] key);
+
+	/**
+	 * The keystream of one key. It is not consumed sequentially; instead every
+	 * position is addressed directly by epoch, round and offset. Each pair of
+	 * epoch and round selects an independent stream, so rounds can be computed
+	 * in any order, ahead of time, or several times.
+	 */
+	public interface Keystream {
+		/**
+		 * XORs keystream into {@code c}.
+		 * Implementations should not allocate memory in this method if they can avoid it, since it is called every round.
+		 * @param c            The accumulator that the keystream is XORed into
+		 * @param offset       The index of the first byte in {@code c}
+		 * @param length       The number of bytes to XOR
+		 * @param epoch        The epoch of the round
+		 * @param round        The number of the round within its epoch
+		 * @param streamOffset The position within the stream of the round. Must be a multiple of {@code BLOCK_SIZE}.
+		 */
+		public void xor(byte[] c, int offset, int length, int epoch, int round, int streamOffset);
+	}
+}
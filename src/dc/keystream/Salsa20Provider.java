@@ -0,0 +1,58 @@
+package dc.keystream;
+
+import com.neilalexander.jnacl.crypto.salsa20;
+
+/**
+ * Produces keystream with the bundled pure-Java salsa20 implementation.
+ * Epoch and round form the nonce, and the offset selects the block counter.
+ */
+public class Salsa20Provider implements KeystreamProvider {
+
+	@Override
+	public String getName() {
+		return "salsa20";
+	}
+
+	@Override
+	public Keystream getKeystream(byte[] key) {
+		return new Salsa20Keystream(key);
+	}
+
+	/**
+	 * XORs the keystreams of several keys for the same round into one accumulator.
+	 * The keys are processed in groups of {@code salsa20.LANES}, which is faster
+	 * than calling {@code xor} on each keystream.
+	 * @param keystreams   The keystreams to be combined
+	 * @param epochs       The epoch of the round for each keystream, at the same indices as {@code keystreams}
+	 * @param count        The number of keystreams to be combined
+	 * @param c            The accumulator that the keystream is XORed into
+	 * @param offset       The index of the first byte in {@code c}
+	 * @param length       The number of bytes to XOR
+	 * @param round        The number of the round within its epoch
+	 * @param streamOffset The position within the stream of the round. Must be a multiple of {@code BLOCK_SIZE}.
+	 */
+	public static void xor(Salsa20Keystream[] keystreams, int[] epochs, int count, byte[] c, int offset, int length, int round, int streamOffset) {
+		int[][] states = new int[count][];
+		for(int i = 0; i < count; i++) {
+			states[i] = keystreams[i].state;
+		}
+		for(int i = 0; i < count; i += salsa20.LANES) {
+			salsa20.stream_xor_lanes(c, offset, length, states, epochs, i, Math.min(salsa20.LANES, count - i), round, streamOffset / BLOCK_SIZE);
+		}
+	}
+
+	public static class Salsa20Keystream implements Keystream {
+		// Only key and constants of the state are used; the nonce is passed on every call.
+		private final int[] state;
+
+		private Salsa20Keystream(byte[] key) {
+			state = new int[salsa20.STATE_WORDS];
+			salsa20.stream_setup(state, new byte[8], 0, key);
+		}
+
+		@Override
+		public void xor(byte[] c, int offset, int length, int epoch, int round, int streamOffset) {
+			salsa20.stream_xor(c, offset, length, state, epoch, round, streamOffset / BLOCK_SIZE);
+		}
+	}
+}
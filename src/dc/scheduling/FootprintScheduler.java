@@ -20,6 +20,10 @@ public class FootprintScheduler implements Scheduler {
 	private final int numRounds;
 	// The current footprint that is used to identify the slot that we reserved
 	private final byte[] footprints = new byte[numSlots];
+	// The footprints and desired slots that were sent in each round, indexed by the number of the round.
+	// The result of a round arrives after later rounds were sent, so it is compared with these.
+	private final byte[][] sentFootprints;
+	private final boolean[][] sentSlots;
 	
 	// The likelihood that we withdraw our reservation attempt if we encounter a collision
 	// default is 0.7
@@ -46,6 +50,8 @@ public class FootprintScheduler implements Scheduler {
 		desiredSlots = new boolean[numSlots];
 		Arrays.fill(desiredSlots, true);
 		chosenSlots = new boolean[numSlots];
+		sentFootprints = new byte[numRounds][];
+		sentSlots = new boolean[numRounds][];
 		random = new Random();
 		refreshFootprints();
 	}
@@ -75,9 +81,16 @@ public class FootprintScheduler implements Scheduler {
 		}
 
 		byte[] schedule = p.getSchedule(getScheduleSize());
+		int round = p.getNumber();
+		byte[] sent = sentFootprints[round];
+		boolean[] sentDesired = sentSlots[round];
+		sentFootprints[round] = null;
+		sentSlots[round] = null;
 		for (int i = 0; i < numSlots; i++) {
 			if(!desiredSlots[i]) continue;
-			boolean hasCollision = hasCollision(schedule, i);
+			// We can only tell whether there was a collision if we tried to reserve this slot in that round.
+			if(sent == null || !sentDesired[i]) continue;
+			boolean hasCollision = hasCollision(schedule, i, sent[i]);
 			refreshFootprint(i);
 			if(p.getNumber() == numRounds -1) {
 				// This is the last round of this schedule.
@@ -142,7 +155,9 @@ public class FootprintScheduler implements Scheduler {
 	}
 
 	@Override
-	public byte[] getSchedule() {
+	public byte[] getSchedule(int round) {
+		sentFootprints[round] = footprints.clone();
+		sentSlots[round] = desiredSlots.clone();
 		byte[] schedule = new byte[getScheduleSize()];
 		for (int i = 0; i < numSlots; i++) {
 			if(desiredSlots[i]) {
@@ -184,14 +199,15 @@ public class FootprintScheduler implements Scheduler {
 
 	/**
 	 * Checks if the given schedule contains scheduling collisions.
-	 * In order to check that, we compare the desired slot with the current
-	 * footprint.
-	 * @param  schedule The schedule that is checked for collisions
-	 * @return          False if we do not want to reserve a slot, or if the desired slot only contains our current footprint.
+	 * In order to check that, we compare the desired slot with the
+	 * footprint that we sent in that round.
+	 * @param  schedule  The schedule that is checked for collisions
+	 * @param  footprint The footprint that we sent for this slot
+	 * @return           False if the desired slot only contains our footprint.
 	 */
-	private boolean hasCollision(byte[] schedule, int slot) {
+	private boolean hasCollision(byte[] schedule, int slot, byte footprint) {
 		int content = extractSlot(schedule, slot);
-		return content != footprints[slot];
+		return content != footprint;
 	}
 
 	/**
@@ -32,7 +32,7 @@ public class PrimitiveScheduler implements Scheduler {
 	}
 
 	@Override
-	public byte[] getSchedule() {
+	public byte[] getSchedule(int round) {
 		return new byte[]{};
 	}
 
@@ -18,9 +18,12 @@ public interface Scheduler {
 
 	/**
 	 * Returns the next scheduling block. This function has to return the same output until {@code addPackage} is called.
+	 * Several rounds may be in progress at once, so the result of a round that is passed to {@code addPackage}
+	 * has to be compared with the block that was sent in that round, rather than with the current one.
+	 * @param  round The number of the round in which the block is sent
 	 * @return a byte array holding the scheduling block that has to be sent 
 	 */
-	public byte[] getSchedule();
+	public byte[] getSchedule(int round);
 
 	/**
 	 * Returns the index of the next round that is scheduled by this Scheduler, or -1 if there is no round scheduled currently.
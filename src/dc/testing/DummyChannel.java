@@ -1,37 +1,58 @@
 package dc.testing;
 
-import java.util.LinkedList;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Queue;
-import java.util.concurrent.Semaphore;
-
-import cli.Debugger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A channel that uses InputStream and OutputStream to forward data.
+ * A channel that uses InputStream and OutputStream to forward data between two threads of the same process.
+ *
+ * The data is kept in a ring buffer without any locks. The channel has a single writer and a
+ * single reader: the writer only ever moves {@code tail}, the reader only ever moves {@code head}.
+ * Whole frames are copied in bulk. The reader is parked only if the buffer is empty, and the
+ * writer only if it is full.
  * @author Moritz Neikes
  */
 public class DummyChannel {
-	private final Semaphore dataSemaphore;
-	private final Queue<Integer> dataQueue;
-	private static final int QUEUE_BUFFER_LIMIT = 1 << ((Integer.SIZE >> 1) - 2);
-	
+	// The default capacity of the buffer, in bytes. It holds several packages of the default size.
+	private static final int DEFAULT_CAPACITY = 1 << 14;
+
+	private final byte[] buffer;
+	// capacity - 1, to map positions to indices
+	private final int mask;
+
+	// The number of bytes that were read and written so far. Only the reader moves head,
+	// and only the writer moves tail; both are read by the other side.
+	private volatile long head = 0;
+	private volatile long tail = 0;
+
+	// The reader or writer, while it is parked
+	private volatile Thread parkedReader;
+	private volatile Thread parkedWriter;
+
 	private final InputStream is;
 	private final OutputStream os;
 
 	public DummyChannel() {
-		dataSemaphore = new Semaphore(0);
-		dataQueue = new LinkedList<Integer>();
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The size of the buffer in bytes. It is rounded up to a power of two.
+	 */
+	public DummyChannel(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		buffer = new byte[size];
+		mask = size - 1;
 		is = new DummyInputStream();
-		os = new DummyOutputStream();	
+		os = new DummyOutputStream();
 	}
 
 	public InputStream getInputStream() {
 		return is;
 	}
-	
+
 	public OutputStream getOutputStream() {
 		return os;
 	}
@@ -40,30 +61,124 @@ public class DummyChannel {
 
 		@Override
 		public void write(int b) throws IOException {
-			// Debugger.println(2, "[DummyConnection] writing " + (char)b);
-			if(dataSemaphore.availablePermits() > QUEUE_BUFFER_LIMIT) {
-				throw new IOException("Buffer size limit reached!");
-			} else {
-				synchronized(dataQueue) {
-					dataQueue.add(b);
-					dataSemaphore.release();
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		/**
+		 * Copies as much of {@code b} as fits into the buffer at a time,
+		 * and waits for the reader whenever the buffer is full.
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long t = tail;
+			while(len > 0) {
+				int free = buffer.length - (int) (t - head);
+				if(free == 0) {
+					awaitSpace(t);
+					continue;
+				}
+				int n = Math.min(len, free);
+				int index = (int) t & mask;
+				int first = Math.min(n, buffer.length - index);
+				System.arraycopy(b, off, buffer, index, first);
+				System.arraycopy(b, off + first, buffer, 0, n - first);
+				off += n;
+				len -= n;
+				t += n;
+				// Publishes the bytes to the reader
+				tail = t;
+				Thread reader = parkedReader;
+				if(reader != null) {
+					LockSupport.unpark(reader);
 				}
 			}
 		}
-		
+
 	}
-	
+
 	private class DummyInputStream extends InputStream {
 
 		@Override
 		public int read() throws IOException {
-			dataSemaphore.acquireUninterruptibly();
-			synchronized(dataQueue) {
-				// Debugger.println(2, "[DummyConnection] reading " + (char) (dataQueue.peek().intValue()) );
-				return dataQueue.poll();
+			byte[] b = new byte[1];
+			read(b, 0, 1);
+			return b[0] & 0xFF;
+		}
+
+		/**
+		 * Blocks until at least one byte is available, and then reads
+		 * as many of the available bytes as fit into {@code b}.
+		 */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) return 0;
+			long h = head;
+			int available = (int) (tail - h);
+			if(available == 0) {
+				available = awaitData(h);
+			}
+			int n = Math.min(len, available);
+			int index = (int) h & mask;
+			int first = Math.min(n, buffer.length - index);
+			System.arraycopy(buffer, index, b, off, first);
+			System.arraycopy(buffer, 0, b, off + first, n - first);
+			// Hands the space back to the writer
+			head = h + n;
+			Thread writer = parkedWriter;
+			if(writer != null) {
+				LockSupport.unpark(writer);
+			}
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return (int) (tail - head);
+		}
+
+	}
+
+	/**
+	 * Parks the reader until the writer has moved {@code tail} past {@code h}.
+	 * Like a semaphore that is acquired uninterruptibly, an interrupt does not end
+	 * the wait, but is kept for the caller.
+	 * @return The number of bytes that are available
+	 */
+	private int awaitData(long h) {
+		boolean interrupted = false;
+		int available;
+		// The reader announces itself before it checks again, and the writer publishes tail
+		// before it checks for a parked reader, so one of them always sees the other.
+		parkedReader = Thread.currentThread();
+		while((available = (int) (tail - h)) == 0) {
+			LockSupport.park(this);
+			if(Thread.interrupted()) {
+				interrupted = true;
+			}
+		}
+		parkedReader = null;
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return available;
+	}
+
+	/**
+	 * Parks the writer until the reader has freed some of the buffer.
+	 */
+	private void awaitSpace(long t) {
+		boolean interrupted = false;
+		parkedWriter = Thread.currentThread();
+		while(t - head == buffer.length) {
+			LockSupport.park(this);
+			if(Thread.interrupted()) {
+				interrupted = true;
 			}
 		}
-		
+		parkedWriter = null;
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-import net.Connection;
+import net.StreamConnection;
 import net.PackageListener;
 
 /**
@@ -12,7 +12,7 @@ import net.PackageListener;
  * @author moritz
  *
  */
-public class DummyConnection extends Connection {
+public class DummyConnection extends StreamConnection {
 	
 	public DummyConnection(InputStream is, OutputStream os, PackageListener listener) {
 		super(is, os, listener);
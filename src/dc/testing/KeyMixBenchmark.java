@@ -0,0 +1,63 @@
+package dc.testing;
+
+import dc.DCPackage;
+import dc.KeyHandler;
+import net.Network;
+
+/**
+ * A micro benchmark that compares sequential and parallel key mixing
+ * for different numbers of keys.
+ * Usage: {@code java -cp bin/ dc.testing.KeyMixBenchmark [rounds] [keys...]}
+ */
+public class KeyMixBenchmark {
+	private static final int DEFAULT_ROUNDS = 200;
+	private static final int[] DEFAULT_KEYS = {16, 64, 256, 512};
+
+	public static void main(String... args) {
+		int rounds = DEFAULT_ROUNDS;
+		int[] keyCounts = DEFAULT_KEYS;
+		if(args.length > 0) {
+			rounds = Integer.parseInt(args[0]);
+		}
+		if(args.length > 1) {
+			keyCounts = new int[args.length - 1];
+			for(int i = 1; i < args.length; i++) {
+				keyCounts[i-1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("keys\tsequential (ms/round)\tparallel (ms/round)");
+		for(int keys: keyCounts) {
+			double sequential = measure(keys, rounds, Integer.MAX_VALUE);
+			double parallel = measure(keys, rounds, 1);
+			System.out.println(keys + "\t" + String.format("%.3f", sequential) + "\t\t\t" + String.format("%.3f", parallel));
+		}
+	}
+
+	/**
+	 * Measures the average time that is needed to compute the output of one round.
+	 * @param  keys      The number of keys that the station shares with other stations
+	 * @param  rounds    The number of rounds to be measured
+	 * @param  threshold The parallel threshold of the KeyHandler
+	 * @return           The average time per round in milliseconds
+	 */
+	private static double measure(int keys, int rounds, int threshold) {
+		KeyHandler kh = new KeyHandler("bench");
+		kh.setParallelThreshold(threshold);
+		Network members = new Network();
+		for(int i = 0; i < keys; i++) {
+			String alias = "s" + i;
+			kh.addKey(alias);
+			members.addStation(alias);
+		}
+		// Warm up
+		for(int i = 0; i < rounds; i++) {
+			kh.getOutput(i % DCPackage.getNumberRange(), DCPackage.PAYLOAD_SIZE, members);
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < rounds; i++) {
+			kh.getOutput(i % DCPackage.getNumberRange(), DCPackage.PAYLOAD_SIZE, members);
+		}
+		return (System.nanoTime() - start) / 1e6 / rounds;
+	}
+}
@@ -0,0 +1,111 @@
+package dc.testing;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+import dc.DCConfig.KeystreamMethod;
+import dc.DCPackage;
+import dc.keystream.KeystreamProvider;
+import dc.keystream.Salsa20Provider;
+
+/**
+ * A micro benchmark that measures the throughput of all keystream providers.
+ * It is run on startup if {@code DCConfig.BENCHMARK_KEYSTREAMS} is set, and can
+ * be run on its own with {@code java -cp bin/ dc.testing.KeystreamBenchmark [millis]}
+ */
+public class KeystreamBenchmark {
+	// The time that each provider is measured, in milliseconds
+	private static final long DEFAULT_DURATION = 100;
+	// The number of keys that are combined when salsa20 lanes are measured
+	private static final int LANE_KEYS = 16;
+
+	public static void main(String... args) {
+		long duration = DEFAULT_DURATION;
+		if(args.length > 0) {
+			duration = Long.parseLong(args[0]);
+		}
+		report(System.out, duration);
+	}
+
+	/**
+	 * Measures each keystream provider and prints its throughput.
+	 * Short durations, like the one used on startup, mostly measure code that the JIT
+	 * did not compile yet. The JCA ciphers need a second or so before they reach their speed.
+	 * @param out      The stream that the results are printed to
+	 * @param duration The time that each provider is measured, in milliseconds
+	 */
+	public static void report(PrintStream out, long duration) {
+		for(KeystreamMethod m: KeystreamMethod.values()) {
+			KeystreamProvider provider = m.getProvider();
+			try {
+				double throughput = measure(provider, duration);
+				out.println("[KeystreamBenchmark] " + provider.getName() + ": " + String.format("%.1f", throughput) + " MB/s");
+			} catch(IllegalStateException e) {
+				out.println("[KeystreamBenchmark] " + provider.getName() + ": unavailable (" + e.getMessage() + ")");
+			}
+		}
+		out.println("[KeystreamBenchmark] salsa20 (" + LANE_KEYS + " keys in lanes): " + String.format("%.1f", measureLanes(duration)) + " MB/s");
+	}
+
+	/**
+	 * Measures the throughput of a provider for rounds of the current payload size.
+	 * The first half of {@code duration} is used to warm up.
+	 * @return The throughput in megabytes per second
+	 */
+	private static double measure(KeystreamProvider provider, long duration) {
+		byte[] key = new byte[32];
+		new Random().nextBytes(key);
+		KeystreamProvider.Keystream keystream = provider.getKeystream(key);
+		byte[] round = new byte[DCPackage.PAYLOAD_SIZE];
+
+		int rounds = 0;
+		long warmupEnd = System.nanoTime() + duration * 500000L;
+		while(System.nanoTime() < warmupEnd) {
+			keystream.xor(round, 0, round.length, 0, rounds++, 0);
+		}
+
+		rounds = 0;
+		long start = System.nanoTime();
+		long end = start + duration * 500000L;
+		long now;
+		do {
+			keystream.xor(round, 0, round.length, 1, rounds++, 0);
+			now = System.nanoTime();
+		} while(now < end);
+		return (double) rounds * round.length / ((now - start) / 1e9) / 1e6;
+	}
+
+	/**
+	 * Measures the throughput of salsa20 when the keystreams of several keys are
+	 * combined in lanes, like they are in a key mix.
+	 * @return The throughput in megabytes per second, counting the keystream of every key
+	 */
+	private static double measureLanes(long duration) {
+		Random r = new Random();
+		Salsa20Provider provider = new Salsa20Provider();
+		Salsa20Provider.Salsa20Keystream[] keystreams = new Salsa20Provider.Salsa20Keystream[LANE_KEYS];
+		for(int i = 0; i < LANE_KEYS; i++) {
+			byte[] key = new byte[32];
+			r.nextBytes(key);
+			keystreams[i] = (Salsa20Provider.Salsa20Keystream) provider.getKeystream(key);
+		}
+		int[] epochs = new int[LANE_KEYS];
+		byte[] round = new byte[DCPackage.PAYLOAD_SIZE];
+
+		int rounds = 0;
+		long warmupEnd = System.nanoTime() + duration * 500000L;
+		while(System.nanoTime() < warmupEnd) {
+			Salsa20Provider.xor(keystreams, epochs, LANE_KEYS, round, 0, round.length, rounds++, 0);
+		}
+
+		rounds = 0;
+		long start = System.nanoTime();
+		long end = start + duration * 500000L;
+		long now;
+		do {
+			Salsa20Provider.xor(keystreams, epochs, LANE_KEYS, round, 0, round.length, rounds++, 0);
+			now = System.nanoTime();
+		} while(now < end);
+		return (double) rounds * LANE_KEYS * round.length / ((now - start) / 1e9) / 1e6;
+	}
+}
@@ -0,0 +1,119 @@
+package dc.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+
+import dc.DCConfig.ThreadingMethod;
+import dc.DCPackage;
+
+/**
+ * A benchmark that compares platform threads and virtual threads for many
+ * simulated stations. Every station blocks on a stream of its own, like the
+ * reader of a StreamConnection, until a package of the current round arrives,
+ * and then reports back through a Semaphore, like the ConnectionBundle does.
+ * Usage: {@code java -cp bin/ dc.testing.ThreadingBenchmark [rounds] [stations...]}
+ */
+public class ThreadingBenchmark {
+	private static final int DEFAULT_ROUNDS = 20;
+	private static final int[] DEFAULT_STATIONS = {1000, 10000};
+
+	public static void main(String... args) {
+		int rounds = DEFAULT_ROUNDS;
+		int[] stationCounts = DEFAULT_STATIONS;
+		if(args.length > 0) {
+			rounds = Integer.parseInt(args[0]);
+		}
+		if(args.length > 1) {
+			stationCounts = new int[args.length - 1];
+			for(int i = 1; i < args.length; i++) {
+				stationCounts[i-1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("stations\tthreads\t\tstartup (ms)\tround (ms)");
+		for(int stations: stationCounts) {
+			for(ThreadingMethod method: ThreadingMethod.values()) {
+				String result;
+				try {
+					result = measure(method, stations, rounds);
+				} catch(OutOfMemoryError e) {
+					result = "out of memory";
+				} catch(IOException e) {
+					result = "failed: " + e.getMessage();
+				}
+				System.out.println(stations + "\t\t" + method.name().toLowerCase() + "\t" + result);
+			}
+		}
+	}
+
+	/**
+	 * Starts the given number of stations, runs the given number of rounds and
+	 * waits for all stations to finish.
+	 * @return The time to start all stations and the average time per round
+	 */
+	private static String measure(ThreadingMethod method, int stations, int rounds) throws IOException {
+		Semaphore received = new Semaphore(0);
+		OutputStream[] outputs = new OutputStream[stations];
+		Thread[] threads = new Thread[stations];
+
+		long start = System.nanoTime();
+		for(int i = 0; i < stations; i++) {
+			// One package per round is in flight, so a small buffer per station is enough.
+			DummyChannel channel = new DummyChannel(2 * DCPackage.PACKAGE_SIZE);
+			outputs[i] = channel.getOutputStream();
+			threads[i] = method.newThread(new Station(channel.getInputStream(), received, rounds), "Station " + i);
+			threads[i].start();
+		}
+		double startup = (System.nanoTime() - start) / 1e6;
+
+		start = System.nanoTime();
+		for(int round = 0; round < rounds; round++) {
+			DCPackage p = new DCPackage(round % DCPackage.getNumberRange(), new byte[DCPackage.PAYLOAD_SIZE]);
+			byte[] data = p.toByteArray();
+			p.release();
+			for(OutputStream os: outputs) {
+				os.write(data);
+			}
+			received.acquireUninterruptibly(stations);
+		}
+		double perRound = (System.nanoTime() - start) / 1e6 / rounds;
+
+		for(Thread t: threads) {
+			try {
+				t.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return String.format("%.1f", startup) + "\t\t" + String.format("%.3f", perRound);
+	}
+
+	/**
+	 * Reads one package per round and reports that it was received.
+	 */
+	private static class Station implements Runnable {
+		private final InputStream is;
+		private final Semaphore received;
+		private final int rounds;
+
+		public Station(InputStream is, Semaphore received, int rounds) {
+			this.is = is;
+			this.received = received;
+			this.rounds = rounds;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for(int i = 0; i < rounds; i++) {
+					DCPackage.getPackage(is).release();
+					received.release();
+				}
+			} catch(IOException e) {
+				System.err.println("[ThreadingBenchmark] A station failed: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -1,126 +1,600 @@
 package net;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import cli.Debugger;
+import dc.DCChunk;
 import dc.DCConfig;
 import dc.DCPackage;
-import dc.testing.DummyConnection;
 
+/**
+ * A connection between two stations. Incoming packages are passed on to a
+ * PackageListener; packages that arrive before a listener is set are buffered.
+ *
+ * Every package on the wire is preceded by a type byte: 1 for a DCPackage,
+ * 2 for a DCPackage in its compact encoding and 0 for a NetStatPackage.
+ * The size of a DCPackage is the size that was most recently announced
+ * with a PackageSize on this connection, in either direction.
+ * A station that wants to receive compact packages says so with a frame of
+ * type 3, followed by a byte of flags. Packages are only sent in the compact
+ * encoding if the peer asked for it, and if the encoding is considerably shorter,
+ * which is the case for rounds in which little or nothing was sent.
+ * Subclasses implement the actual transport.
+ *
+ * A server with a MulticastGroup offers it to stations that accept multicast
+ * (type 4). Stations that joined the group (type 5) are told from which sequence
+ * number on they receive round results from the group (type 6). They ask for
+ * missing round results with a NACK (type 7), and the server repairs them over
+ * the connection (type 8).
+ *
+ * Stations send a heartbeat (type 9) whenever they did not send anything else
+ * for a while, so that their server notices if a station hangs without closing
+ * its connection.
+ *
+ * A server forwards the chunks of a round to the server above it (type 10) as
+ * soon as all of its stations contributed to them, see {@code DCChunk}.
+ *
+ * Outgoing frames wait in a bounded queue until the transport has written them.
+ * If a peer does not keep up, {@code DCConfig.slowConsumerPolicy} decides whether
+ * the sender waits, the connection is dropped, or older packages are replaced.
+ */
 public abstract class Connection {
-	private final InputStream is;
-	private final OutputStream os;
+	protected static final byte DC_PACKAGE = 1;
+	protected static final byte STATUS_PACKAGE = 0;
+	protected static final byte COMPACT_PACKAGE = 2;
+	protected static final byte CAPABILITIES = 3;
+	protected static final byte MULTICAST_OFFER = 4;
+	protected static final byte MULTICAST_JOINED = 5;
+	protected static final byte MULTICAST_START = 6;
+	protected static final byte NACK = 7;
+	protected static final byte REPAIR = 8;
+	protected static final byte HEARTBEAT = 9;
+	protected static final byte DC_CHUNK = 10;
 
-	private boolean isClosed = false;
+	// Flags of a capabilities frame
+	private static final byte ACCEPTS_COMPACT = 1;
+	private static final byte ACCEPTS_MULTICAST = 2;
 
 	private PackageListener listener;
-	
+	// Guards the listener and the buffers. Listeners may block while they handle
+	// a package, so this is not a monitor: a virtual thread that blocks while
+	// it holds a monitor also blocks the platform thread that carries it.
+	private final ReentrantLock listenerLock;
+
 	private LinkedList<NetStatPackage> statusBuffer;
 	private LinkedList<DCPackage> messageBuffer;
-	
-	public Connection(InputStream is, OutputStream os) {
-		this(is, os, null);
-	}
-	
-	public Connection(InputStream is, OutputStream os, PackageListener listener) {
-		this.is = is;
-		this.os = os;
+	private LinkedList<DCChunk> chunkBuffer;
+
+	protected final SendQueue sendQueue;
+	private final AtomicBoolean isLost;
+
+	private volatile boolean peerAcceptsCompact = false;
+	private volatile boolean peerAcceptsMulticast = false;
+
+	// The group that round results are sent to, on the side of the server
+	private volatile MulticastGroup group;
+	// Receives round results from the group of the server, on the side of the station
+	private volatile MulticastReceiver receiver;
+
+	// The times in milliseconds at which something was last received from, and queued for, the peer
+	private volatile long lastReceived;
+	private volatile long lastSent;
+
+	// The size of the packages on this connection. It changes with every
+	// PackageSize that is sent or received, so the packages that follow
+	// such an announcement are read and written in the new size.
+	protected volatile int packageSize = DCConfig.PACKAGE_SIZE;
+
+	public Connection(PackageListener listener) {
 		this.listener = listener;
+		listenerLock = new ReentrantLock();
 		statusBuffer = new LinkedList<NetStatPackage>();
 		messageBuffer = new LinkedList<DCPackage>();
-
-		(new Thread(new InputReader())).start();
+		chunkBuffer = new LinkedList<DCChunk>();
+		sendQueue = new SendQueue(DCConfig.SEND_QUEUE_LIMIT, DCConfig.slowConsumerPolicy);
+		isLost = new AtomicBoolean(false);
+		lastReceived = lastSent = System.currentTimeMillis();
 	}
-	
+
 	public void setListener(PackageListener listener) {
-		this.listener = listener;
-		// This does not work well: the two separate
-		// lists do not preserve the order in which 
-		// messages arrive.
-		while(!statusBuffer.isEmpty()) {
-			listener.addInput(statusBuffer.pop());
+		listenerLock.lock();
+		try {
+			this.listener = listener;
+			// This does not work well: the two separate
+			// lists do not preserve the order in which
+			// messages arrive.
+			while(!statusBuffer.isEmpty()) {
+				listener.addInput(statusBuffer.pop());
+			}
+			while(!messageBuffer.isEmpty()) {
+				listener.addInput(messageBuffer.pop());
+			}
+			while(!chunkBuffer.isEmpty()) {
+				listener.addInput(chunkBuffer.pop());
+			}
+		} finally {
+			listenerLock.unlock();
+		}
+	}
+
+	/**
+	 * Sends a package without copying it. The package may be released as soon as this method returns.
+	 */
+	public void send(DCPackage p) throws IOException {
+		if(p.getSize() != packageSize) {
+			// This package was prepared before the size of the network changed.
+			Debugger.println("network", "[Connection] Dropping a package of " + p.getSize() + " bytes, since packages on " + this + " have " + packageSize + " bytes.");
+			return;
+		}
+		if(peerAcceptsCompact) {
+			ByteBuffer compact = p.getCompactFrame(COMPACT_PACKAGE);
+			if(compact != null) {
+				send(Frame.of(compact, p));
+				return;
+			}
+		}
+		send(Frame.of(p));
+	}
+
+	/**
+	 * Sends a run of chunks of a round.
+	 */
+	public void send(DCChunk chunk) throws IOException {
+		int payloadSize = packageSize - DCPackage.HEADER_SIZE;
+		int index = chunk.getIndex();
+		int count = chunk.getChunkCount();
+		if(!DCChunk.fits(index, count, payloadSize) || chunk.getLength() != DCChunk.getLength(index, count, payloadSize)) {
+			// This chunk was prepared before the size of the network changed.
+			Debugger.println("network", "[Connection] Dropping a chunk of " + chunk.getLength() + " bytes, since packages on " + this + " have " + packageSize + " bytes.");
+			return;
+		}
+		byte[] content = chunk.toByteArray();
+		byte[] frame = new byte[1 + content.length];
+		frame[0] = DC_CHUNK;
+		System.arraycopy(content, 0, frame, 1, content.length);
+		send(Frame.of(frame));
+	}
+
+	public void send(NetStatPackage p) throws IOException {
+		if(p instanceof NetStatPackage.PackageSize) {
+			packageSize = ((NetStatPackage.PackageSize) p).getSize();
+		}
+		send(Frame.of(frame(p)));
+	}
+
+	/**
+	 * Tells the peer how this station would like to receive packages: in the compact
+	 * encoding whenever that is shorter, and from a multicast group if the peer has one.
+	 */
+	public void announceCapabilities() throws IOException {
+		byte flags = 0;
+		if(DCConfig.COMPACT_FRAMES) {
+			flags |= ACCEPTS_COMPACT;
+		}
+		if(DCConfig.MULTICAST_RECEIVE) {
+			flags |= ACCEPTS_MULTICAST;
+		}
+		send(Frame.of(new byte[]{CAPABILITIES, flags}));
+	}
+
+	/**
+	 * Lets the station on this end of the connection tell its server that it is still there,
+	 * by sending a heartbeat whenever it was quiet for {@code DCConfig.HEARTBEAT_INTERVAL}.
+	 */
+	public void startHeartbeat() {
+		if(!sendQueue.isClosed()) {
+			Heartbeat.register(this);
+		}
+	}
+
+	/**
+	 * Sends a heartbeat if nothing was sent for {@code DCConfig.HEARTBEAT_INTERVAL}.
+	 * Nothing is sent while frames are queued, since those are proof enough.
+	 * @param now The current time in milliseconds
+	 */
+	void heartbeat(long now) {
+		if(now - lastSent < DCConfig.HEARTBEAT_INTERVAL || !sendQueue.isEmpty()) {
+			return;
+		}
+		try {
+			send(Frame.of(new byte[]{HEARTBEAT}));
+		} catch(IOException e) {
+			Debugger.println("network", "[Connection] Unable to send a heartbeat on " + this + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Takes note that something arrived from the peer. Called by the transport for every read.
+	 */
+	protected void heard() {
+		lastReceived = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return The time in milliseconds at which something last arrived from the peer.
+	 */
+	public long getLastReceived() {
+		return lastReceived;
+	}
+
+	/**
+	 * Sets the group that round results are sent to. The group is offered to
+	 * the peer once it said that it accepts multicast.
+	 */
+	public void setMulticastGroup(MulticastGroup group) throws IOException {
+		this.group = group;
+		if(peerAcceptsMulticast) {
+			group.offer(this);
+		}
+	}
+
+	void sendMulticastStart(int seq) throws IOException {
+		send(Frame.of(sequenceFrame(MULTICAST_START, seq)));
+	}
+
+	void sendNack(int seq) throws IOException {
+		send(Frame.of(sequenceFrame(NACK, seq)));
+	}
+
+	/**
+	 * Resends a round result that a station missed.
+	 */
+	void sendRepair(int seq, DCPackage p) throws IOException {
+		if(p.getSize() != packageSize) {
+			sendLost(seq);
+			return;
+		}
+		byte[] frame = new byte[1 + 4 + 1 + p.getSize()];
+		ByteBuffer.wrap(frame).put(REPAIR).putInt(seq).put((byte) 1).put(p.toByteArray());
+		send(Frame.of(frame));
+	}
+
+	/**
+	 * Tells a station that the round results up to and including {@code seq} can not be repaired.
+	 */
+	void sendLost(int seq) throws IOException {
+		byte[] frame = new byte[1 + 4 + 1];
+		ByteBuffer.wrap(frame).put(REPAIR).putInt(seq).put((byte) 0);
+		send(Frame.of(frame));
+	}
+
+	private static byte[] sequenceFrame(byte type, int seq) {
+		byte[] frame = new byte[1 + 4];
+		ByteBuffer.wrap(frame).put(type).putInt(seq);
+		return frame;
+	}
+
+	/**
+	 * Hands a frame over to the transport.
+	 */
+	protected abstract void send(Frame frame) throws IOException;
+
+	public abstract void close() throws IOException;
+
+	/**
+	 * @return The number of frames that wait to be written right now.
+	 */
+	public int getQueuedFrames() {
+		return sendQueue.size();
+	}
+
+	/**
+	 * @return The largest number of frames that waited to be written at once.
+	 */
+	public int getPeakQueuedFrames() {
+		return sendQueue.peak();
+	}
+
+	/**
+	 * @return The number of frames that were dropped because the peer did not keep up.
+	 */
+	public long getDroppedFrames() {
+		return sendQueue.dropped();
+	}
+
+	/**
+	 * Adds a frame to the send queue. If the queue is full and the connection has
+	 * to be given up, the connection is closed and the listener is informed.
+	 * @param mayBlock Whether the caller may wait for space in the queue
+	 * @throws IOException If the connection is closed, or was closed because of this frame.
+	 */
+	protected void queue(Frame frame, boolean mayBlock) throws IOException {
+		if(sendQueue.isClosed()) {
+			frame.written();
+			throw new IOException("The connection is closed.");
+		}
+		lastSent = System.currentTimeMillis();
+		if(!sendQueue.offer(frame, mayBlock)) {
+			String message = "The peer did not keep up with the output of this connection.";
+			try {
+				close();
+			} finally {
+				lost(message);
+			}
+			throw new IOException(message);
+		}
+	}
+
+	/**
+	 * Passes a package that was received on to the listener.
+	 * This is synchronized with {@code setListener}, so that no package is
+	 * buffered after the buffers were handed to the new listener.
+	 */
+	protected void deliver(DCPackage dp) {
+		listenerLock.lock();
+		try {
+			if(listener == null) {
+				messageBuffer.add(dp);
+			} else {
+				listener.addInput(dp);
+			}
+		} finally {
+			listenerLock.unlock();
 		}
-		while(!messageBuffer.isEmpty()) {
-			listener.addInput(messageBuffer.pop());
+	}
+
+	/**
+	 * Passes a chunk that was received on to the listener.
+	 */
+	protected void deliver(DCChunk chunk) {
+		listenerLock.lock();
+		try {
+			if(listener == null) {
+				chunkBuffer.add(chunk);
+			} else {
+				listener.addInput(chunk);
+			}
+		} finally {
+			listenerLock.unlock();
 		}
 	}
 
-	private class InputReader implements Runnable {
-		@Override
-		public void run() {
+	/**
+	 * Passes a package that was received on to the listener.
+	 */
+	protected void deliver(NetStatPackage nsp) {
+		if(nsp instanceof NetStatPackage.PackageSize) {
+			packageSize = ((NetStatPackage.PackageSize) nsp).getSize();
+		}
+		listenerLock.lock();
+		try {
+			if(listener == null) {
+				statusBuffer.add(nsp);
+			} else {
+				listener.addInput(nsp);
+			}
+		} finally {
+			listenerLock.unlock();
+		}
+	}
+
+	/**
+	 * Takes note of the capabilities that the peer announced.
+	 */
+	protected void negotiate(byte flags) {
+		peerAcceptsCompact = DCConfig.COMPACT_FRAMES && (flags & ACCEPTS_COMPACT) != 0;
+		peerAcceptsMulticast = (flags & ACCEPTS_MULTICAST) != 0;
+		Debugger.println("network", "[Connection] " + this + (peerAcceptsCompact ? " receives" : " does not receive") + " compact packages.");
+		MulticastGroup g = group;
+		if(peerAcceptsMulticast && g != null) {
 			try {
-				while(!isClosed) {
-					byte type = (byte) is.read();
-					if(type == 1) {
-						DCPackage dp = receiveDCPackage();
-						if(listener == null) {
-							messageBuffer.add(dp);
-						} else {
-							listener.addInput(dp);							
-						}
-					} else {
-						NetStatPackage nsp = receiveStatusPackage();
-						if(listener == null) {
-							statusBuffer.add(nsp);
-						} else {
-							listener.addInput(nsp);							
-						}
-					}
+				g.offer(this);
+			} catch(IOException e) {
+				Debugger.println(1, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Handles a frame that belongs to the multicast downstream, without its type byte.
+	 */
+	protected void handleMulticast(byte type, InputStream is) throws IOException {
+		byte[] header = new byte[4];
+		readFully(is, header);
+		int value = ByteBuffer.wrap(header).getInt();
+		if(type == MULTICAST_OFFER) {
+			byte[] port = new byte[2];
+			readFully(is, port);
+			byte[] address = new byte[readByte(is) & 0xFF];
+			readFully(is, address);
+			joinMulticast(value, InetAddress.getByAddress(address), ByteBuffer.wrap(port).getShort() & 0xFFFF);
+		} else if(type == MULTICAST_JOINED) {
+			MulticastGroup g = group;
+			if(g != null && g.getSession() == value) {
+				g.join(this);
+			}
+		} else if(type == MULTICAST_START) {
+			MulticastReceiver r = receiver;
+			if(r != null) {
+				r.start(value);
+			}
+		} else if(type == NACK) {
+			MulticastGroup g = group;
+			if(g != null) {
+				g.repair(this, value);
+			}
+		} else if(type == REPAIR) {
+			boolean present = readByte(is) != 0;
+			MulticastReceiver r = receiver;
+			if(present) {
+				DCPackage p = DCPackage.getPackage(is, packageSize);
+				if(r != null) {
+					r.received(value, p);
+				} else {
+					p.release();
 				}
-			} catch (IOException e) {
-				listener.connectionLost(e.getMessage());
+			} else if(r != null) {
+				r.lost(value);
+			}
+		}
+	}
+
+	/**
+	 * Joins the multicast group that the peer offered. If that fails, round results keep arriving over this connection.
+	 */
+	private void joinMulticast(int session, InetAddress address, int port) {
+		if(!DCConfig.MULTICAST_RECEIVE || receiver != null) {
+			return;
+		}
+		try {
+			receiver = new MulticastReceiver(this, session, address, port);
+			send(Frame.of(sequenceFrame(MULTICAST_JOINED, session)));
+		} catch(IOException e) {
+			System.out.println("[Connection] Unable to join multicast group " + address + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the length of a multicast frame at {@code start}, including its type byte,
+	 * or -1 if not enough of the frame is available to tell.
+	 */
+	protected int multicastFrameLength(ByteBuffer buffer, int start) {
+		byte type = buffer.get(start);
+		if(type == MULTICAST_OFFER) {
+			int lengthIndex = start + 1 + 4 + 2;
+			return lengthIndex < buffer.limit() ? lengthIndex - start + 1 + (buffer.get(lengthIndex) & 0xFF) : -1;
+		} else if(type == REPAIR) {
+			int presentIndex = start + 1 + 4;
+			if(presentIndex >= buffer.limit()) {
+				return -1;
 			}
+			return 1 + 4 + 1 + (buffer.get(presentIndex) != 0 ? packageSize : 0);
+		} else {
+			return 1 + 4;
 		}
-		
 	}
 
+	/**
+	 * @return Whether {@code type} is the type of a frame that belongs to the multicast downstream.
+	 */
+	protected static boolean isMulticastFrame(byte type) {
+		return type >= MULTICAST_OFFER && type <= REPAIR;
+	}
+
+	/**
+	 * Stops sending heartbeats and leaves the multicast group. Called when the connection is closed or lost.
+	 */
+	protected void detach() {
+		Heartbeat.unregister(this);
+		leaveMulticast();
+	}
 
-	public void send(DCPackage p) throws IOException {
-		synchronized(os) {
-			os.write((byte) 1);
-			os.write(p.toByteArray());
+	/**
+	 * Stops receiving from and sending to a multicast group.
+	 */
+	private void leaveMulticast() {
+		MulticastReceiver r = receiver;
+		receiver = null;
+		if(r != null) {
+			r.close();
+		}
+		MulticastGroup g = group;
+		if(g != null) {
+			g.leave(this);
 		}
 	}
 
-	public void send(NetStatPackage p) throws IOException {
-		synchronized(os) {
-			os.write((byte) 0);
-			os.write(p.toByteArray());
+	/**
+	 * Informs the listener that this connection does not work anymore.
+	 * Only the first call has an effect.
+	 */
+	protected void lost(String message) {
+		if(isLost.compareAndSet(false, true)) {
+			detach();
+			if(listener != null) {
+				listener.connectionLost(message);
+			}
 		}
 	}
-	
-	private DCPackage receiveDCPackage() throws IOException {
-		byte[] buffer = new byte[DCPackage.PACKAGE_SIZE];
-		for(int i = 0; i < DCPackage.PACKAGE_SIZE; i++) {
-			buffer[i] = (byte) is.read();
+
+	/**
+	 * Returns a package together with its type byte, as it is sent on the wire.
+	 */
+	protected static byte[] frame(NetStatPackage p) {
+		byte[] content = p.toByteArray();
+		byte[] frame = new byte[1 + content.length];
+		frame[0] = STATUS_PACKAGE;
+		System.arraycopy(content, 0, frame, 1, content.length);
+		return frame;
+	}
+
+	/**
+	 * Reads a DCPackage of the current package size, without its type byte.
+	 */
+	protected DCPackage readDCPackage(InputStream is) throws IOException {
+		return DCPackage.getPackage(is, packageSize);
+	}
+
+	/**
+	 * Reads a chunk of the current package size, without its type byte.
+	 */
+	protected DCChunk readChunk(InputStream is) throws IOException {
+		return DCChunk.getChunk(is, packageSize);
+	}
+
+	/**
+	 * Returns the length of a chunk frame at {@code start}, including its type byte,
+	 * or -1 if not enough of the frame is available to tell.
+	 */
+	protected int chunkFrameLength(ByteBuffer buffer, int start) {
+		int headerEnd = start + 1 + DCChunk.HEADER_SIZE;
+		if(headerEnd > buffer.limit()) {
+			return -1;
+		}
+		int index = ((buffer.get(headerEnd - 4) & 0xFF) << 8) | (buffer.get(headerEnd - 3) & 0xFF);
+		int count = ((buffer.get(headerEnd - 2) & 0xFF) << 8) | (buffer.get(headerEnd - 1) & 0xFF);
+		int payloadSize = packageSize - DCPackage.HEADER_SIZE;
+		if(!DCChunk.fits(index, count, payloadSize)) {
+			throw new InputMismatchException("The chunks " + index + " to " + (index + count - 1) + " exceed a package of " + packageSize + " bytes.");
 		}
-		return DCPackage.getPackage(buffer);
-		// String s = Arrays.toString(buffer);
-		// Debugger.println(2, "[Connection] reading " + s);
-		// return DCPackage.getMessages(s)[0];
+		return 1 + DCChunk.HEADER_SIZE + DCChunk.getLength(index, count, payloadSize);
 	}
 
-	
-	private NetStatPackage receiveStatusPackage() throws IOException {
-		byte header = (byte) is.read();
+	/**
+	 * Reads a NetStatPackage, without its type byte.
+	 */
+	protected static NetStatPackage readStatusPackage(InputStream is) throws IOException {
+		byte header = readByte(is);
 		if((header & (1 << 7)) != 0) {
 			return parseSnapshot(header, is);
+		} else if((header & (1 << 1)) != 0) {
+			byte[] size = new byte[4];
+			readFully(is, size);
+			int announced = ByteBuffer.wrap(size).getInt();
+			if(announced < DCConfig.MIN_PACKAGE_SIZE || announced > DCConfig.MAX_PACKAGE_SIZE) {
+				throw new IOException("The announced package size " + announced + " is not supported.");
+			}
+			return new NetStatPackage.PackageSize(announced);
+		} else if((header & (1 << 3)) != 0) {
+			byte[] epoch = new byte[4];
+			readFully(is, epoch);
+			int lastResult = readByte(is);
+			if(lastResult >= DCPackage.getNumberRange()) {
+				throw new IOException("The announced round " + lastResult + " is out of bounds.");
+			}
+			return new NetStatPackage.Epoch(ByteBuffer.wrap(epoch).getInt(), lastResult < 0 ? -1 : lastResult);
+		} else if((header & (1 << 2)) != 0) {
+			int window = readByte(is);
+			if(window < 1 || window > DCConfig.MAX_ROUND_WINDOW) {
+				throw new IOException("The announced window of " + window + " rounds is not supported.");
+			}
+			return new NetStatPackage.RoundWindow(window);
 		} else {
 			boolean joining = (header & 1) == 0;
 			byte[] alias = new byte[DCConfig.ALIAS_LENGTH];
-			is.read(alias);
+			readFully(is, alias);
 			int start = 0;
 			while(alias[start] == (byte)0) start++;
-			
+
 			if(joining) {
 				return new NetStatPackage.Joining(new String(alias, start, DCConfig.ALIAS_LENGTH - start));
 			} else {
@@ -129,7 +603,7 @@ public abstract class Connection {
 		}
 	}
 
-	private NetStatPackage parseSnapshot(byte header, InputStream is) throws InputMismatchException, IOException{
+	private static NetStatPackage parseSnapshot(byte header, InputStream is) throws InputMismatchException, IOException{
 		int length = 0;
 		int shifts = 0;
 		boolean cont;
@@ -141,19 +615,42 @@ public abstract class Connection {
 			}
 			cont = (header & (1 << 6)) != 0;
 			if(cont) {
-				header = (byte) is.read();
+				header = readByte(is);
 			}
 		} while(cont);
 		ArrayList<String> aliases = new ArrayList<String>();
 		for(int i = 0; i < length; i++) {
 			byte[] alias = new byte[DCConfig.ALIAS_LENGTH];
-			is.read(alias);
+			readFully(is, alias);
 			aliases.add(new String(alias));
 		}
 		return new NetStatPackage.Snapshot(aliases);
 	}
 
-	public void close() throws IOException {
-		isClosed = true;
+	/**
+	 * Reads a single byte.
+	 * @throws EOFException If the stream has ended
+	 */
+	protected static byte readByte(InputStream is) throws IOException {
+		int b = is.read();
+		if(b < 0) {
+			throw new EOFException("The connection was closed by the remote host.");
+		}
+		return (byte) b;
+	}
+
+	/**
+	 * Fills {@code buffer} completely, with as few reads as the stream allows.
+	 * @throws EOFException If the stream ends before the buffer is full
+	 */
+	protected static void readFully(InputStream is, byte[] buffer) throws IOException {
+		int n = 0;
+		while(n < buffer.length) {
+			int r = is.read(buffer, n, buffer.length - n);
+			if(r < 0) {
+				throw new EOFException("The connection was closed by the remote host.");
+			}
+			n += r;
+		}
 	}
 }
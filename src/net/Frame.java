@@ -0,0 +1,71 @@
+package net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import dc.DCPackage;
+
+/**
+ * A frame that is queued for writing. It either consists of plain bytes,
+ * or belongs to a package. In that case the package is retained until
+ * the frame was written or dropped.
+ */
+class Frame {
+	final ByteBuffer data;
+	final DCPackage p;
+
+	private Frame(ByteBuffer data, DCPackage p) {
+		this.data = data;
+		this.p = p;
+	}
+
+	/**
+	 * Creates a frame for a package, without copying it.
+	 */
+	static Frame of(DCPackage p) {
+		return new Frame(p.getFrame(Connection.DC_PACKAGE), p.retain());
+	}
+
+	/**
+	 * Creates a frame that holds an encoding of a package.
+	 */
+	static Frame of(ByteBuffer data, DCPackage p) {
+		return new Frame(data, p.retain());
+	}
+
+	/**
+	 * Creates a frame of plain bytes.
+	 */
+	static Frame of(byte[] data) {
+		return new Frame(ByteBuffer.wrap(data), null);
+	}
+
+	/**
+	 * @return Whether this frame holds a DCPackage
+	 */
+	boolean isPackage() {
+		return p != null;
+	}
+
+	/**
+	 * Writes the remainder of this frame to a stream with a single write.
+	 */
+	void writeTo(OutputStream os) throws IOException {
+		if(data.hasArray()) {
+			os.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		} else {
+			// Only packages are backed by direct buffers
+			p.writeTo(os, Connection.DC_PACKAGE);
+		}
+	}
+
+	/**
+	 * Called once the frame was written or dropped.
+	 */
+	void written() {
+		if(p != null) {
+			p.release();
+		}
+	}
+}
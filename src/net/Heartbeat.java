@@ -0,0 +1,52 @@
+package net;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dc.DCConfig;
+
+/**
+ * Sends a heartbeat on every registered connection that did not send anything for
+ * {@code DCConfig.HEARTBEAT_INTERVAL}, so that the server on the other end can tell
+ * a station that is idle from one that hangs. Connections that send a package every
+ * round never need one. All connections of a process share a single thread.
+ */
+class Heartbeat implements Runnable {
+	private static final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+	private static Thread thread;
+
+	private Heartbeat() {
+	}
+
+	static synchronized void register(Connection c) {
+		if(DCConfig.HEARTBEAT_INTERVAL <= 0) {
+			return;
+		}
+		connections.add(c);
+		if(thread == null) {
+			thread = DCConfig.threadingMethod.newThread(new Heartbeat(), "Heartbeat");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	static void unregister(Connection c) {
+		connections.remove(c);
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				Thread.sleep(DCConfig.HEARTBEAT_INTERVAL / 2);
+			} catch(InterruptedException e) {
+				continue;
+			}
+			long now = System.currentTimeMillis();
+			for(Connection c: connections) {
+				c.heartbeat(now);
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cli.Debugger;
+import dc.DCConfig;
+import dc.DCPackage;
+
+/**
+ * Sends the round results of a server to its stations over UDP multicast, so that
+ * the cost of a broadcast does not grow with the number of stations. Everything
+ * else, including the contributions of the stations, stays on their connections.
+ *
+ * Stations that accept multicast are offered the group when they announce their
+ * capabilities. Once a station has joined the group, it is told the sequence number
+ * from which on it receives round results from the group rather than from its connection.
+ * A station that misses a datagram asks for it with a NACK on its connection, and the
+ * result is repaired over that connection from a history of recent results. Results
+ * that do not fit into a datagram are sent to the members as repairs right away.
+ *
+ * A datagram consists of the session of the group (int32), the sequence number (int32),
+ * the package size (int32), and the package with its type byte, in the compact
+ * encoding if that is shorter.
+ */
+public class MulticastGroup {
+	// The number of bytes in front of the package in a datagram
+	static final int HEADER_SIZE = 12;
+
+	private final InetAddress group;
+	private final int port;
+	// Tells the datagrams of this group apart from those of other servers on the same address
+	private final int session;
+	private final MulticastSocket socket;
+
+	// Makes sure that round results are sent one at a time, so that every connection
+	// receives them in the order of their sequence numbers.
+	private final ReentrantLock broadcastLock;
+
+	// The following fields are guarded by this group.
+	// Recently sent packages, indexed by their sequence number modulo the length
+	private final DCPackage[] history;
+	// The sequence number of the next package
+	private int next;
+	// Connections that receive round results from the group
+	private final HashSet<Connection> members;
+	// Connections that joined the group, but still receive round results from their connection
+	private final ArrayList<Connection> joining;
+
+	/**
+	 * Opens a group that sends to the given address.
+	 * @param  address     The group and port, separated by a colon, e.g. {@code 239.255.42.99:4224}
+	 * @throws IOException If the address is invalid or the socket can not be opened
+	 */
+	public MulticastGroup(String address) throws IOException {
+		int colon = address.lastIndexOf(':');
+		if(colon < 0) {
+			throw new IOException("The multicast address " + address + " does not name a port.");
+		}
+		try {
+			port = Integer.parseInt(address.substring(colon + 1));
+		} catch(NumberFormatException e) {
+			throw new IOException("The multicast address " + address + " does not name a valid port.");
+		}
+		group = InetAddress.getByName(address.substring(0, colon));
+		if(!group.isMulticastAddress()) {
+			throw new IOException(group + " is not a multicast address.");
+		}
+		session = new Random().nextInt();
+		socket = new MulticastSocket();
+		socket.setTimeToLive(DCConfig.MULTICAST_TTL);
+		broadcastLock = new ReentrantLock();
+		history = new DCPackage[DCConfig.MULTICAST_HISTORY];
+		members = new HashSet<Connection>();
+		joining = new ArrayList<Connection>();
+	}
+
+	int getSession() {
+		return session;
+	}
+
+	/**
+	 * Tells a connection where to find this group.
+	 */
+	void offer(Connection c) throws IOException {
+		byte[] address = group.getAddress();
+		ByteBuffer frame = ByteBuffer.allocate(1 + 4 + 2 + 1 + address.length);
+		frame.put(Connection.MULTICAST_OFFER);
+		frame.putInt(session);
+		frame.putShort((short) port);
+		frame.put((byte) address.length);
+		frame.put(address);
+		c.send(Frame.of(frame.array()));
+	}
+
+	/**
+	 * Called once the station on the other end of {@code c} has joined the group.
+	 * The station is switched over with the next round result.
+	 */
+	synchronized void join(Connection c) {
+		if(!members.contains(c) && !joining.contains(c)) {
+			joining.add(c);
+		}
+	}
+
+	/**
+	 * Removes a connection from the group, e.g. because it was lost.
+	 */
+	public synchronized void leave(Connection c) {
+		members.remove(c);
+		joining.remove(c);
+	}
+
+	/**
+	 * Sends a round result to all recipients: once to the group for all members,
+	 * and over their connections to everyone else.
+	 * @param p          The round result
+	 * @param recipients All connections that should receive the round result
+	 */
+	public void broadcast(DCPackage p, Connection[] recipients) {
+		broadcastLock.lock();
+		try {
+			int seq;
+			Connection[] switching;
+			HashSet<Connection> receivers;
+			synchronized(this) {
+				seq = next++;
+				int slot = index(seq);
+				if(history[slot] != null) {
+					history[slot].release();
+				}
+				history[slot] = p.retain();
+				switching = joining.toArray(new Connection[joining.size()]);
+				joining.clear();
+				// Members that switch with this round still receive it over their connection.
+				receivers = new HashSet<Connection>(members);
+				for(Connection c: switching) {
+					members.add(c);
+				}
+			}
+			boolean sent = send(seq, p);
+			for(Connection c: recipients) {
+				try {
+					if(!receivers.contains(c)) {
+						c.send(p);
+					} else if(!sent) {
+						c.sendRepair(seq, p);
+					}
+				} catch(IOException e) {
+					Debugger.println(1, e.getMessage());
+				}
+			}
+			for(Connection c: switching) {
+				try {
+					c.sendMulticastStart(seq + 1);
+				} catch(IOException e) {
+					Debugger.println(1, e.getMessage());
+				}
+			}
+		} finally {
+			broadcastLock.unlock();
+		}
+	}
+
+	/**
+	 * Resends the round results from sequence number {@code from} on over a connection.
+	 * Results that are not in the history anymore are reported as lost.
+	 */
+	void repair(Connection c, int from) throws IOException {
+		int oldest;
+		int to;
+		DCPackage[] packages;
+		synchronized(this) {
+			to = next;
+			oldest = Math.max(0, next - history.length);
+			int start = Math.max(from, oldest);
+			packages = new DCPackage[Math.max(0, to - start)];
+			for(int i = 0; i < packages.length; i++) {
+				packages[i] = history[index(start + i)].retain();
+			}
+		}
+		try {
+			if(from < oldest) {
+				c.sendLost(oldest - 1);
+				from = oldest;
+			}
+			for(int i = 0; i < packages.length; i++) {
+				c.sendRepair(from + i, packages[i]);
+			}
+		} finally {
+			for(DCPackage p: packages) {
+				p.release();
+			}
+		}
+		Debugger.println("network", "[MulticastGroup] Repaired " + packages.length + " round results for " + c);
+	}
+
+	/**
+	 * Sends a round result to the group.
+	 * @return False if the round result was not sent, because it does not fit into a datagram
+	 */
+	private boolean send(int seq, DCPackage p) {
+		ByteBuffer frame = p.getCompactFrame(Connection.COMPACT_PACKAGE);
+		if(frame == null) {
+			frame = p.getFrame(Connection.DC_PACKAGE);
+		}
+		if(HEADER_SIZE + frame.remaining() > DCConfig.MULTICAST_MAX_DATAGRAM) {
+			return false;
+		}
+		ByteBuffer datagram = ByteBuffer.allocate(HEADER_SIZE + frame.remaining());
+		datagram.putInt(session);
+		datagram.putInt(seq);
+		datagram.putInt(p.getSize());
+		datagram.put(frame);
+		try {
+			socket.send(new DatagramPacket(datagram.array(), datagram.capacity(), group, port));
+		} catch(IOException e) {
+			// The members will ask for a repair.
+			Debugger.println(1, "[MulticastGroup] Unable to send round result " + seq + ": " + e.getMessage());
+		}
+		return true;
+	}
+
+	private int index(int seq) {
+		return seq % history.length;
+	}
+
+	public synchronized void close() {
+		socket.close();
+		for(int i = 0; i < history.length; i++) {
+			if(history[i] != null) {
+				history[i].release();
+				history[i] = null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MulticastGroup " + group.getHostAddress() + ":" + port;
+	}
+}
@@ -0,0 +1,243 @@
+package net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.InputMismatchException;
+import java.util.TreeMap;
+
+import cli.Debugger;
+import dc.DCConfig;
+import dc.DCPackage;
+
+/**
+ * Receives the round results that a server sends to a MulticastGroup, and delivers
+ * them to the listener of a connection in the order of their sequence numbers.
+ * Missing round results are requested with a NACK on the connection. A NACK is
+ * also sent if nothing arrived for a while, since the last datagram of a burst
+ * can be lost without a following one that would reveal the gap.
+ *
+ * Round results are delivered after the lock of this receiver was released, so that
+ * a slow listener does not hold up the repairs that arrive on the connection. Only
+ * one thread delivers at a time, which keeps the round results in order.
+ */
+class MulticastReceiver implements Runnable {
+	private final Connection c;
+	private final int session;
+	private final InetAddress group;
+	private final MulticastSocket socket;
+
+	// The following fields are guarded by this receiver.
+	// The sequence number of the next round result to deliver, or -1 until the server
+	// said from which round result on this station receives from the group.
+	private int expected = -1;
+	// Round results that arrived ahead of the next one
+	private final TreeMap<Integer, DCPackage> pending;
+	// Round results that are next in order and wait to be delivered
+	private final ArrayDeque<DCPackage> ready;
+	// Whether a thread is delivering the round results in ready
+	private boolean delivering = false;
+	private long lastNack;
+
+	private volatile boolean isClosed = false;
+
+	MulticastReceiver(Connection c, int session, InetAddress group, int port) throws IOException {
+		this.c = c;
+		this.session = session;
+		this.group = group;
+		pending = new TreeMap<Integer, DCPackage>();
+		ready = new ArrayDeque<DCPackage>();
+		socket = new MulticastSocket(port);
+		try {
+			// Joins on the interface that the system chooses for the group
+			socket.joinGroup(new InetSocketAddress(group, port), null);
+			socket.setSoTimeout(DCConfig.MULTICAST_REPAIR_TIMEOUT);
+		} catch(IOException e) {
+			socket.close();
+			throw e;
+		}
+		DCConfig.threadingMethod.newThread(this, "MulticastReceiver " + group.getHostAddress() + ":" + port).start();
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[DCConfig.MULTICAST_MAX_DATAGRAM];
+		DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+		while(!isClosed) {
+			try {
+				datagram.setLength(buffer.length);
+				socket.receive(datagram);
+				ByteBuffer b = ByteBuffer.wrap(buffer, 0, datagram.getLength());
+				if(b.remaining() <= MulticastGroup.HEADER_SIZE || b.getInt() != session) {
+					continue;
+				}
+				int seq = b.getInt();
+				int size = b.getInt();
+				byte type = b.get();
+				DCPackage p;
+				if(type == Connection.DC_PACKAGE) {
+					p = DCPackage.getPackage(b, size);
+				} else if(type == Connection.COMPACT_PACKAGE) {
+					p = DCPackage.getCompactPackage(b, size);
+				} else {
+					continue;
+				}
+				received(seq, p);
+			} catch(SocketTimeoutException e) {
+				int seq = repairFrom(true);
+				if(seq >= 0) {
+					sendNack(seq);
+				}
+			} catch(InputMismatchException e) {
+				Debugger.println("network", "[MulticastReceiver] Dropping a malformed datagram: " + e.getMessage());
+			} catch(IOException e) {
+				if(!isClosed) {
+					System.err.println("[MulticastReceiver] Unable to receive from " + group + ": " + e.getMessage());
+					c.lost("The multicast group failed: " + e.getMessage());
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Starts delivering round results from sequence number {@code seq} on.
+	 */
+	void start(int seq) {
+		synchronized(this) {
+			expected = seq;
+			Debugger.println("network", "[MulticastReceiver] Receiving round results from " + group.getHostAddress() + " from " + seq + " on.");
+			drop(seq);
+			collectReady();
+		}
+		deliverReady();
+	}
+
+	/**
+	 * Adds a round result that arrived from the group or was repaired over the connection.
+	 */
+	void received(int seq, DCPackage p) {
+		int nack = -1;
+		synchronized(this) {
+			if(isClosed || expected >= 0 && seq < expected || pending.containsKey(seq)) {
+				// A duplicate
+				p.release();
+				return;
+			}
+			pending.put(seq, p);
+			if(pending.size() > DCConfig.MULTICAST_HISTORY) {
+				// The server does not keep more than this either.
+				pending.pollFirstEntry().getValue().release();
+			}
+			if(expected >= 0) {
+				collectReady();
+				if(!pending.isEmpty()) {
+					nack = repairFrom(false);
+				}
+			}
+		}
+		deliverReady();
+		if(nack >= 0) {
+			sendNack(nack);
+		}
+	}
+
+	/**
+	 * Gives up on all round results up to and including {@code seq}, since the server does not have them anymore.
+	 */
+	void lost(int seq) {
+		synchronized(this) {
+			if(expected < 0 || seq < expected) {
+				return;
+			}
+			Debugger.println("network", "[MulticastReceiver] Lost round results " + expected + " to " + seq + ".");
+			expected = seq + 1;
+			drop(expected);
+			collectReady();
+		}
+		deliverReady();
+	}
+
+	/**
+	 * Releases all pending round results before {@code seq}.
+	 */
+	private void drop(int seq) {
+		while(!pending.isEmpty() && pending.firstKey() < seq) {
+			pending.pollFirstEntry().getValue().release();
+		}
+	}
+
+	/**
+	 * Moves the pending round results that are next in order to the ones that wait to be delivered.
+	 */
+	private void collectReady() {
+		while(!pending.isEmpty() && pending.firstKey() == expected) {
+			ready.add(pending.pollFirstEntry().getValue());
+			expected++;
+		}
+	}
+
+	/**
+	 * Delivers the round results that are ready, unless another thread already does so.
+	 * Must be called without holding the lock of this receiver.
+	 */
+	private void deliverReady() {
+		synchronized(this) {
+			if(delivering) return;
+			delivering = true;
+		}
+		while(true) {
+			DCPackage p;
+			synchronized(this) {
+				p = ready.poll();
+				if(p == null) {
+					delivering = false;
+					return;
+				}
+			}
+			c.deliver(p);
+		}
+	}
+
+	/**
+	 * Decides whether the server should be asked to resend everything from the next expected round result on.
+	 * NACKs are sent at most once per {@code DCConfig.MULTICAST_REPAIR_TIMEOUT}, unless
+	 * nothing arrived for that long.
+	 * @return The sequence number to resend from, or -1 if no NACK is due.
+	 */
+	private synchronized int repairFrom(boolean idle) {
+		long now = System.currentTimeMillis();
+		if(expected < 0 || !idle && now - lastNack < DCConfig.MULTICAST_REPAIR_TIMEOUT) {
+			return -1;
+		}
+		lastNack = now;
+		return expected;
+	}
+
+	private void sendNack(int seq) {
+		try {
+			c.sendNack(seq);
+		} catch(IOException e) {
+			Debugger.println(1, e.getMessage());
+		}
+	}
+
+	synchronized void close() {
+		isClosed = true;
+		socket.close();
+		for(DCPackage p: pending.values()) {
+			p.release();
+		}
+		pending.clear();
+		// A round result that is being delivered was already taken from ready
+		for(DCPackage p: ready) {
+			p.release();
+		}
+		ready.clear();
+	}
+}
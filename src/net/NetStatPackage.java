@@ -94,6 +94,8 @@ public abstract class NetStatPackage {
 
 		public void apply(Network net) {
 			net.removeStation(station);
+			// The rounds in progress start over without this station.
+			net.restartRounds();
 		}
 
 		/**
@@ -162,4 +164,104 @@ public abstract class NetStatPackage {
 			return output;
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * This variant is used by the server at the top of the hierarchy to announce the
+	 * size of the packages in the network. It is sent to every connection before
+	 * any other package, and whenever the size changes.
+	 */
+	public static class PackageSize extends NetStatPackage {
+		private int size;
+
+		public PackageSize(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Returns the announced package size, including the header of a package.
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		@Override
+		public void apply(Network net) {
+			net.setPackageSize(size);
+		}
+
+		public byte[] toByteArray() {
+			ByteBuffer bb = ByteBuffer.allocate(1 + 4);
+			bb.put((byte) 2);
+			bb.putInt(size);
+			return bb.array();
+		}
+	}
+
+	/**
+	 * This variant is used by the server at the top of the hierarchy to announce how many
+	 * rounds may be in progress at once. It is sent to every connection right after the
+	 * package size.
+	 */
+	public static class RoundWindow extends NetStatPackage {
+		private int window;
+
+		public RoundWindow(int window) {
+			this.window = window;
+		}
+
+		/**
+		 * Returns the announced number of rounds.
+		 */
+		public int getWindow() {
+			return window;
+		}
+
+		@Override
+		public void apply(Network net) {
+			net.setRoundWindow(window);
+		}
+
+		public byte[] toByteArray() {
+			return new byte[]{(byte) 4, (byte) window};
+		}
+	}
+
+	/**
+	 * This variant is used by a server to tell a station that just connected to it in which
+	 * epoch the rounds are, so that both compute the same keystream. From then on the station
+	 * follows the epoch by itself, see {@code Network.addResult}. It is sent before any other package.
+	 */
+	public static class Epoch extends NetStatPackage {
+		private int epoch;
+		private int lastResult;
+
+		public Epoch(int epoch, int lastResult) {
+			this.epoch = epoch;
+			this.lastResult = lastResult;
+		}
+
+		public int getEpoch() {
+			return epoch;
+		}
+
+		/**
+		 * Returns the number of the most recent round result, or -1 if there was none.
+		 */
+		public int getLastResult() {
+			return lastResult;
+		}
+
+		@Override
+		public void apply(Network net) {
+			net.setEpoch(epoch, lastResult);
+		}
+
+		public byte[] toByteArray() {
+			ByteBuffer bb = ByteBuffer.allocate(1 + 4 + 1);
+			bb.put((byte) 8);
+			bb.putInt(epoch);
+			bb.put((byte) lastResult);
+			return bb.array();
+		}
+	}
+}
@@ -7,12 +7,138 @@ import java.util.Collection;
 import java.lang.IllegalStateException;
 import java.lang.IllegalArgumentException;
 
+import dc.DCConfig;
+
 public class Network {
 	private static HashUtil hu = new HashUtil(HashUtil.SHA_256);
 	private ArrayList<String> stations;
 
+	// Counts the changes to the set of stations. Users of this network can compare
+	// versions to find out whether anything they derived from the stations is still valid.
+	private volatile int version;
+
+	// The size of the packages in this network, as announced by the server at the top of the hierarchy
+	private int packageSize;
+
+	// The number of rounds that may be in progress at once, as announced by the server at the top of the hierarchy
+	private int roundWindow;
+
+	// The epoch of the rounds after the most recent round result, up to the end of the range of round numbers.
+	// Every station derives it from the same events: round results that start the round numbers over,
+	// and stations that leave, after which the rounds in progress start over.
+	private int epoch;
+	// The number of the most recent round result, or -1 if none arrived yet
+	private int lastResult;
+
 	public Network() {
 		stations = new ArrayList<String>();
+		packageSize = DCConfig.PACKAGE_SIZE;
+		roundWindow = DCConfig.ROUND_WINDOW;
+		lastResult = -1;
+	}
+
+	/**
+	 * Returns the size of the packages in this network, including their header.
+	 */
+	public synchronized int getPackageSize() {
+		return packageSize;
+	}
+
+	/**
+	 * Changes the size of the packages in this network.
+	 * @param  size                     The size of a package, including its header
+	 * @throws IllegalArgumentException In case the size is out of the bounds given by DCConfig.
+	 */
+	public synchronized void setPackageSize(int size) throws IllegalArgumentException {
+		if(size < DCConfig.MIN_PACKAGE_SIZE || size > DCConfig.MAX_PACKAGE_SIZE) {
+			throw new IllegalArgumentException("The package size must be between " + DCConfig.MIN_PACKAGE_SIZE + " and " + DCConfig.MAX_PACKAGE_SIZE + " bytes.");
+		}
+		packageSize = size;
+	}
+
+	/**
+	 * Returns the number of rounds that may be in progress at once in this network.
+	 */
+	public synchronized int getRoundWindow() {
+		return roundWindow;
+	}
+
+	/**
+	 * Changes the number of rounds that may be in progress at once.
+	 * @param  window                   The number of rounds
+	 * @throws IllegalArgumentException In case the window is out of the bounds given by DCConfig.
+	 */
+	public synchronized void setRoundWindow(int window) throws IllegalArgumentException {
+		if(window < 1 || window > DCConfig.MAX_ROUND_WINDOW) {
+			throw new IllegalArgumentException("The window must be between 1 and " + DCConfig.MAX_ROUND_WINDOW + " rounds.");
+		}
+		roundWindow = window;
+	}
+
+	/**
+	 * Returns the epoch in which a round is computed. Rounds that are sent ahead of the
+	 * most recent result, past the end of the range of round numbers, belong to the next epoch.
+	 * @param round The number of the round
+	 */
+	public synchronized int getEpoch(int round) {
+		if(lastResult != -1 && round <= lastResult) {
+			return epoch + 1;
+		}
+		return epoch;
+	}
+
+	/**
+	 * Returns the epoch of the rounds after the most recent result, as it is announced to new stations.
+	 */
+	public synchronized int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Returns the number of the most recent round result, or -1 if none arrived yet.
+	 */
+	public synchronized int getLastResult() {
+		return lastResult;
+	}
+
+	/**
+	 * Takes note of the result of a round. A result whose number does not follow the
+	 * previous one started the round numbers over, so the epoch advances. This still
+	 * holds if some results were missed in between, as long as they were fewer than
+	 * the range of round numbers.
+	 * @param round The number of the round
+	 */
+	public synchronized void addResult(int round) {
+		if(lastResult != -1 && round <= lastResult) {
+			epoch++;
+		}
+		lastResult = round;
+	}
+
+	/**
+	 * Moves the rounds in progress to the next epoch, since they start over.
+	 * That way a round that is sent again does not reuse the keystream it was sent with before.
+	 */
+	public synchronized void restartRounds() {
+		epoch++;
+	}
+
+	/**
+	 * Changes the epoch, as announced by the server that this station is connected to.
+	 * @param epoch      The epoch of the rounds after {@code lastResult}
+	 * @param lastResult The number of the most recent round result, or -1
+	 */
+	public synchronized void setEpoch(int epoch, int lastResult) {
+		this.epoch = epoch;
+		this.lastResult = lastResult;
+	}
+
+	/**
+	 * Returns the current version of this network. The version changes whenever
+	 * a station is added or removed, or the network is cleared or initialised.
+	 */
+	public int getVersion() {
+		return version;
 	}
 
 	/**
@@ -22,6 +148,7 @@ public class Network {
 	 * @throws IllegalArgumentException In case the provided list is not sorted.
 	 */
 	public synchronized void initialise(Collection<String> stations) throws IllegalArgumentException {
+		version++;
 		stations.clear();
 		if(stations.size() == 0) return;
 		// ensure that the collection is sorted
@@ -40,8 +167,13 @@ public class Network {
 	/**
 	 * Removes all stations from this network.
 	 */
-	public void clear() {
+	public synchronized void clear() {
+		version++;
 		stations.clear();
+		packageSize = DCConfig.PACKAGE_SIZE;
+		roundWindow = DCConfig.ROUND_WINDOW;
+		epoch = 0;
+		lastResult = -1;
 	}
 
 	/**
@@ -49,6 +181,7 @@ public class Network {
 	 * @param alias The alias of the station that was added to the network
 	 */
 	public synchronized void addStation(String alias) {
+		version++;
 		Iterator<String> it = stations.iterator();
 		for(int i = 0; i < stations.size(); i++) {
 			// compare both strings
@@ -70,6 +203,7 @@ public class Network {
 	 */
 	public synchronized void removeStation(String alias) {
 		boolean contained = stations.remove(alias);
+		version++;
 		if(!contained) {
 			throw new IllegalStateException("The station with alias " + alias + " was not part of this network.");
 		}
@@ -78,7 +212,7 @@ public class Network {
 	/**
 	 * Returns a shallow copy of all members in this network.
 	 */
-	public Collection<String> getStations() {
+	public synchronized Collection<String> getStations() {
 		return new ArrayList<String>(stations);
 	}
 
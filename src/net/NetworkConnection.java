@@ -3,7 +3,10 @@ package net;
 import java.io.IOException;
 import java.net.Socket;
 
-public class NetworkConnection extends Connection {
+/**
+ * A blocking TCP connection that reads its input on a thread of its own.
+ */
+public class NetworkConnection extends StreamConnection {
 	private Socket s;
 	
 	public NetworkConnection(Socket s) throws IOException {
@@ -0,0 +1,304 @@
+package net;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.InputMismatchException;
+
+import dc.DCConfig;
+import dc.DCPackage;
+
+/**
+ * A non-blocking connection on a TCP or Unix domain socket. It does not have a thread of its own;
+ * instead it is served by one of the shared NioEventLoops, which reads
+ * whole frames into a buffer that is reused for the lifetime of the connection.
+ *
+ * Listeners are called on the thread of the event loop, so they must not block
+ * for long, or all other connections of that loop are held up.
+ *
+ * Connections on Unix domain sockets always use this class, whatever the transport
+ * method, since the stream adapters of a blocking channel can not read and write at once.
+ */
+public class NioConnection extends Connection {
+	// The initial size of the read buffer. It grows if a single frame does not fit,
+	// e.g. if the network announces a larger package size. A compact package whose
+	// length is not known yet may fill it, in which case it grows to a plain package.
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final SocketChannel channel;
+	// The address of the peer, or of this end if the peer is not named
+	private final String address;
+	private final NioEventLoop loop;
+	private SelectionKey key;
+
+	// Only used by the thread of the event loop
+	private ByteBuffer readBuffer;
+
+	// Guards key and isClosed, and makes sure that only one thread writes at a time
+	private final Object writeLock;
+
+	private boolean isClosed = false;
+
+	public NioConnection(SocketChannel channel) throws IOException {
+		this(channel, null);
+	}
+
+	public NioConnection(SocketChannel channel, PackageListener listener) throws IOException {
+		super(listener);
+		this.channel = channel;
+		channel.configureBlocking(false);
+		if(channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		}
+		address = describe(channel);
+		readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+		writeLock = new Object();
+		loop = NioEventLoop.next();
+		loop.register(this);
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Called by the event loop once the channel is registered with its selector.
+	 */
+	void registered(SelectionKey key) {
+		synchronized(writeLock) {
+			this.key = key;
+			if(isClosed) {
+				key.cancel();
+			} else if(!sendQueue.isEmpty()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Called by the event loop if the channel could not be served anymore.
+	 */
+	void failed(IOException e) {
+		closeQuietly();
+		lost(e.getMessage());
+	}
+
+	/**
+	 * Called by the event loop when the channel is readable. Reads as much as is
+	 * available and delivers all frames that are complete.
+	 */
+	void read() {
+		try {
+			int n = channel.read(readBuffer);
+			if(n < 0) {
+				failed(new IOException("The connection was closed by the remote host."));
+				return;
+			}
+			heard();
+			readBuffer.flip();
+			int length;
+			while((length = frameLength(readBuffer)) > 0 && readBuffer.remaining() >= length) {
+				decode(length);
+			}
+			readBuffer.compact();
+			if(length < 0 && !readBuffer.hasRemaining()) {
+				// The length of a compact package is only known once all of its runs arrived,
+				// but it is never longer than the plain package.
+				length = 1 + packageSize;
+				if(length <= readBuffer.capacity()) {
+					throw new IOException("A frame does not fit into " + readBuffer.capacity() + " bytes.");
+				}
+			}
+			if(length > readBuffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(length);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+		} catch (IOException e) {
+			failed(e);
+		} catch (InputMismatchException e) {
+			failed(new IOException("Received a malformed package: " + e.getMessage()));
+		}
+	}
+
+	/**
+	 * Called by the event loop when the channel is writable.
+	 */
+	void write() {
+		try {
+			synchronized(writeLock) {
+				flush();
+				if(sendQueue.isEmpty() && key.isValid()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	/**
+	 * Writes as much of a frame as the socket accepts right away, and leaves the
+	 * rest to the event loop. This only blocks if the send queue is full and the
+	 * slow consumer policy asks for it, and never on the thread of the event loop.
+	 */
+	@Override
+	protected void send(Frame frame) throws IOException {
+		queue(frame, !loop.inLoop());
+		synchronized(writeLock) {
+			if(isClosed) {
+				return;
+			}
+			flush();
+			if(!sendQueue.isEmpty() && key != null && key.isValid()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				loop.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * Writes queued frames until the queue is empty or the socket does not take any more.
+	 * The caller has to hold {@code writeLock}.
+	 */
+	private void flush() throws IOException {
+		Frame head;
+		while((head = sendQueue.peek()) != null) {
+			channel.write(head.data);
+			if(head.data.hasRemaining()) {
+				return;
+			}
+			sendQueue.remove();
+		}
+	}
+
+	/**
+	 * Removes one frame of the given length from the read buffer and delivers it.
+	 */
+	private void decode(int length) throws IOException {
+		byte type = readBuffer.get();
+		if(type == DC_PACKAGE) {
+			deliver(DCPackage.getPackage(readBuffer, packageSize));
+		} else if(type == COMPACT_PACKAGE) {
+			deliver(DCPackage.getCompactPackage(readBuffer, packageSize));
+		} else if(type == CAPABILITIES) {
+			negotiate(readBuffer.get());
+		} else if(isMulticastFrame(type)) {
+			byte[] buffer = new byte[length - 1];
+			readBuffer.get(buffer);
+			handleMulticast(type, new ByteArrayInputStream(buffer));
+		} else if(type == HEARTBEAT) {
+			// The station is still there; heard() took note of that.
+		} else if(type == DC_CHUNK) {
+			byte[] buffer = new byte[length - 1];
+			readBuffer.get(buffer);
+			deliver(readChunk(new ByteArrayInputStream(buffer)));
+		} else {
+			byte[] buffer = new byte[length - 1];
+			readBuffer.get(buffer);
+			deliver(readStatusPackage(new ByteArrayInputStream(buffer)));
+		}
+	}
+
+	/**
+	 * Returns the length of the frame at the position of {@code buffer}, including
+	 * its type byte, or -1 if not enough of the frame is available to tell.
+	 */
+	private int frameLength(ByteBuffer buffer) {
+		int start = buffer.position();
+		if(start >= buffer.limit()) {
+			return -1;
+		}
+		byte type = buffer.get(start);
+		if(type == DC_PACKAGE) {
+			return 1 + packageSize;
+		} else if(type == COMPACT_PACKAGE) {
+			int length = DCPackage.getCompactLength(buffer, start + 1, packageSize);
+			return length < 0 ? -1 : 1 + length;
+		} else if(type == CAPABILITIES) {
+			return 2;
+		} else if(isMulticastFrame(type)) {
+			return multicastFrameLength(buffer, start);
+		} else if(type == HEARTBEAT) {
+			return 1;
+		} else if(type == DC_CHUNK) {
+			return chunkFrameLength(buffer, start);
+		}
+		int i = start + 1;
+		if(i >= buffer.limit()) {
+			return -1;
+		}
+		byte header = buffer.get(i);
+		if((header & (1 << 7)) == 0 && (header & (1 << 1)) != 0) {
+			// The package size is announced
+			return 2 + 4;
+		} else if((header & (1 << 7)) == 0 && (header & (1 << 3)) != 0) {
+			// The epoch of the rounds is announced
+			return 2 + 4 + 1;
+		} else if((header & (1 << 7)) == 0 && (header & (1 << 2)) != 0) {
+			// The window of rounds is announced
+			return 2 + 1;
+		} else if((header & (1 << 7)) == 0) {
+			// A station is joining or leaving
+			return 2 + DCConfig.ALIAS_LENGTH;
+		}
+		// A snapshot; the number of stations is spread over several headers
+		int count = 0;
+		int shifts = 0;
+		while(true) {
+			count |= (header & 0x3F) << (6*shifts++);
+			if(shifts > 4) {
+				throw new InputMismatchException("A network of this size might cause Integer overflows.");
+			}
+			if((header & (1 << 6)) == 0) {
+				break;
+			}
+			if(++i >= buffer.limit()) {
+				return -1;
+			}
+			header = buffer.get(i);
+		}
+		return (i - start + 1) + count * DCConfig.ALIAS_LENGTH;
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(writeLock) {
+			isClosed = true;
+			if(key != null) {
+				key.cancel();
+			}
+			sendQueue.close();
+			sendQueue.clear();
+		}
+		detach();
+		channel.close();
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			// The connection is gone either way.
+		}
+	}
+
+	private static String describe(SocketChannel channel) throws IOException {
+		SocketAddress remote = channel.getRemoteAddress();
+		if(remote != null && !remote.toString().isEmpty()) {
+			return remote.toString();
+		}
+		// The client end of a Unix domain socket usually has no name
+		return "local " + channel.getLocalAddress();
+	}
+
+	@Override
+	public String toString() {
+		return "NioConnection " + address;
+	}
+}
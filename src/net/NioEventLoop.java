@@ -0,0 +1,108 @@
+package net;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import dc.DCConfig;
+
+/**
+ * A thread that serves many non-blocking connections with a single Selector.
+ * A small, fixed number of event loops is shared by all NioConnections of
+ * this process, so the number of threads does not grow with the number of
+ * connections.
+ */
+class NioEventLoop implements Runnable {
+	private static NioEventLoop[] loops;
+	private static int nextLoop;
+
+	private final Selector selector;
+	// Connections that wait to be registered with the selector
+	private final ConcurrentLinkedQueue<NioConnection> registrations;
+	private Thread thread;
+
+	private NioEventLoop() throws IOException {
+		selector = Selector.open();
+		registrations = new ConcurrentLinkedQueue<NioConnection>();
+	}
+
+	/**
+	 * Returns the event loop that should serve the next connection.
+	 * The loops are started when this method is called for the first time.
+	 */
+	static synchronized NioEventLoop next() throws IOException {
+		if(loops == null) {
+			loops = new NioEventLoop[DCConfig.NIO_THREADS];
+			for(int i = 0; i < loops.length; i++) {
+				loops[i] = new NioEventLoop();
+				Thread t = new Thread(loops[i], "NioEventLoop-" + i);
+				loops[i].thread = t;
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+		NioEventLoop loop = loops[nextLoop];
+		nextLoop = (nextLoop + 1) % loops.length;
+		return loop;
+	}
+
+	/**
+	 * Registers a connection with this loop. The connection is served from
+	 * the next iteration of the loop on.
+	 */
+	void register(NioConnection c) {
+		registrations.add(c);
+		selector.wakeup();
+	}
+
+	/**
+	 * @return Whether the calling thread is the thread of this loop.
+	 */
+	boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Makes the loop pick up changes of the interest set of a key.
+	 */
+	void wakeup() {
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				System.err.println("[NioEventLoop] Severe: Selecting failed: " + e.getMessage());
+				continue;
+			}
+
+			NioConnection c;
+			while((c = registrations.poll()) != null) {
+				try {
+					c.registered(c.getChannel().register(selector, SelectionKey.OP_READ, c));
+				} catch (ClosedChannelException e) {
+					c.failed(e);
+				}
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				c = (NioConnection) key.attachment();
+				if(key.isValid() && key.isReadable()) {
+					c.read();
+				}
+				if(key.isValid() && key.isWritable()) {
+					c.write();
+				}
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package net;
 
+import dc.DCChunk;
 import dc.DCPackage;
 
 public interface PackageListener {
@@ -7,5 +8,7 @@ public interface PackageListener {
 
 	public void addInput(NetStatPackage message);
 
+	public void addInput(DCChunk chunk);
+
 	public void connectionLost(String message);
 }
\ No newline at end of file
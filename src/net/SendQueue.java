@@ -0,0 +1,221 @@
+package net;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dc.DCConfig.SlowConsumerPolicy;
+
+/**
+ * The frames that a connection still has to write, up to a limit.
+ * What happens to a frame that does not fit anymore is decided by a SlowConsumerPolicy.
+ *
+ * The first frame of the queue may be in the middle of being written,
+ * so it is never removed by anyone but the writer.
+ */
+class SendQueue {
+	private final int limit;
+	private final SlowConsumerPolicy policy;
+
+	private final LinkedList<Frame> frames;
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+	private final Condition notFull;
+
+	private boolean isClosed = false;
+
+	// Statistics
+	private int peak = 0;
+	private long dropped = 0;
+
+	SendQueue(int limit, SlowConsumerPolicy policy) {
+		this.limit = limit;
+		this.policy = policy;
+		frames = new LinkedList<Frame>();
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		notFull = lock.newCondition();
+	}
+
+	/**
+	 * Adds a frame to the end of the queue.
+	 * @param  frame    The frame to be queued
+	 * @param  mayBlock Whether the caller may wait for space if the policy asks for it.
+	 *                  The thread that drains the queue must never wait for itself.
+	 * @return          False if the frame was not queued because the queue is full
+	 *                  and the connection should be given up. The frame has been
+	 *                  dropped in that case.
+	 */
+	boolean offer(Frame frame, boolean mayBlock) {
+		lock.lock();
+		try {
+			if(frames.size() >= limit && !isClosed) {
+				switch(policy) {
+				case BLOCK:
+					while(mayBlock && frames.size() >= limit && !isClosed) {
+						notFull.awaitUninterruptibly();
+					}
+					break;
+				case COALESCE:
+					if(frame.isPackage()) {
+						coalesce();
+					}
+					break;
+				case DROP:
+					dropped++;
+					frame.written();
+					return false;
+				}
+			}
+			frames.add(frame);
+			peak = Math.max(peak, frames.size());
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops all queued packages but the first frame, since a client that receives
+	 * only the most recent rounds can still catch up with the network. Status
+	 * packages are kept, because they change the state of the network.
+	 */
+	private void coalesce() {
+		Iterator<Frame> it = frames.iterator();
+		it.next();
+		while(it.hasNext()) {
+			Frame f = it.next();
+			if(f.isPackage()) {
+				it.remove();
+				f.written();
+				dropped++;
+			}
+		}
+	}
+
+	/**
+	 * @return The first frame, or null if the queue is empty.
+	 */
+	Frame peek() {
+		lock.lock();
+		try {
+			return frames.peek();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the first frame once it was written, and releases it.
+	 */
+	void remove() {
+		lock.lock();
+		try {
+			frames.poll().written();
+			notFull.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a frame is available and returns it without removing it.
+	 * @return The first frame, or null if the queue was closed and all frames were taken.
+	 */
+	Frame awaitFirst() {
+		lock.lock();
+		try {
+			while(frames.isEmpty() && !isClosed) {
+				notEmpty.awaitUninterruptibly();
+			}
+			return frames.peek();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean isEmpty() {
+		lock.lock();
+		try {
+			return frames.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops accepting frames. The frames that are still queued can be taken.
+	 */
+	void close() {
+		lock.lock();
+		try {
+			isClosed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops all queued frames.
+	 */
+	void clear() {
+		lock.lock();
+		try {
+			while(!frames.isEmpty()) {
+				frames.poll().written();
+			}
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean isClosed() {
+		lock.lock();
+		try {
+			return isClosed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of frames that are queued right now.
+	 */
+	int size() {
+		lock.lock();
+		try {
+			return frames.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The largest number of frames that were queued at once.
+	 */
+	int peak() {
+		lock.lock();
+		try {
+			return peak;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of frames that were dropped because the queue was full.
+	 */
+	long dropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
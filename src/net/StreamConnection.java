@@ -0,0 +1,111 @@
+package net;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import dc.DCConfig;
+import dc.DCPackage;
+
+/**
+ * A connection on top of a pair of blocking streams.
+ * Every connection reads its input on a thread of its own, and writes its
+ * output on another one, so that sending a package never waits for the stream.
+ *
+ * Input is buffered, so that a package takes a few large reads rather than one
+ * read per byte. Every package is sent with a single write of the whole frame.
+ * The output is flushed whenever no more frames are queued, so that a frame is
+ * not split into several TCP segments.
+ */
+public class StreamConnection extends Connection {
+	// The size of the input buffer. It holds several packages of the default size, so that
+	// a package that arrives right after another one is often read by the same call.
+	// Larger packages are read straight into their own buffer, bypassing this one.
+	private static final int BUFFER_SIZE = 8 * DCPackage.PACKAGE_SIZE;
+
+	private final InputStream is;
+	private final OutputStream os;
+
+	private volatile boolean isClosed = false;
+
+	public StreamConnection(InputStream is, OutputStream os) {
+		this(is, os, null);
+	}
+
+	public StreamConnection(InputStream is, OutputStream os, PackageListener listener) {
+		super(listener);
+		this.is = new BufferedInputStream(is, BUFFER_SIZE);
+		this.os = os;
+
+		DCConfig.threadingMethod.newThread(new InputReader(), "StreamConnection InputReader").start();
+		DCConfig.threadingMethod.newThread(new OutputWriter(), "StreamConnection OutputWriter").start();
+	}
+
+	private class InputReader implements Runnable {
+		@Override
+		public void run() {
+			try {
+				while(!isClosed) {
+					byte type = readByte(is);
+					heard();
+					if(type == DC_PACKAGE) {
+						deliver(readDCPackage(is));
+					} else if(type == COMPACT_PACKAGE) {
+						deliver(DCPackage.getCompactPackage(is, packageSize));
+					} else if(type == CAPABILITIES) {
+						negotiate(readByte(is));
+					} else if(isMulticastFrame(type)) {
+						handleMulticast(type, is);
+					} else if(type == HEARTBEAT) {
+						// The station is still there; heard() took note of that.
+					} else if(type == DC_CHUNK) {
+						deliver(readChunk(is));
+					} else {
+						deliver(readStatusPackage(is));
+					}
+				}
+			} catch (IOException e) {
+				lost(e.getMessage());
+			}
+		}
+
+	}
+
+	/**
+	 * Writes the queued frames in the order in which they were sent.
+	 */
+	private class OutputWriter implements Runnable {
+		@Override
+		public void run() {
+			try {
+				Frame frame;
+				while((frame = sendQueue.awaitFirst()) != null) {
+					frame.writeTo(os);
+					sendQueue.remove();
+					if(sendQueue.isEmpty()) {
+						// Nothing else to say for now
+						os.flush();
+					}
+				}
+			} catch (IOException e) {
+				isClosed = true;
+				sendQueue.close();
+				sendQueue.clear();
+				lost(e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	protected void send(Frame frame) throws IOException {
+		queue(frame, true);
+	}
+
+	@Override
+	public void close() throws IOException {
+		isClosed = true;
+		sendQueue.close();
+		detach();
+	}
+}
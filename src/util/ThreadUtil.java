@@ -0,0 +1,59 @@
+package util;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads on JREs that provide them (Java 21 and later).
+ * The API is looked up by reflection, so that this class still compiles
+ * and runs on older JREs.
+ */
+public class ThreadUtil {
+	// Thread.ofVirtual(), or null if this JRE does not have virtual threads
+	private static final Method ofVirtual;
+	// Thread.Builder.name(String)
+	private static final Method name;
+	// Thread.Builder.unstarted(Runnable)
+	private static final Method unstarted;
+
+	static {
+		Method o = null, n = null, u = null;
+		try {
+			o = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			n = builder.getMethod("name", String.class);
+			u = builder.getMethod("unstarted", Runnable.class);
+		} catch (ReflectiveOperationException e) {
+			o = null;
+		}
+		ofVirtual = o;
+		name = n;
+		unstarted = u;
+	}
+
+	/**
+	 * @return Whether this JRE is able to create virtual threads.
+	 */
+	public static boolean hasVirtualThreads() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Creates a virtual thread that is not started yet.
+	 * @param  r    The task of the thread
+	 * @param  n    The name of the thread
+	 * @return      The new thread, or null if this JRE does not provide virtual threads.
+	 */
+	public static Thread newVirtualThread(Runnable r, String n) {
+		if(ofVirtual == null) {
+			return null;
+		}
+		try {
+			Object builder = ofVirtual.invoke(null);
+			builder = name.invoke(builder, n);
+			return (Thread) unstarted.invoke(builder, r);
+		} catch (ReflectiveOperationException e) {
+			System.err.println("[ThreadUtil] Unable to create a virtual thread: " + e.getMessage());
+			return null;
+		}
+	}
+}
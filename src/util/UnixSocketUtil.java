@@ -0,0 +1,123 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens channels on Unix domain sockets on JREs that provide them (Java 16 and later).
+ * The API is looked up by reflection, so that this class still compiles
+ * and runs on older JREs.
+ */
+public class UnixSocketUtil {
+	// UnixDomainSocketAddress.of(String), or null if this JRE does not have Unix domain sockets
+	private static final Method of;
+	// SocketChannel.open(ProtocolFamily)
+	private static final Method openChannel;
+	// ServerSocketChannel.open(ProtocolFamily)
+	private static final Method openServerChannel;
+	// StandardProtocolFamily.UNIX
+	private static final ProtocolFamily unix;
+
+	static {
+		Method o = null, c = null, s = null;
+		ProtocolFamily u = null;
+		try {
+			o = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+			c = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+			s = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+			u = Enum.valueOf(StandardProtocolFamily.class, "UNIX");
+		} catch (ReflectiveOperationException e) {
+			o = null;
+		} catch (IllegalArgumentException e) {
+			o = null;
+		}
+		of = o;
+		openChannel = c;
+		openServerChannel = s;
+		unix = u;
+	}
+
+	/**
+	 * @return Whether this JRE is able to open Unix domain sockets.
+	 */
+	public static boolean isAvailable() {
+		return of != null;
+	}
+
+	/**
+	 * Connects to the Unix domain socket at the given path.
+	 * @param  path        The path of the socket file
+	 * @return             A connected channel in blocking mode
+	 * @throws IOException If the connection fails, or this JRE does not provide Unix domain sockets
+	 */
+	public static SocketChannel connect(String path) throws IOException {
+		SocketChannel channel = (SocketChannel) invoke(openChannel);
+		try {
+			channel.connect(address(path));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * Opens a server channel on a Unix domain socket at the given path. A file that
+	 * is left over at that path from an earlier server is removed first. The socket
+	 * file is removed when this process exits.
+	 * @param  path        The path of the socket file
+	 * @return             A bound server channel in blocking mode
+	 * @throws IOException If the socket can not be bound, or this JRE does not provide Unix domain sockets
+	 */
+	public static ServerSocketChannel bind(String path) throws IOException {
+		ServerSocketChannel channel = (ServerSocketChannel) invoke(openServerChannel);
+		File file = new File(path);
+		if(file.exists() && !file.isDirectory() && !file.isFile()) {
+			file.delete();
+		}
+		try {
+			channel.bind(address(path));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		file.deleteOnExit();
+		return channel;
+	}
+
+	private static SocketAddress address(String path) throws IOException {
+		if(of == null) {
+			throw new IOException("Unix domain sockets are not available on this JRE.");
+		}
+		try {
+			return (SocketAddress) of.invoke(null, path);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Invalid socket path " + path + ": " + e.getCause().getMessage());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Unable to create the address of " + path + ": " + e.getMessage());
+		}
+	}
+
+	private static Object invoke(Method open) throws IOException {
+		if(open == null) {
+			throw new IOException("Unix domain sockets are not available on this JRE.");
+		}
+		try {
+			return open.invoke(null, unix);
+		} catch (InvocationTargetException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to open a Unix domain socket: " + e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Unable to open a Unix domain socket: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XORs byte arrays eight bytes at a time. This is the kernel behind combining
+ * packages and mixing keys, so it is on the critical path of every round.
+ */
+public class XorUtil {
+	// Bytes are read as words in the native order, whether they are in arrays, in
+	// buffers or in accumulators, so that all of them agree on the layout of a word.
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle BUFFER_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+	private XorUtil() {
+
+	}
+
+	/**
+	 * XORs {@code src} into {@code dst}.
+	 * Both arrays have to be at least as long as {@code dst}.
+	 */
+	public static void xor(byte[] dst, byte[] src) {
+		xor(dst, 0, src, 0, dst.length);
+	}
+
+	/**
+	 * XORs a range of {@code src} into a range of {@code dst}.
+	 * Whole words of eight bytes are combined as longs; the remaining bytes are combined one by one.
+	 *
+	 * @param dst       The array that is changed
+	 * @param dstOffset The index of the first byte in {@code dst}
+	 * @param src       The array that is XORed into {@code dst}
+	 * @param srcOffset The index of the first byte in {@code src}
+	 * @param length    The number of bytes to combine
+	 */
+	public static void xor(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+		int i = 0;
+		for(int words = length & ~7; i < words; i += 8) {
+			long d = (long) LONGS.get(dst, dstOffset + i);
+			long s = (long) LONGS.get(src, srcOffset + i);
+			LONGS.set(dst, dstOffset + i, d ^ s);
+		}
+		for(; i < length; i++) {
+			dst[dstOffset + i] ^= src[srcOffset + i];
+		}
+	}
+
+	/**
+	 * XORs a range of {@code src} into a range of {@code dst}, at absolute indices of {@code dst}.
+	 * The position and limit of {@code dst} are not changed.
+	 */
+	public static void xor(ByteBuffer dst, int dstOffset, byte[] src, int srcOffset, int length) {
+		if(dst.hasArray()) {
+			xor(dst.array(), dst.arrayOffset() + dstOffset, src, srcOffset, length);
+			return;
+		}
+		int i = 0;
+		for(int words = length & ~7; i < words; i += 8) {
+			long s = (long) LONGS.get(src, srcOffset + i);
+			BUFFER_LONGS.set(dst, dstOffset + i, (long) BUFFER_LONGS.get(dst, dstOffset + i) ^ s);
+		}
+		for(; i < length; i++) {
+			dst.put(dstOffset + i, (byte) (dst.get(dstOffset + i) ^ src[srcOffset + i]));
+		}
+	}
+
+	/**
+	 * XORs a range of {@code src} into a range of {@code dst}, at absolute indices of both buffers.
+	 * The positions and limits of the buffers are not changed.
+	 */
+	public static void xor(ByteBuffer dst, int dstOffset, ByteBuffer src, int srcOffset, int length) {
+		if(src.hasArray()) {
+			xor(dst, dstOffset, src.array(), src.arrayOffset() + srcOffset, length);
+			return;
+		}
+		int i = 0;
+		for(int words = length & ~7; i < words; i += 8) {
+			long s = (long) BUFFER_LONGS.get(src, srcOffset + i);
+			BUFFER_LONGS.set(dst, dstOffset + i, (long) BUFFER_LONGS.get(dst, dstOffset + i) ^ s);
+		}
+		for(; i < length; i++) {
+			dst.put(dstOffset + i, (byte) (dst.get(dstOffset + i) ^ src.get(srcOffset + i)));
+		}
+	}
+
+	/**
+	 * Returns the number of words of eight bytes that hold {@code length} bytes.
+	 */
+	public static int words(int length) {
+		return (length + 7) >>> 3;
+	}
+
+	/**
+	 * XORs a range of {@code src} into an accumulator of words. Every word is combined
+	 * atomically, so several threads may XOR into the same accumulator without a lock.
+	 * The bytes that do not fill a whole word are combined into the last word.
+	 *
+	 * @param dst       The accumulator, of at least {@code words(length)} words
+	 * @param src       The buffer that is XORed into {@code dst}, at absolute indices
+	 * @param srcOffset The index of the first byte in {@code src}
+	 * @param length    The number of bytes to combine
+	 */
+	public static void xorAtomic(long[] dst, ByteBuffer src, int srcOffset, int length) {
+		if(src.hasArray()) {
+			xorAtomic(dst, 0, src.array(), src.arrayOffset() + srcOffset, length);
+			return;
+		}
+		int words = length >>> 3;
+		for(int w = 0; w < words; w++) {
+			WORDS.getAndBitwiseXor(dst, w, (long) BUFFER_LONGS.get(src, srcOffset + (w << 3)));
+		}
+		int rest = length & 7;
+		if(rest > 0) {
+			long tail = 0;
+			for(int i = 0; i < rest; i++) {
+				tail |= (src.get(srcOffset + (words << 3) + i) & 0xFFL) << shift(i);
+			}
+			WORDS.getAndBitwiseXor(dst, words, tail);
+		}
+	}
+
+	/**
+	 * XORs a range of {@code src} into a range of an accumulator of words, atomically for every word.
+	 *
+	 * @param dst       The accumulator
+	 * @param dstOffset The index of the first byte in {@code dst}. This has to be a multiple of 8.
+	 * @param src       The array that is XORed into {@code dst}
+	 * @param srcOffset The index of the first byte in {@code src}
+	 * @param length    The number of bytes to combine
+	 */
+	public static void xorAtomic(long[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+		int first = dstOffset >>> 3;
+		int words = length >>> 3;
+		for(int w = 0; w < words; w++) {
+			WORDS.getAndBitwiseXor(dst, first + w, (long) LONGS.get(src, srcOffset + (w << 3)));
+		}
+		int rest = length & 7;
+		if(rest > 0) {
+			long tail = 0;
+			for(int i = 0; i < rest; i++) {
+				tail |= (src[srcOffset + (words << 3) + i] & 0xFFL) << shift(i);
+			}
+			WORDS.getAndBitwiseXor(dst, first + words, tail);
+		}
+	}
+
+	/**
+	 * XORs an accumulator of words into a range of {@code dst}, at absolute indices of {@code dst}.
+	 * This reverses the layout of {@code xorAtomic}. The accumulator must not change meanwhile.
+	 */
+	public static void xor(ByteBuffer dst, int dstOffset, long[] src, int length) {
+		if(dst.hasArray()) {
+			xor(dst.array(), dst.arrayOffset() + dstOffset, src, 0, length);
+			return;
+		}
+		int words = length >>> 3;
+		for(int w = 0; w < words; w++) {
+			int i = dstOffset + (w << 3);
+			BUFFER_LONGS.set(dst, i, (long) BUFFER_LONGS.get(dst, i) ^ src[w]);
+		}
+		for(int i = 0; i < (length & 7); i++) {
+			int j = dstOffset + (words << 3) + i;
+			dst.put(j, (byte) (dst.get(j) ^ (src[words] >>> shift(i))));
+		}
+	}
+
+	/**
+	 * XORs a range of an accumulator of words into a range of {@code dst}.
+	 * The range of the accumulator must not change meanwhile.
+	 *
+	 * @param dst       The array that is changed
+	 * @param dstOffset The index of the first byte in {@code dst}
+	 * @param src       The accumulator
+	 * @param srcOffset The index of the first byte in {@code src}. This has to be a multiple of 8.
+	 * @param length    The number of bytes to combine
+	 */
+	public static void xor(byte[] dst, int dstOffset, long[] src, int srcOffset, int length) {
+		int first = srcOffset >>> 3;
+		int words = length >>> 3;
+		for(int w = 0; w < words; w++) {
+			int i = dstOffset + (w << 3);
+			LONGS.set(dst, i, (long) LONGS.get(dst, i) ^ src[first + w]);
+		}
+		for(int i = 0; i < (length & 7); i++) {
+			dst[dstOffset + (words << 3) + i] ^= (byte) (src[first + words] >>> shift(i));
+		}
+	}
+
+	/**
+	 * Returns how far the byte at index {@code i} of a word is shifted in the native order.
+	 */
+	private static int shift(int i) {
+		return LITTLE_ENDIAN ? i << 3 : 56 - (i << 3);
+	}
+}
@@ -0,0 +1,202 @@
+package net;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import dc.DCChunk;
+import dc.DCPackage;
+
+
+public class MulticastTest {
+
+	/**
+	 * One end of a connection that hands every frame straight to the other end.
+	 * Frames that offer a multicast group are rewritten to a port that nothing is sent to,
+	 * so that every datagram of the group is lost and round results only arrive as repairs.
+	 */
+	private static class Loopback extends Connection {
+		private Loopback peer;
+		private final int deadPort;
+		// The number of round results that were repaired over this connection
+		private final AtomicInteger repaired = new AtomicInteger();
+
+		Loopback(PackageListener listener, int deadPort) {
+			super(listener);
+			this.deadPort = deadPort;
+		}
+
+		@Override
+		protected void send(Frame frame) throws IOException {
+			ByteBuffer data = frame.data.duplicate();
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			frame.written();
+			byte type = bytes[0];
+			InputStream is = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+			if(type == CAPABILITIES) {
+				peer.negotiate(bytes[1]);
+			} else if(type == MULTICAST_OFFER) {
+				ByteBuffer.wrap(bytes).putShort(1 + 4, (short) deadPort);
+				peer.handleMulticast(type, new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+			} else if(isMulticastFrame(type)) {
+				if(type == REPAIR) {
+					repaired.incrementAndGet();
+				}
+				peer.handleMulticast(type, is);
+			} else if(type == DC_PACKAGE) {
+				peer.deliver(DCPackage.getPackage(is, packageSize));
+			} else if(type == COMPACT_PACKAGE) {
+				peer.deliver(DCPackage.getCompactPackage(is, packageSize));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			detach();
+		}
+	}
+
+	private static class Recorder implements PackageListener {
+		private final ArrayList<Integer> numbers = new ArrayList<Integer>();
+
+		@Override
+		public synchronized void addInput(DCPackage message) {
+			numbers.add((int) message.getNumber());
+			message.release();
+			notifyAll();
+		}
+
+		@Override
+		public void addInput(NetStatPackage message) {
+		}
+
+		@Override
+		public void addInput(DCChunk chunk) {
+		}
+
+		@Override
+		public void connectionLost(String message) {
+			fail(message);
+		}
+
+		synchronized ArrayList<Integer> await(int count) throws InterruptedException {
+			while(numbers.size() < count) {
+				wait();
+			}
+			return new ArrayList<Integer>(numbers);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		DatagramSocket s = new DatagramSocket();
+		try {
+			return s.getLocalPort();
+		} finally {
+			s.close();
+		}
+	}
+
+	private static DCPackage result(int number) {
+		byte[] payload = new byte[DCPackage.PAYLOAD_SIZE];
+		payload[0] = (byte) number;
+		return new DCPackage(number, payload);
+	}
+
+	/**
+	 * Sends a round result to the port that a station receives on, as the group would.
+	 */
+	private static void datagram(int session, int seq, DCPackage p, int port) throws IOException {
+		ByteBuffer frame = p.getFrame(Connection.DC_PACKAGE);
+		ByteBuffer datagram = ByteBuffer.allocate(MulticastGroup.HEADER_SIZE + frame.remaining());
+		datagram.putInt(session).putInt(seq).putInt(p.getSize()).put(frame);
+		p.release();
+		DatagramSocket s = new DatagramSocket();
+		try {
+			s.send(new DatagramPacket(datagram.array(), datagram.capacity(), InetAddress.getLoopbackAddress(), port));
+		} finally {
+			s.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testLostDatagramsAreRepairedInOrder() throws IOException, InterruptedException {
+		Recorder station = new Recorder();
+		MulticastGroup group = new MulticastGroup("239.255.42.98:" + freePort());
+		Loopback server = new Loopback(null, 0);
+		int deadPort = freePort();
+		Loopback client = new Loopback(station, deadPort);
+		server.peer = client;
+		client.peer = server;
+		try {
+			server.setMulticastGroup(group);
+			client.announceCapabilities();
+			Connection[] recipients = new Connection[]{server};
+			// The first round result arrives over the connection and switches the station to the group
+			for(int round = 0; round < 5; round++) {
+				DCPackage p = result(round);
+				group.broadcast(p, recipients);
+				p.release();
+			}
+			// A datagram that arrives after a gap makes the station ask for the missing ones.
+			// The duplicate is dropped.
+			datagram(group.getSession(), 6, result(6), deadPort);
+			datagram(group.getSession(), 6, result(6), deadPort);
+			DCPackage p = result(5);
+			group.broadcast(p, recipients);
+			p.release();
+			DCPackage last = result(6);
+			group.broadcast(last, recipients);
+			last.release();
+			// The last one is only repaired once the station noticed that nothing arrived anymore
+			ArrayList<Integer> numbers = station.await(7);
+			for(int i = 0; i < numbers.size(); i++) {
+				assertEquals(i, (int) numbers.get(i));
+			}
+			Thread.sleep(200);
+			assertEquals(7, station.await(7).size());
+			// Everything after the first round result was sent to the group
+			assertTrue(server.repaired.get() >= 6);
+		} finally {
+			client.close();
+			group.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testRoundResultsThatCanNotBeRepairedAreSkipped() throws IOException, InterruptedException {
+		Recorder station = new Recorder();
+		Loopback server = new Loopback(null, 0);
+		Loopback client = new Loopback(station, 0);
+		server.peer = client;
+		client.peer = server;
+		MulticastReceiver r = new MulticastReceiver(client, 1, InetAddress.getByName("239.255.42.97"), freePort());
+		try {
+			// Round results that arrive before the station knows where to start are kept
+			r.received(3, result(3));
+			r.received(1, result(1));
+			r.start(1);
+			assertEquals(1, (int) station.await(1).get(0));
+			r.lost(2);
+			ArrayList<Integer> numbers = station.await(2);
+			assertEquals(3, (int) numbers.get(1));
+			r.received(2, result(2));
+			r.received(4, result(4));
+			numbers = station.await(3);
+			assertEquals(4, (int) numbers.get(2));
+			Thread.sleep(100);
+			assertEquals(3, station.await(3).size());
+		} finally {
+			r.close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package net;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dc.DCChunk;
+import dc.DCPackage;
+
+
+public class NioConnectionTest {
+
+	private static class Recorder implements PackageListener {
+		private DCPackage received;
+
+		@Override
+		public synchronized void addInput(DCPackage message) {
+			received = message;
+			notifyAll();
+		}
+
+		@Override
+		public void addInput(NetStatPackage message) {
+		}
+
+		@Override
+		public void addInput(DCChunk chunk) {
+		}
+
+		@Override
+		public void connectionLost(String message) {
+		}
+
+		synchronized DCPackage await() throws InterruptedException {
+			while(received == null) {
+				wait();
+			}
+			return received;
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testCompactFrameLargerThanReadBuffer() throws IOException, InterruptedException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		SocketChannel a = SocketChannel.open(server.getLocalAddress());
+		SocketChannel b = server.accept();
+		Recorder station = new Recorder();
+		NioConnection sender = new NioConnection(a);
+		NioConnection receiver = new NioConnection(b, station);
+		try {
+			receiver.announceCapabilities();
+			// Gives the sender time to learn that compact packages are accepted
+			Thread.sleep(200);
+			int size = 64 * 1024;
+			sender.send(new NetStatPackage.PackageSize(size));
+			// A few KB of a message in a large package, so that the compact frame is
+			// shorter than the package, but longer than the initial read buffer
+			byte[] payload = new byte[size - DCPackage.HEADER_SIZE];
+			byte[] message = new byte[20000];
+			new Random(42).nextBytes(message);
+			System.arraycopy(message, 0, payload, 0, message.length);
+			DCPackage p = new DCPackage(3, payload, size);
+			ByteBuffer compact = p.getCompactFrame(Connection.COMPACT_PACKAGE);
+			assertNotNull(compact);
+			assertTrue(compact.remaining() > 16 * 1024);
+			sender.send(p);
+
+			DCPackage received = station.await();
+			assertEquals(3, received.getNumber());
+			assertEquals(size, received.getSize());
+			byte[] receivedPayload = new byte[received.getPayloadSize()];
+			received.getPayload().get(receivedPayload);
+			assertTrue(Arrays.equals(payload, receivedPayload));
+			received.release();
+			p.release();
+		} finally {
+			sender.close();
+			receiver.close();
+			server.close();
+		}
+	}
+}
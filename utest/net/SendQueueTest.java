@@ -0,0 +1,121 @@
+package net;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import dc.DCConfig;
+import dc.DCConfig.SlowConsumerPolicy;
+import dc.DCPackage;
+
+
+public class SendQueueTest {
+
+	private static Frame frame(int number) {
+		DCPackage p = new DCPackage(number, new byte[16]);
+		Frame f = Frame.of(p);
+		// The queue holds its own reference now
+		p.release();
+		return f;
+	}
+
+	@Test
+	public void testDefaultPolicyDrops() {
+		if(System.getProperty("dcnet.slowconsumer") == null) {
+			assertEquals(SlowConsumerPolicy.DROP, DCConfig.slowConsumerPolicy);
+		}
+		assertEquals(SlowConsumerPolicy.COALESCE, SlowConsumerPolicy.forName("coalesce", SlowConsumerPolicy.DROP));
+		assertEquals(SlowConsumerPolicy.BLOCK, SlowConsumerPolicy.forName("Block", SlowConsumerPolicy.DROP));
+		assertEquals(SlowConsumerPolicy.DROP, SlowConsumerPolicy.forName("unknown", SlowConsumerPolicy.DROP));
+	}
+
+	@Test(timeout = 5000)
+	public void testBlockWaitsForSpace() throws InterruptedException {
+		final SendQueue q = new SendQueue(2, SlowConsumerPolicy.BLOCK);
+		assertTrue(q.offer(frame(0), true));
+		assertTrue(q.offer(frame(1), true));
+		final boolean[] offered = new boolean[1];
+		Thread sender = new Thread() {
+			@Override
+			public void run() {
+				offered[0] = q.offer(frame(2), true);
+			}
+		};
+		sender.start();
+		sender.join(200);
+		// The sender waits until the writer made space
+		assertTrue(sender.isAlive());
+		assertEquals(2, q.size());
+		q.remove();
+		sender.join();
+		assertTrue(offered[0]);
+		assertEquals(2, q.size());
+		assertEquals(2, q.peak());
+		assertEquals(0, q.dropped());
+	}
+
+	@Test
+	public void testBlockDoesNotBlockTheWriter() {
+		SendQueue q = new SendQueue(2, SlowConsumerPolicy.BLOCK);
+		for(int i = 0; i < 4; i++) {
+			assertTrue(q.offer(frame(i), false));
+		}
+		// The thread that drains the queue may exceed the limit instead of waiting for itself
+		assertEquals(4, q.size());
+		assertEquals(4, q.peak());
+		assertEquals(0, q.dropped());
+	}
+
+	@Test(timeout = 5000)
+	public void testCloseWakesBlockedSender() throws InterruptedException {
+		final SendQueue q = new SendQueue(1, SlowConsumerPolicy.BLOCK);
+		q.offer(frame(0), true);
+		Thread sender = new Thread() {
+			@Override
+			public void run() {
+				q.offer(frame(1), true);
+			}
+		};
+		sender.start();
+		sender.join(100);
+		q.close();
+		sender.join();
+		assertTrue(q.isClosed());
+		q.clear();
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void testDropGivesUpTheConnection() {
+		SendQueue q = new SendQueue(2, SlowConsumerPolicy.DROP);
+		assertTrue(q.offer(frame(0), true));
+		assertTrue(q.offer(frame(1), true));
+		assertFalse(q.offer(frame(2), true));
+		assertFalse(q.offer(Frame.of(new byte[]{1}), false));
+		assertEquals(2, q.size());
+		assertEquals(2, q.dropped());
+		assertEquals(2, q.peak());
+	}
+
+	@Test
+	public void testCoalesceKeepsStatusAndNewestPackage() {
+		SendQueue q = new SendQueue(3, SlowConsumerPolicy.COALESCE);
+		Frame first = frame(0);
+		Frame status = Frame.of(new byte[]{1, 2});
+		q.offer(first, true);
+		q.offer(frame(1), true);
+		q.offer(status, true);
+		// The queue is full; the waiting package gives way to the newest one
+		Frame newest = frame(3);
+		assertTrue(q.offer(newest, true));
+		assertEquals(3, q.size());
+		assertEquals(1, q.dropped());
+		assertSame(first, q.peek());
+		q.remove();
+		assertSame(status, q.peek());
+		q.remove();
+		assertSame(newest, q.peek());
+		q.remove();
+		assertTrue(q.isEmpty());
+		assertEquals(3, q.peak());
+	}
+}
@@ -1,9 +1,14 @@
 package utest;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -13,6 +18,94 @@ import dc.testing.DummyConnection;
 
 public class CommunicationTest {
 
+	@Test
+	public void testCompactEncodingRoundTrip() throws IOException {
+		Random r = new Random(42);
+		for(int t = 0; t < 100; t++) {
+			byte[] payload = new byte[DCPackage.PAYLOAD_SIZE];
+			// A few scattered bytes, as in a round with a short message
+			for(int i = 0; i < t; i++) {
+				payload[r.nextInt(payload.length)] = (byte) r.nextInt();
+			}
+			DCPackage p = new DCPackage(t % DCPackage.getNumberRange(), payload);
+			ByteBuffer frame = p.getCompactFrame((byte) 0);
+			assertNotNull(frame);
+			frame.get();
+			assertEquals(frame.remaining(), DCPackage.getCompactLength(frame, frame.position(), DCPackage.PACKAGE_SIZE));
 
+			byte[] encoded = new byte[frame.remaining()];
+			frame.duplicate().get(encoded);
+			DCPackage fromBuffer = DCPackage.getCompactPackage(frame);
+			DCPackage fromStream = DCPackage.getCompactPackage(new ByteArrayInputStream(encoded));
+			assertTrue(Arrays.equals(p.toByteArray(), fromBuffer.toByteArray()));
+			assertTrue(Arrays.equals(p.toByteArray(), fromStream.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testEmptyRoundIsSmall() {
+		DCPackage p = new DCPackage(0, new byte[DCPackage.PAYLOAD_SIZE]);
+		// The type byte, the header and a single run of zeros
+		assertEquals(6, p.getCompactFrame((byte) 0).remaining());
+	}
+
+	@Test
+	public void testRandomPayloadIsNotEncoded() {
+		byte[] payload = new byte[DCPackage.PAYLOAD_SIZE];
+		new Random(42).nextBytes(payload);
+		DCPackage p = new DCPackage(0, payload);
+		assertNull(p.getCompactFrame((byte) 0));
+	}
+
+	@Test
+	public void testLargePackageRoundTrip() throws IOException {
+		// Larger than a single run of the compact encoding
+		int size = 200000;
+		byte[] payload = new byte[size - DCPackage.HEADER_SIZE];
+		payload[100] = 1;
+		payload[payload.length - 1] = 2;
+		DCPackage p = new DCPackage(3, payload, size);
+		assertEquals(size, p.getSize());
+
+		ByteBuffer frame = p.getCompactFrame((byte) 0);
+		frame.get();
+		DCPackage compact = DCPackage.getCompactPackage(frame, size);
+		DCPackage plain = DCPackage.getPackage(new ByteArrayInputStream(p.toByteArray()), size);
+		assertTrue(Arrays.equals(p.toByteArray(), compact.toByteArray()));
+		assertTrue(Arrays.equals(p.toByteArray(), plain.toByteArray()));
+	}
+
+	@Test
+	public void testRoundNumberOutOfRangeIsRefused() throws IOException {
+		DCPackage p = new DCPackage(DCPackage.getNumberRange() - 1, new byte[DCPackage.PAYLOAD_SIZE]);
+		byte[] plain = p.toByteArray();
+		ByteBuffer frame = p.getCompactFrame((byte) 0);
+		frame.get();
+		byte[] compact = new byte[frame.remaining()];
+		frame.get(compact);
+		// The first number past the range fits into the header, but must not be accepted
+		plain[0] = (byte) DCPackage.getNumberRange();
+		compact[0] = (byte) DCPackage.getNumberRange();
+		try {
+			DCPackage.getPackage(new ByteArrayInputStream(plain));
+			fail("A plain package from a stream was accepted");
+		} catch(InputMismatchException e) {
+		}
+		try {
+			DCPackage.getPackage(ByteBuffer.wrap(plain), plain.length);
+			fail("A plain package from a buffer was accepted");
+		} catch(InputMismatchException e) {
+		}
+		try {
+			DCPackage.getCompactPackage(new ByteArrayInputStream(compact));
+			fail("A compact package from a stream was accepted");
+		} catch(InputMismatchException e) {
+		}
+		try {
+			DCPackage.getCompactPackage(ByteBuffer.wrap(compact));
+			fail("A compact package from a buffer was accepted");
+		} catch(InputMismatchException e) {
+		}
+	}
 
 }
@@ -0,0 +1,271 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dc.ChunkForwarder;
+import dc.ConnectionBundle;
+import dc.DCChunk;
+import dc.DCConfig;
+import dc.DCPackage;
+import dc.testing.DummyChannel;
+import dc.testing.DummyConnection;
+import net.Connection;
+import net.NetStatPackage;
+import net.PackageListener;
+
+
+public class ConnectionBundleTest {
+
+	/**
+	 * The station end of a connection, which ignores everything the bundle sends.
+	 */
+	private static class Station implements PackageListener {
+		@Override
+		public void addInput(DCPackage message) {
+			message.release();
+		}
+
+		@Override
+		public void addInput(NetStatPackage message) {
+		}
+
+		@Override
+		public void addInput(DCChunk chunk) {
+		}
+
+		@Override
+		public void connectionLost(String message) {
+		}
+	}
+
+	/**
+	 * Records the chunks that a bundle forwards, as the server above it would receive them.
+	 */
+	private static class Forwarder implements ChunkForwarder {
+		private final ArrayList<DCChunk> chunks = new ArrayList<DCChunk>();
+
+		@Override
+		public boolean isForwarding() {
+			return true;
+		}
+
+		@Override
+		public synchronized void forward(DCChunk chunk) {
+			chunks.add(chunk);
+			notifyAll();
+		}
+
+		/**
+		 * Waits for the next forwarded run of chunks.
+		 */
+		synchronized DCChunk await() throws InterruptedException {
+			while(chunks.isEmpty()) {
+				wait();
+			}
+			return chunks.remove(0);
+		}
+
+		synchronized boolean isEmpty() {
+			return chunks.isEmpty();
+		}
+	}
+
+	/**
+	 * Connects {@code count} stations to a bundle, and lets all of them join the network.
+	 * @return The connections on the side of the stations
+	 */
+	private static Connection[] connect(ConnectionBundle cb, int count, int window) {
+		Connection[] stations = new Connection[count];
+		for(int i = 0; i < count; i++) {
+			DummyChannel chA = new DummyChannel(), chB = new DummyChannel();
+			stations[i] = new DummyConnection(chA.getInputStream(), chB.getOutputStream(), new Station());
+			cb.addConnection(new DummyConnection(chB.getInputStream(), chA.getOutputStream(), null));
+		}
+		for(int i = 0; i < count; i++) {
+			try {
+				stations[i].send(new NetStatPackage.Joining("s" + i));
+			} catch(IOException e) {
+				fail(e.getMessage());
+			}
+		}
+		// The bundle takes the status packages in, as its server does
+		for(int i = 0; i < count; i++) {
+			cb.handle(cb.receiveStatusPackage());
+		}
+		// The rounds are opened again for all stations that joined
+		cb.handle(new NetStatPackage.RoundWindow(window));
+		return stations;
+	}
+
+	private static byte[][] payloads(int count, int seed) {
+		Random r = new Random(seed);
+		byte[][] payloads = new byte[count][DCPackage.PAYLOAD_SIZE];
+		for(byte[] p: payloads) {
+			r.nextBytes(p);
+		}
+		return payloads;
+	}
+
+	private static byte[] xor(byte[][] payloads) {
+		byte[] sum = new byte[DCPackage.PAYLOAD_SIZE];
+		for(byte[] p: payloads) {
+			for(int i = 0; i < sum.length; i++) {
+				sum[i] ^= p[i];
+			}
+		}
+		return sum;
+	}
+
+	private static byte[] payload(DCPackage p) {
+		byte[] payload = new byte[p.getPayloadSize()];
+		p.getPayload().get(payload);
+		p.release();
+		return payload;
+	}
+
+	/**
+	 * Sends the given rounds from every station at once, each station from a thread of its own.
+	 */
+	private static void sendAll(final Connection[] stations, final int[] rounds, final byte[][][] payloads) throws InterruptedException {
+		Thread[] threads = new Thread[stations.length];
+		for(int i = 0; i < stations.length; i++) {
+			final int station = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for(int j = 0; j < rounds.length; j++) {
+						DCPackage p = new DCPackage(rounds[j], payloads[j][station]);
+						try {
+							stations[station].send(p);
+						} catch(IOException e) {
+							fail(e.getMessage());
+						} finally {
+							p.release();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread t: threads) {
+			t.join();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testConcurrentInputsOfManyStations() throws IOException, InterruptedException {
+		ConnectionBundle cb = new ConnectionBundle();
+		try {
+			// More stations than fit into one word of the bitmap of contributors,
+			// and more than there are partial sums
+			Connection[] stations = connect(cb, 70, 1);
+			byte[][] payloads = payloads(stations.length, 1);
+			sendAll(stations, new int[]{0}, new byte[][][]{payloads});
+			DCPackage result = cb.receiveDCPackage();
+			assertEquals(0, result.getNumber());
+			assertTrue(Arrays.equals(xor(payloads), payload(result)));
+			assertFalse(cb.canReceive());
+		} finally {
+			cb.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testDuplicateInputsAreRefused() throws IOException, InterruptedException {
+		ConnectionBundle cb = new ConnectionBundle();
+		try {
+			Connection[] stations = connect(cb, 3, 2);
+			byte[][] first = payloads(3, 2);
+			// Station 0 sends round 0 twice; the second input does not count
+			stations[0].send(new DCPackage(0, first[0]));
+			stations[0].send(new DCPackage(0, payloads(1, 3)[0]));
+			stations[1].send(new DCPackage(0, first[1]));
+			// Nor does an input of another station that already contributed
+			stations[1].send(new DCPackage(0, first[0]));
+			Thread.sleep(200);
+			assertFalse(cb.canReceive());
+			stations[2].send(new DCPackage(0, first[2]));
+			assertTrue(Arrays.equals(xor(first), payload(cb.receiveDCPackage())));
+		} finally {
+			cb.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testRoundsAreHandedOverInOrder() throws IOException, InterruptedException {
+		ConnectionBundle cb = new ConnectionBundle();
+		try {
+			Connection[] stations = connect(cb, 5, 4);
+			byte[][][] payloads = new byte[4][][];
+			for(int j = 0; j < payloads.length; j++) {
+				payloads[j] = payloads(stations.length, 10 + j);
+			}
+			// Every station completes the later rounds of the window first
+			sendAll(stations, new int[]{3, 1, 2}, new byte[][][]{payloads[3], payloads[1], payloads[2]});
+			Thread.sleep(200);
+			// The complete rounds wait for the first round of the window
+			assertFalse(cb.canReceive());
+			sendAll(stations, new int[]{0}, new byte[][][]{payloads[0]});
+			for(int j = 0; j < 4; j++) {
+				DCPackage result = cb.receiveDCPackage();
+				assertEquals(j, result.getNumber());
+				assertTrue(Arrays.equals(xor(payloads[j]), payload(result)));
+			}
+			// The window moved on, so round 4 is open and round 0 is not anymore
+			sendAll(stations, new int[]{0, 4}, new byte[][][]{payloads[0], payloads[1]});
+			DCPackage result = cb.receiveDCPackage();
+			assertEquals(4, result.getNumber());
+			assertTrue(Arrays.equals(xor(payloads[1]), payload(result)));
+		} finally {
+			cb.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testChunksAreForwardedAsSoonAsTheyAreComplete() throws IOException, InterruptedException {
+		ConnectionBundle cb = new ConnectionBundle();
+		Forwarder forwarder = new Forwarder();
+		cb.setChunkForwarder(forwarder);
+		try {
+			Connection[] stations = connect(cb, 3, 1);
+			byte[][] payloads = payloads(3, 4);
+			byte[] sum = xor(payloads);
+			int payloadSize = DCPackage.PAYLOAD_SIZE;
+			int chunks = DCChunk.getCount(payloadSize);
+			assertTrue(chunks >= 3);
+			// Two stations send whole packages
+			stations[0].send(new DCPackage(0, payloads[0]));
+			stations[1].send(new DCPackage(0, payloads[1]));
+			Thread.sleep(100);
+			assertTrue(forwarder.isEmpty());
+
+			// The third one is a server below, which sends its chunks out of order
+			int[][] runs = new int[][]{{1, 1}, {chunks - 1, 1}, {0, 1}, {2, chunks - 3}};
+			for(int[] run: runs) {
+				if(run[1] == 0) continue;
+				int offset = run[0] * DCConfig.CHUNK_SIZE;
+				int length = DCChunk.getLength(run[0], run[1], payloadSize);
+				stations[2].send(new DCChunk(0, run[0], Arrays.copyOfRange(payloads[2], offset, offset + length)));
+				DCChunk forwarded = forwarder.await();
+				assertEquals(0, forwarded.getNumber());
+				assertEquals(run[0], forwarded.getIndex());
+				assertEquals(run[1], forwarded.getChunkCount());
+				assertTrue(Arrays.equals(Arrays.copyOfRange(sum, offset, offset + length), forwarded.getData()));
+			}
+			// A chunk that is sent again does not count
+			stations[2].send(new DCChunk(0, 0, new byte[DCConfig.CHUNK_SIZE]));
+			Thread.sleep(100);
+			assertTrue(forwarder.isEmpty());
+			// Rounds that were forwarded in chunks are not handed over as a whole
+			assertFalse(cb.canReceive());
+		} finally {
+			cb.close();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dc.DCChunk;
+import dc.DCConfig;
+import dc.DCPackage;
+
+
+public class DCChunkTest {
+
+	@Test
+	public void testCountAndLength() {
+		int size = DCConfig.CHUNK_SIZE;
+		assertEquals(1, DCChunk.getCount(1));
+		assertEquals(1, DCChunk.getCount(size));
+		assertEquals(2, DCChunk.getCount(size + 1));
+		// Only the last chunk is shorter
+		int payloadSize = 3 * size + 5;
+		assertEquals(4, DCChunk.getCount(payloadSize));
+		assertEquals(size, DCChunk.getLength(0, 1, payloadSize));
+		assertEquals(5, DCChunk.getLength(3, 1, payloadSize));
+		assertEquals(size + 5, DCChunk.getLength(2, 2, payloadSize));
+		assertEquals(payloadSize, DCChunk.getLength(0, 4, payloadSize));
+	}
+
+	@Test
+	public void testFits() {
+		int payloadSize = 3 * DCConfig.CHUNK_SIZE + 5;
+		assertTrue(DCChunk.fits(0, 4, payloadSize));
+		assertTrue(DCChunk.fits(3, 1, payloadSize));
+		assertFalse(DCChunk.fits(3, 2, payloadSize));
+		assertFalse(DCChunk.fits(4, 1, payloadSize));
+		assertFalse(DCChunk.fits(0, 0, payloadSize));
+	}
+
+	@Test
+	public void testEncodingRoundTrip() throws IOException {
+		int size = 3 * DCConfig.CHUNK_SIZE + 5 + DCPackage.HEADER_SIZE;
+		int payloadSize = size - DCPackage.HEADER_SIZE;
+		Random r = new Random(42);
+		for(int index = 0; index < 4; index++) {
+			for(int count = 1; index + count <= 4; count++) {
+				byte[] data = new byte[DCChunk.getLength(index, count, payloadSize)];
+				r.nextBytes(data);
+				DCChunk chunk = new DCChunk(7, index, data);
+				assertEquals(count, chunk.getChunkCount());
+				assertEquals(index * DCConfig.CHUNK_SIZE, chunk.getOffset());
+				byte[] encoded = chunk.toByteArray();
+				assertEquals(DCChunk.HEADER_SIZE + data.length, encoded.length);
+
+				DCChunk decoded = DCChunk.getChunk(new ByteArrayInputStream(encoded), size);
+				assertEquals(7, decoded.getNumber());
+				assertEquals(index, decoded.getIndex());
+				assertEquals(count, decoded.getChunkCount());
+				assertTrue(Arrays.equals(data, decoded.getData()));
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testChunkBeyondPackageIsRefused() throws IOException {
+		byte[] encoded = new DCChunk(0, 2, new byte[2 * DCConfig.CHUNK_SIZE]).toByteArray();
+		// A package of this size only has two chunks
+		DCChunk.getChunk(new ByteArrayInputStream(encoded), 2 * DCConfig.CHUNK_SIZE + DCPackage.HEADER_SIZE);
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedChunkIsRefused() throws IOException {
+		byte[] encoded = new DCChunk(0, 0, new byte[DCConfig.CHUNK_SIZE]).toByteArray();
+		DCChunk.getChunk(new ByteArrayInputStream(encoded, 0, encoded.length - 1), DCConfig.CHUNK_SIZE + DCPackage.HEADER_SIZE);
+	}
+
+	@Test(expected = InputMismatchException.class)
+	public void testRoundNumberOutOfBounds() {
+		new DCChunk(DCPackage.getNumberRange(), 0, new byte[1]);
+	}
+
+	@Test
+	public void testCombineWithPayload() {
+		int payloadSize = 2 * DCConfig.CHUNK_SIZE + 3;
+		byte[] payload = new byte[payloadSize];
+		new Random(42).nextBytes(payload);
+		byte[] data = new byte[DCChunk.getLength(1, 2, payloadSize)];
+		DCChunk chunk = new DCChunk(0, 1, data).combine(payload);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(payload, DCConfig.CHUNK_SIZE, payloadSize), chunk.getData()));
+	}
+}
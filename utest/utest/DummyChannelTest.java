@@ -0,0 +1,120 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dc.testing.DummyChannel;
+
+
+public class DummyChannelTest {
+
+	private static byte[] data(int length) {
+		byte[] b = new byte[length];
+		new Random(42).nextBytes(b);
+		return b;
+	}
+
+	/**
+	 * Writes {@code data} to a channel from another thread, in writes of varying sizes.
+	 */
+	private static Thread writer(final OutputStream os, final byte[] data, final int maxWrite) {
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				Random r = new Random(7);
+				try {
+					int off = 0;
+					while(off < data.length) {
+						int len = Math.min(data.length - off, 1 + r.nextInt(maxWrite));
+						if(len == 1) {
+							os.write(data[off]);
+						} else {
+							os.write(data, off, len);
+						}
+						off += len;
+					}
+				} catch(IOException e) {
+					fail(e.getMessage());
+				}
+			}
+		};
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Reads {@code length} bytes from a channel, in reads of varying sizes.
+	 */
+	private static byte[] read(InputStream is, int length, int maxRead) throws IOException {
+		Random r = new Random(11);
+		byte[] b = new byte[length];
+		int off = 0;
+		while(off < length) {
+			int len = Math.min(length - off, 1 + r.nextInt(maxRead));
+			if(len == 1) {
+				b[off++] = (byte) is.read();
+			} else {
+				off += is.read(b, off, len);
+			}
+		}
+		return b;
+	}
+
+	@Test(timeout = 20000)
+	public void testStreamLargerThanBuffer() throws IOException, InterruptedException {
+		DummyChannel channel = new DummyChannel(64);
+		// Many times the capacity, in pieces that do not line up with the end of the buffer
+		byte[] data = data(1 << 20);
+		Thread w = writer(channel.getOutputStream(), data, 100);
+		byte[] received = read(channel.getInputStream(), data.length, 50);
+		w.join();
+		assertTrue(Arrays.equals(data, received));
+		assertEquals(0, channel.getInputStream().available());
+	}
+
+	@Test(timeout = 20000)
+	public void testWritesLargerThanBuffer() throws IOException, InterruptedException {
+		DummyChannel channel = new DummyChannel(16);
+		byte[] data = data(100000);
+		Thread w = writer(channel.getOutputStream(), data, 1000);
+		byte[] received = read(channel.getInputStream(), data.length, 7);
+		w.join();
+		assertTrue(Arrays.equals(data, received));
+	}
+
+	@Test(timeout = 5000)
+	public void testFullBufferBlocksWriter() throws IOException, InterruptedException {
+		DummyChannel channel = new DummyChannel(16);
+		InputStream is = channel.getInputStream();
+		// Moves the positions, so that the full buffer wraps around its end
+		channel.getOutputStream().write(new byte[10]);
+		assertEquals(10, is.read(new byte[10]));
+
+		byte[] data = data(20);
+		Thread w = writer(channel.getOutputStream(), data, 20);
+		while(is.available() < 16) {
+			Thread.sleep(1);
+		}
+		w.join(100);
+		// The buffer is full, and the writer waits for the rest
+		assertTrue(w.isAlive());
+		assertEquals(16, is.available());
+		byte[] received = read(is, data.length, 20);
+		w.join();
+		assertTrue(Arrays.equals(data, received));
+	}
+
+	@Test
+	public void testCapacityIsRoundedUp() throws IOException {
+		DummyChannel channel = new DummyChannel(20);
+		// 32 bytes fit without a reader
+		channel.getOutputStream().write(new byte[32]);
+		assertEquals(32, channel.getInputStream().available());
+	}
+}
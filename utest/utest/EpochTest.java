@@ -0,0 +1,116 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dc.DCPackage;
+import dc.KeyHandler;
+import net.Network;
+
+
+public class EpochTest {
+
+	private static Network network() {
+		Network net = new Network();
+		net.addStation("a");
+		net.addStation("b");
+		return net;
+	}
+
+	private static KeyHandler keyHandler(String alias, String other) {
+		KeyHandler kh = new KeyHandler(alias);
+		kh.addKey(other);
+		return kh;
+	}
+
+	private static byte[] xor(byte[] a, byte[] b) {
+		byte[] c = new byte[a.length];
+		for(int i = 0; i < c.length; i++) {
+			c[i] = (byte) (a[i] ^ b[i]);
+		}
+		return c;
+	}
+
+	@Test
+	public void testWrapAdvancesEpoch() {
+		Network net = network();
+		int range = DCPackage.getNumberRange();
+		assertEquals(0, net.getEpoch(0));
+		net.addResult(range - 2);
+		// Rounds sent ahead past the end of the range belong to the next epoch
+		assertEquals(0, net.getEpoch(range - 1));
+		assertEquals(1, net.getEpoch(0));
+		assertEquals(1, net.getEpoch(range - 2));
+		net.addResult(range - 1);
+		net.addResult(0);
+		assertEquals(1, net.getEpoch());
+		assertEquals(1, net.getEpoch(1));
+		assertEquals(2, net.getEpoch(0));
+		// A result that skips some rounds, but does not reach the last one, stays in the epoch
+		net.addResult(5);
+		assertEquals(1, net.getEpoch(6));
+		assertEquals(5, net.getLastResult());
+	}
+
+	@Test
+	public void testRestartAndAnnouncement() {
+		Network net = network();
+		net.addResult(3);
+		net.restartRounds();
+		assertEquals(1, net.getEpoch(4));
+		assertEquals(2, net.getEpoch(3));
+
+		// A station that joins takes over the announced state
+		Network joined = network();
+		joined.setEpoch(net.getEpoch(), net.getLastResult());
+		for(int round = 0; round < DCPackage.getNumberRange(); round++) {
+			assertEquals(net.getEpoch(round), joined.getEpoch(round));
+		}
+		net.clear();
+		assertEquals(0, net.getEpoch(3));
+		assertEquals(-1, net.getLastResult());
+	}
+
+	@Test
+	public void testSharedKeysCancelInEveryEpoch() {
+		KeyHandler a = keyHandler("a", "b");
+		KeyHandler b = keyHandler("b", "a");
+		Network netA = network(), netB = network();
+		byte[] zero = new byte[100];
+		byte[] firstMix = null;
+		// Station b misses some results, but sees every wrap of the round numbers
+		for(int i = 0; i < 3 * DCPackage.getNumberRange(); i++) {
+			int round = i % DCPackage.getNumberRange();
+			byte[] mixA = a.getOutput(round, zero.length, netA);
+			byte[] mixB = b.getOutput(round, zero.length, netB);
+			assertTrue(Arrays.equals(zero, xor(mixA, mixB)));
+			if(i == 0) {
+				firstMix = mixA;
+			} else if(round == 0) {
+				// The same round number in another epoch uses fresh keystream
+				assertFalse(Arrays.equals(firstMix, mixA));
+			}
+			netA.addResult(round);
+			if(round % 3 == 0) {
+				netB.addResult(round);
+			}
+		}
+	}
+
+	@Test
+	public void testRoundsStartOverWithFreshKeystream() {
+		KeyHandler a = keyHandler("a", "b");
+		KeyHandler b = keyHandler("b", "a");
+		Network netA = network(), netB = network();
+		byte[] before = a.getOutput(4, 64, netA);
+		b.getOutput(4, 64, netB);
+		// A station leaves, and both stations send round 4 again
+		netA.restartRounds();
+		netB.restartRounds();
+		byte[] after = a.getOutput(4, 64, netA);
+		assertFalse(Arrays.equals(before, after));
+		assertTrue(Arrays.equals(new byte[64], xor(after, b.getOutput(4, 64, netB))));
+	}
+}
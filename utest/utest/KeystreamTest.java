@@ -0,0 +1,79 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dc.DCConfig.KeystreamMethod;
+import dc.keystream.KeystreamProvider;
+
+
+public class KeystreamTest {
+
+	private static byte[] stream(KeystreamProvider.Keystream keystream, int length, int epoch, int round, int streamOffset) {
+		byte[] b = new byte[length];
+		keystream.xor(b, 0, length, epoch, round, streamOffset);
+		return b;
+	}
+
+	private static KeystreamProvider.Keystream keystream(KeystreamMethod m) {
+		byte[] key = new byte[32];
+		new Random(42).nextBytes(key);
+		return m.getProvider().getKeystream(key);
+	}
+
+	@Test
+	public void testSlicesMatchWholeRound() {
+		for(KeystreamMethod m: KeystreamMethod.values()) {
+			KeystreamProvider.Keystream keystream = keystream(m);
+			int length = 5000;
+			byte[] whole = stream(keystream, length, 0, 3, 0);
+			// Slices of a round in order, as a key mix computes them
+			byte[] sliced = new byte[length];
+			for(int offset = 0; offset < length; offset += 1024) {
+				keystream.xor(sliced, offset, Math.min(1024, length - offset), 0, 3, offset);
+			}
+			assertTrue(m.name(), Arrays.equals(whole, sliced));
+			// The same round once more, and once more in slices
+			assertTrue(m.name(), Arrays.equals(whole, stream(keystream, length, 0, 3, 0)));
+			Arrays.fill(sliced, (byte) 0);
+			for(int offset = 0; offset < length; offset += 1024) {
+				keystream.xor(sliced, offset, Math.min(1024, length - offset), 0, 3, offset);
+			}
+			assertTrue(m.name(), Arrays.equals(whole, sliced));
+		}
+	}
+
+	@Test
+	public void testSlicesOutOfOrder() {
+		for(KeystreamMethod m: KeystreamMethod.values()) {
+			KeystreamProvider.Keystream keystream = keystream(m);
+			byte[] whole = stream(keystream, 4096, 1, 7, 0);
+			byte[] sliced = new byte[4096];
+			keystream.xor(sliced, 2048, 2048, 1, 7, 2048);
+			// Another round in between
+			stream(keystream, 100, 1, 8, 0);
+			keystream.xor(sliced, 0, 2048, 1, 7, 0);
+			assertTrue(m.name(), Arrays.equals(whole, sliced));
+		}
+	}
+
+	@Test
+	public void testEpochRoundAndOffsetAddressing() {
+		for(KeystreamMethod m: KeystreamMethod.values()) {
+			KeystreamProvider.Keystream keystream = keystream(m);
+			byte[] whole = stream(keystream, 300, 2, 5, 0);
+			// Each epoch and each round has a stream of its own
+			assertFalse(m.name(), Arrays.equals(whole, stream(keystream, 300, 3, 5, 0)));
+			assertFalse(m.name(), Arrays.equals(whole, stream(keystream, 300, 2, 6, 0)));
+			assertFalse(m.name(), Arrays.equals(whole, stream(keystream, 300, 1, 5, 0)));
+			// An offset addresses a position in the stream of the round, not the start of another one
+			int offset = 2 * KeystreamProvider.BLOCK_SIZE;
+			byte[] tail = stream(keystream, 300 - offset, 2, 5, offset);
+			assertTrue(m.name(), Arrays.equals(Arrays.copyOfRange(whole, offset, 300), tail));
+			assertTrue(m.name(), Arrays.equals(whole, stream(keystream, 300, 2, 5, 0)));
+		}
+	}
+}
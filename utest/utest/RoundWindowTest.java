@@ -0,0 +1,151 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dc.DCChunk;
+import dc.DCConfig;
+import dc.DCPackage;
+import dc.DcClient;
+import dc.scheduling.FootprintScheduler;
+import dc.testing.DummyChannel;
+import dc.testing.DummyConnection;
+import net.Connection;
+import net.NetStatPackage;
+import net.PackageListener;
+
+
+public class RoundWindowTest {
+
+	/**
+	 * The server end of a connection, which records the rounds that the client sent output for.
+	 */
+	private static class Recorder implements PackageListener {
+		private final ArrayList<Integer> rounds = new ArrayList<Integer>();
+
+		@Override
+		public synchronized void addInput(DCPackage message) {
+			rounds.add((int) message.getNumber());
+			message.release();
+			notifyAll();
+		}
+
+		@Override
+		public void addInput(NetStatPackage message) {
+		}
+
+		@Override
+		public void addInput(DCChunk chunk) {
+		}
+
+		@Override
+		public void connectionLost(String message) {
+		}
+
+		/**
+		 * Waits for the output of {@code count} more rounds and returns their numbers.
+		 */
+		synchronized Integer[] await(int count) throws InterruptedException {
+			while(rounds.size() < count) {
+				wait();
+			}
+			Integer[] r = rounds.subList(0, count).toArray(new Integer[count]);
+			rounds.subList(0, count).clear();
+			return r;
+		}
+
+		synchronized int pending() {
+			return rounds.size();
+		}
+	}
+
+	private static Integer[] rounds(int... numbers) {
+		Integer[] r = new Integer[numbers.length];
+		for(int i = 0; i < numbers.length; i++) {
+			r[i] = numbers[i];
+		}
+		return r;
+	}
+
+	private static DCPackage result(int round) {
+		return new DCPackage(round, new byte[DCPackage.PAYLOAD_SIZE]);
+	}
+
+	@Test
+	public void testWindowIsClamped() {
+		assertTrue(DCConfig.ROUND_WINDOW >= 1);
+		assertTrue(DCConfig.ROUND_WINDOW <= DCConfig.MAX_ROUND_WINDOW);
+		// Rounds in progress have to be told apart by their number
+		assertTrue(2 * DCConfig.MAX_ROUND_WINDOW <= DCPackage.getNumberRange());
+	}
+
+	@Test(timeout = 10000)
+	public void testClientSendsAheadAndResends() throws IOException, InterruptedException {
+		DcClient client = new DcClient("c1");
+		Recorder server = new Recorder();
+		DummyChannel chA = new DummyChannel(), chB = new DummyChannel();
+		Connection toServer = new DummyConnection(chA.getInputStream(), chB.getOutputStream(), client);
+		Connection toClient = new DummyConnection(chB.getInputStream(), chA.getOutputStream(), server);
+		client.setConnection(toServer);
+		try {
+			toClient.send(new NetStatPackage.RoundWindow(4));
+			toClient.send(new NetStatPackage.Joining("c0"));
+			toClient.send(new NetStatPackage.Joining("c1"));
+			// A client that becomes active joins at the end of the window
+			toClient.send(result(0));
+			assertTrue(Arrays.equals(rounds(4), server.await(1)));
+			toClient.send(result(1));
+			assertTrue(Arrays.equals(rounds(5), server.await(1)));
+			// Results that arrive after the rounds were sent only move the window on
+			toClient.send(result(2));
+			toClient.send(result(3));
+			assertTrue(Arrays.equals(rounds(6, 7), server.await(2)));
+			// The rounds in progress start over when a station leaves
+			toClient.send(new NetStatPackage.Leaving("c0"));
+			assertTrue(Arrays.equals(rounds(4, 5, 6, 7), server.await(4)));
+			// After a gap the client catches up with the end of the window, around the end of the range
+			toClient.send(result(13));
+			assertTrue(Arrays.equals(rounds(1), server.await(1)));
+			toClient.send(result(14));
+			assertTrue(Arrays.equals(rounds(2), server.await(1)));
+			Thread.sleep(100);
+			assertEquals(0, server.pending());
+		} finally {
+			toClient.close();
+			client.close();
+		}
+	}
+
+	@Test
+	public void testFootprintsOfRoundsInProgress() {
+		int range = DCPackage.getNumberRange();
+		FootprintScheduler scheduler = new FootprintScheduler(range);
+		int size = scheduler.getScheduleSize();
+		int window = DCConfig.MAX_ROUND_WINDOW;
+		byte[][] sent = new byte[range][];
+		for(int round = 0; round < window; round++) {
+			sent[round] = scheduler.getSchedule(round);
+		}
+		boolean reserved = false;
+		for(int round = 0; round < range; round++) {
+			// The only station of the network gets back what it sent in that round,
+			// even though it sent later rounds in the meantime.
+			byte[] payload = new byte[DCPackage.PAYLOAD_SIZE];
+			System.arraycopy(sent[round], 0, payload, 0, size);
+			reserved = scheduler.addPackage(new DCPackage(round, payload), true);
+			if(round + window < range) {
+				sent[round + window] = scheduler.getSchedule(round + window);
+			}
+		}
+		// Without collisions the station keeps every slot
+		assertTrue(reserved);
+		for(int slot = 0; slot < size * 4; slot++) {
+			assertEquals(slot, scheduler.getNextRound());
+		}
+		assertEquals(-1, scheduler.getNextRound());
+	}
+}
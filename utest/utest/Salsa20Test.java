@@ -0,0 +1,70 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.neilalexander.jnacl.crypto.salsa20;
+
+
+public class Salsa20Test {
+
+	@Test
+	public void testStreamXorMatchesReference() {
+		Random r = new Random(42);
+		byte[] key = new byte[32];
+		r.nextBytes(key);
+		byte[] nonce = Arrays.copyOf(key, 8);
+		for(int length: new int[]{1, 63, 64, 65, 1023, 1024, 5000}) {
+			byte[] reference = new byte[length];
+			salsa20.crypto_stream_xor(reference, new byte[length], length, nonce, 0, key);
+
+			int[] state = new int[salsa20.STATE_WORDS];
+			salsa20.stream_setup(state, nonce, 0, key);
+			byte[] stream = new byte[length];
+			// Generate the stream in two parts to check that the block counter is carried over.
+			int first = Math.min(length, 2 * salsa20.BLOCK_BYTES);
+			salsa20.stream_xor(stream, 0, first, state);
+			salsa20.stream_xor(stream, first, length - first, state);
+			assertTrue(Arrays.equals(reference, stream));
+		}
+	}
+
+	@Test
+	public void testPartialBlockAdvancesCounter() {
+		byte[] key = new byte[32];
+		int[] a = new int[salsa20.STATE_WORDS], b = new int[salsa20.STATE_WORDS];
+		salsa20.stream_setup(a, key, 0, key);
+		salsa20.stream_setup(b, key, 0, key);
+		salsa20.stream_xor(new byte[10], 0, 10, a);
+		salsa20.stream_xor(new byte[64], 0, 64, b);
+		assertTrue(Arrays.equals(a, b));
+	}
+
+	@Test
+	public void testLanesMatchSingleKeys() {
+		Random r = new Random(7);
+		int keys = salsa20.LANES + 3;
+		int[][] states = new int[keys][salsa20.STATE_WORDS];
+		int[] n0 = new int[keys];
+		for(int i = 0; i < keys; i++) {
+			byte[] key = new byte[32];
+			r.nextBytes(key);
+			salsa20.stream_setup(states[i], new byte[8], 0, key);
+			n0[i] = r.nextInt();
+		}
+		for(int length: new int[]{5, 64, 130, 1023}) {
+			byte[] single = new byte[length];
+			byte[] lanes = new byte[length];
+			for(int i = 0; i < keys; i++) {
+				salsa20.stream_xor(single, 0, length, states[i], n0[i], 3, 9);
+			}
+			for(int i = 0; i < keys; i += salsa20.LANES) {
+				salsa20.stream_xor_lanes(lanes, 0, length, states, n0, i, Math.min(salsa20.LANES, keys - i), 3, 9);
+			}
+			assertTrue(Arrays.equals(single, lanes));
+		}
+	}
+}
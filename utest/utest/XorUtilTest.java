@@ -0,0 +1,164 @@
+package utest;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import util.XorUtil;
+
+
+public class XorUtilTest {
+
+	/**
+	 * XORs one byte at a time, as a reference for the word-wide kernel.
+	 */
+	private static void xorBytes(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+		for(int i = 0; i < length; i++) {
+			dst[dstOffset + i] ^= src[srcOffset + i];
+		}
+	}
+
+	@Test
+	public void testUnalignedRangesMatchByteLoop() {
+		Random r = new Random(42);
+		byte[] src = new byte[100];
+		r.nextBytes(src);
+		for(int dstOffset = 0; dstOffset < 9; dstOffset++) {
+			for(int srcOffset = 0; srcOffset < 9; srcOffset++) {
+				// Lengths around whole words, so that the tail takes every size
+				for(int length = 0; length < 40; length++) {
+					byte[] expected = new byte[64];
+					r.nextBytes(expected);
+					byte[] actual = expected.clone();
+					xorBytes(expected, dstOffset, src, srcOffset, length);
+					XorUtil.xor(actual, dstOffset, src, srcOffset, length);
+					assertTrue(Arrays.equals(expected, actual));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testWholeArrays() {
+		Random r = new Random(42);
+		for(int length: new int[]{0, 1, 7, 8, 9, 1024, 1031}) {
+			byte[] a = new byte[length], b = new byte[length];
+			r.nextBytes(a);
+			r.nextBytes(b);
+			byte[] expected = a.clone();
+			xorBytes(expected, 0, b, 0, length);
+			XorUtil.xor(a, b);
+			assertTrue(Arrays.equals(expected, a));
+			// XORing the same input twice restores the original
+			XorUtil.xor(a, b);
+			xorBytes(expected, 0, b, 0, length);
+			assertTrue(Arrays.equals(expected, a));
+		}
+	}
+
+	@Test
+	public void testBytesOutsideTheRangeAreKept() {
+		byte[] dst = new byte[32];
+		byte[] src = new byte[32];
+		Arrays.fill(src, (byte) 0xFF);
+		XorUtil.xor(dst, 3, src, 5, 13);
+		for(int i = 0; i < dst.length; i++) {
+			assertEquals(i >= 3 && i < 16 ? (byte) 0xFF : 0, dst[i]);
+		}
+	}
+
+	private static byte[] contents(ByteBuffer b) {
+		byte[] bytes = new byte[b.capacity()];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = b.get(i);
+		}
+		return bytes;
+	}
+
+	private static ByteBuffer direct(byte[] bytes) {
+		ByteBuffer b = ByteBuffer.allocateDirect(bytes.length);
+		b.put(bytes);
+		b.clear();
+		return b;
+	}
+
+	@Test
+	public void testDirectBufferKeepsByteOrder() {
+		byte[] src = new byte[16];
+		for(int i = 0; i < src.length; i++) {
+			src[i] = (byte) (i + 1);
+		}
+		ByteBuffer dst = ByteBuffer.allocateDirect(16);
+		XorUtil.xor(dst, 0, src, 0, src.length);
+		assertTrue(Arrays.equals(src, contents(dst)));
+	}
+
+	@Test
+	public void testDirectBuffersMatchByteLoop() {
+		Random r = new Random(42);
+		byte[] src = new byte[100];
+		r.nextBytes(src);
+		for(int dstOffset = 0; dstOffset < 9; dstOffset++) {
+			for(int length = 0; length < 40; length++) {
+				byte[] expected = new byte[64];
+				r.nextBytes(expected);
+				ByteBuffer fromArray = direct(expected);
+				ByteBuffer fromDirect = direct(expected);
+				ByteBuffer fromHeap = direct(expected);
+				xorBytes(expected, dstOffset, src, 3, length);
+				XorUtil.xor(fromArray, dstOffset, src, 3, length);
+				XorUtil.xor(fromDirect, dstOffset, direct(src), 3, length);
+				XorUtil.xor(fromHeap, dstOffset, ByteBuffer.wrap(src), 3, length);
+				assertTrue(Arrays.equals(expected, contents(fromArray)));
+				assertTrue(Arrays.equals(expected, contents(fromDirect)));
+				assertTrue(Arrays.equals(expected, contents(fromHeap)));
+			}
+		}
+	}
+
+	@Test
+	public void testAccumulatorRoundTrip() {
+		Random r = new Random(42);
+		for(int length: new int[]{1, 7, 8, 13, 64, 1027}) {
+			byte[] a = new byte[length + 5], b = new byte[length + 5];
+			r.nextBytes(a);
+			r.nextBytes(b);
+			byte[] expected = new byte[length];
+			xorBytes(expected, 0, a, 5, length);
+			xorBytes(expected, 0, b, 5, length);
+
+			// One input from an array and one from a direct buffer, as packages may be backed by either
+			long[] accumulator = new long[XorUtil.words(length)];
+			XorUtil.xorAtomic(accumulator, ByteBuffer.wrap(a), 5, length);
+			XorUtil.xorAtomic(accumulator, direct(b), 5, length);
+
+			byte[] toArray = new byte[length];
+			XorUtil.xor(toArray, 0, accumulator, 0, length);
+			ByteBuffer toHeap = ByteBuffer.allocate(length + 3);
+			XorUtil.xor(toHeap, 3, accumulator, length);
+			ByteBuffer toDirect = ByteBuffer.allocateDirect(length + 3);
+			XorUtil.xor(toDirect, 3, accumulator, length);
+			assertTrue(Arrays.equals(expected, toArray));
+			assertTrue(Arrays.equals(expected, Arrays.copyOfRange(contents(toHeap), 3, length + 3)));
+			assertTrue(Arrays.equals(expected, Arrays.copyOfRange(contents(toDirect), 3, length + 3)));
+		}
+	}
+
+	@Test
+	public void testAccumulatorAtOffset() {
+		Random r = new Random(42);
+		byte[] src = new byte[40];
+		r.nextBytes(src);
+		long[] accumulator = new long[8];
+		// A range that starts at the third word and ends in the middle of a word
+		XorUtil.xorAtomic(accumulator, 16, src, 1, 21);
+		byte[] result = new byte[64];
+		XorUtil.xor(result, 0, accumulator, 0, 64);
+		byte[] expected = new byte[64];
+		xorBytes(expected, 16, src, 1, 21);
+		assertTrue(Arrays.equals(expected, result));
+	}
+}